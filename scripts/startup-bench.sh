@@ -0,0 +1,33 @@
+#!/usr/bin/env bash
+# Time to ready and first-request latency of the plain image (Dockerfile) and
+# the AppCDS + AOT image (Dockerfile.cds). Prints one JSON line per start.
+#
+# Usage: scripts/startup-bench.sh [runs]
+set -euo pipefail
+
+RUNS=${1:-3}
+PORT=${PORT:-18080}
+# Not one of the warm-up requests, so it is a genuine first solve
+REQUEST='{"type":"forward","predicate":"some disj f1, f2: Felony, m: Misdemeanor, x: Expungement | f1.date = d2010 and f2.date = d2012 and m.date = d2014 and f1 in x.con\n","run":"run userDefinedPredicate for 5 but exactly 2 Felony, exactly 1 Misdemeanor, exactly 1 Expungement, 6 steps"}'
+
+cd "$(dirname "$0")/.."
+./mvnw -B -q -P cds package -DskipTests
+docker build -q -t alloy-runner:plain -f Dockerfile . > /dev/null
+docker build -q -t alloy-runner:cds -f Dockerfile.cds . > /dev/null
+
+now_ms() { date +%s%3N; }
+
+for image in plain cds; do
+	for run in $(seq 1 "$RUNS"); do
+		start=$(now_ms)
+		container=$(docker run -d -p "$PORT:8080" "alloy-runner:$image")
+		until curl -sf "http://localhost:$PORT/actuator/health/readiness" > /dev/null; do
+			sleep 0.1
+		done
+		ready=$(now_ms)
+		curl -sf -o /dev/null -H 'Content-Type: application/json' -d "$REQUEST" "http://localhost:$PORT/api/alloy/run"
+		first=$(now_ms)
+		docker rm -f "$container" > /dev/null
+		echo "{\"image\":\"$image\",\"run\":$run,\"readyMs\":$((ready - start)),\"firstRequestMs\":$((first - ready))}"
+	done
+done
@@ -0,0 +1,50 @@
+package com.expungement.alloy.alloyrunner.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The representative records in records/records.json and the base models they
+ * run against. "forward" requests use michigan.als, "backward" michigan-backward.als,
+ * the same as the service.
+ */
+final class BenchmarkRecords {
+
+    private BenchmarkRecords() {
+    }
+
+    static String modelFile(String direction) {
+        return "forward".equals(direction) ? "michigan.als" : "michigan-backward.als";
+    }
+
+    static String modelText(String file) throws IOException {
+        return resource("models/" + file);
+    }
+
+    /**
+     * The {"predicate", "run"} request for a record in the given direction.
+     */
+    static JSONObject request(String name, String direction) throws IOException {
+        JSONArray records = new JSONArray(resource("records/records.json"));
+        for (int i = 0; i < records.length(); i++) {
+            JSONObject record = records.getJSONObject(i);
+            if (record.getString("name").equals(name)) {
+                return record.getJSONObject(direction);
+            }
+        }
+        throw new IllegalArgumentException("No benchmark record named " + name);
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream stream = BenchmarkRecords.class.getClassLoader().getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
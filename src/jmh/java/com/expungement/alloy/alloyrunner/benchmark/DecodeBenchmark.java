@@ -0,0 +1,84 @@
+package com.expungement.alloy.alloyrunner.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.service.AlloyResult;
+import com.expungement.alloy.alloyrunner.service.AlloyService;
+import com.expungement.alloy.alloyrunner.service.RunProjection;
+
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import kodkod.engine.satlab.SATFactory;
+
+/**
+ * Turning a solution into the /run and /evaluate responses. The solution is
+ * computed once per trial; only decoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({ "small", "medium", "large" })
+    public String record;
+
+    @Param({ "forward", "backward" })
+    public String direction;
+
+    private static final RunProjection FULL_TRACE = RunProjection.of(
+            List.of("expungements", "violations", "now", "events", "event_date", "expunged"), RunProjection.ALL);
+
+    private A4Solution solution;
+    // The converters do not use any injected collaborators
+    private final AlloyService alloyService = new AlloyService();
+    private final AlloyResult alloyResult = new AlloyResult();
+
+    @Setup
+    public void solve() throws Exception {
+        String file = BenchmarkRecords.modelFile(direction);
+        CompiledModel model = CompiledModel.compile(file, BenchmarkRecords.modelText(file));
+        JSONObject request = BenchmarkRecords.request(record, direction);
+        A4Options options = new A4Options();
+        options.solver = SATFactory.get("minisat");
+        solution = model.prepare(request.getString("predicate"), request.getString("run")).execute(options);
+        if (!solution.satisfiable()) {
+            throw new IllegalStateException("Benchmark record " + record + " (" + direction + ") has no solution");
+        }
+    }
+
+    @Benchmark
+    public JSONObject convertToJSONFull() {
+        return alloyService.convertToJSONFull(solution);
+    }
+
+    // The /run response with every field for every state, the most a client can ask for
+    @Benchmark
+    public JSONObject fullTrace() {
+        return FULL_TRACE.decode(new SolutionDecoder(solution));
+    }
+
+    @Benchmark
+    public JSONArray convertToJSONArray() {
+        return alloyResult.convertToJSONArray(solution);
+    }
+}
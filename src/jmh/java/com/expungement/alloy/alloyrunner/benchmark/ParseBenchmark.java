@@ -0,0 +1,46 @@
+package com.expungement.alloy.alloyrunner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.csail.sdg.parser.CompModule;
+import edu.mit.csail.sdg.parser.CompUtil;
+
+/**
+ * Parsing and type-checking a base model from scratch, which is what every
+ * request paid before models were cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({ "michigan.als", "michigan-backward.als" })
+    public String model;
+
+    private String text;
+
+    @Setup
+    public void load() throws Exception {
+        text = BenchmarkRecords.modelText(model);
+    }
+
+    @Benchmark
+    public CompModule parse() {
+        return CompUtil.parseEverything_fromString(null, text);
+    }
+}
@@ -0,0 +1,73 @@
+package com.expungement.alloy.alloyrunner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import kodkod.engine.satlab.SATFactory;
+
+/**
+ * Resolving a request against the cached base model, and translating plus
+ * solving it, per record and direction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SolveBenchmark {
+
+    @Param({ "small", "medium", "large" })
+    public String record;
+
+    @Param({ "forward", "backward" })
+    public String direction;
+
+    @Param({ "minisat" })
+    public String solver;
+
+    private CompiledModel model;
+    private String predicate;
+    private String run;
+    private CompiledQuery query;
+    private A4Options options;
+
+    @Setup
+    public void prepare() throws Exception {
+        String file = BenchmarkRecords.modelFile(direction);
+        model = CompiledModel.compile(file, BenchmarkRecords.modelText(file));
+        JSONObject request = BenchmarkRecords.request(record, direction);
+        predicate = request.getString("predicate");
+        run = request.getString("run");
+        query = model.prepare(predicate, run);
+        options = new A4Options();
+        options.solver = SATFactory.get(solver);
+    }
+
+    @Benchmark
+    public CompiledQuery resolve() {
+        return model.prepare(predicate, run);
+    }
+
+    @Benchmark
+    public A4Solution translateAndSolve() {
+        return query.execute(options);
+    }
+}
@@ -0,0 +1,82 @@
+package com.expungement.alloy.alloyrunner.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Samples the solver pool threads while a load level runs and counts how often
+ * they are blocked on a monitor, and where. Solves that serialize on shared
+ * state (a static lock in the parser, translator or a native solver binding)
+ * show up as a high blocked share with one dominant site, even when the
+ * throughput numbers alone only say that adding threads did not help.
+ */
+final class ContentionSampler implements Runnable {
+
+    private static final String SOLVER_THREAD = "alloy-solver-";
+    private static final long INTERVAL_MS = 20;
+    private static final int TOP_SITES = 5;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<String, Integer> sites = new HashMap<>();
+    private volatile boolean running = true;
+    private long samples;
+    private long runnable;
+    private long blocked;
+
+    @Override
+    public void run() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    private synchronized void sample() {
+        for (ThreadInfo info : threads.dumpAllThreads(false, false, 1)) {
+            if (!info.getThreadName().startsWith(SOLVER_THREAD)) {
+                continue;
+            }
+            samples++;
+            switch (info.getThreadState()) {
+                case RUNNABLE:
+                    runnable++;
+                    break;
+                case BLOCKED:
+                    blocked++;
+                    StackTraceElement[] stack = info.getStackTrace();
+                    String site = info.getLockName() + (stack.length > 0 ? " at " + stack[0] : "");
+                    sites.merge(site, 1, Integer::sum);
+                    break;
+                default:
+                    // Idle threads wait for work; they say nothing about contention
+            }
+        }
+    }
+
+    synchronized JSONObject report() {
+        JSONArray top = new JSONArray();
+        sites.entrySet().stream()
+                .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                .limit(TOP_SITES)
+                .forEach(site -> top.put(new JSONObject().put("site", site.getKey()).put("samples", site.getValue())));
+        long busy = runnable + blocked;
+        return new JSONObject()
+                .put("threadSamples", samples)
+                .put("blockedShare", busy == 0 ? 0 : (double) blocked / busy)
+                .put("blockedSites", top);
+    }
+}
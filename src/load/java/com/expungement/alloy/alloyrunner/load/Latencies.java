@@ -0,0 +1,47 @@
+package com.expungement.alloy.alloyrunner.load;
+
+import java.util.Arrays;
+
+/**
+ * Request latencies recorded during one load level, in microseconds.
+ */
+final class Latencies {
+
+    private long[] values = new long[1024];
+    private int size;
+
+    synchronized void add(long micros) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = micros;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    /**
+     * The nearest-rank percentile in milliseconds, or 0 when nothing was recorded.
+     */
+    synchronized double percentileMs(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * size);
+        return sorted[Math.max(0, Math.min(size, rank) - 1)] / 1000.0;
+    }
+
+    synchronized double meanMs() {
+        if (size == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += values[i];
+        }
+        return total / 1000.0 / size;
+    }
+}
@@ -0,0 +1,264 @@
+package com.expungement.alloy.alloyrunner.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.expungement.alloy.alloyrunner.AlloyRunnerApplication;
+
+/**
+ * Load test for /run and /evaluate: starts the application on a free local port
+ * once per solver thread count, replays a mix of forward and backward requests
+ * from closed-loop clients at each concurrency level, and reports latency
+ * percentiles, throughput and error rate per level.
+ *
+ * The result cache is turned off, so every request is translated and solved.
+ * Comparing the throughput at 1, 2, 4 and N solver threads shows whether
+ * solving scales with cores; the contention sample for each level shows where
+ * solver threads block when it does not.
+ *
+ * <pre>
+ * mvn -P load package exec:exec -Dload.args="--threads 1,2,4,0 --concurrency 1,4,16 --requests 200"
+ * </pre>
+ *
+ * Options (defaults in brackets): --threads solver thread counts, 0 for one per
+ * core [1,2,4,0]; --concurrency client counts [1,4,16]; --requests measured
+ * requests per level [200]; --warmup unmeasured requests per level [20];
+ * --records record names from records/records.json [all]; --endpoints [run,evaluate];
+ * --out report file [target/load-result.json].
+ */
+public final class LoadTest {
+
+    private static final String[] DIRECTIONS = { "forward", "backward" };
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+    private final Map<String, String> options;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an --option, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        JSONObject report = new LoadTest(options).run();
+        Path out = Paths.get(options.getOrDefault("out", "target/load-result.json"));
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        Files.writeString(out, report.toString(2));
+        System.out.println("Report written to " + out);
+        System.exit(0);
+    }
+
+    private JSONObject run() throws Exception {
+        List<JSONObject> mix = mix();
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "20"));
+        int requests = Integer.parseInt(options.getOrDefault("requests", "200"));
+        List<Integer> concurrencies = integers(options.getOrDefault("concurrency", "1,4,16"));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        JSONArray levels = new JSONArray();
+        // Throughput at one solver thread per concurrency level, the baseline for scaling
+        Map<Integer, Double> baseline = new HashMap<>();
+        System.out.printf("%8s %12s %10s %10s %10s %10s %8s %10s %9s%n",
+                "threads", "concurrency", "req/s", "p50 ms", "p95 ms", "p99 ms", "errors", "efficiency", "blocked");
+        for (int requested : integers(options.getOrDefault("threads", "1,2,4,0"))) {
+            int threads = requested > 0 ? requested : cores;
+            int maxConcurrency = concurrencies.stream().mapToInt(Integer::intValue).max().orElse(1);
+            ConfigurableApplicationContext app = SpringApplication.run(AlloyRunnerApplication.class,
+                    "--server.port=0",
+                    "--alloy.solver.threads=" + threads,
+                    // Enough room that the harness measures solving, not rejections
+                    "--alloy.solver.queue-capacity=" + Math.max(64, maxConcurrency * 2),
+                    "--alloy.cache.max-entries=0",
+                    "--alloy.models.watch=false",
+                    "--alloy.capture.enabled=false");
+            try {
+                String base = "http://localhost:" + app.getEnvironment().getProperty("local.server.port") + "/api/alloy/";
+                for (int concurrency : concurrencies) {
+                    level(base, mix, concurrency, warmup, null);
+                    Latencies latencies = new Latencies();
+                    ContentionSampler sampler = new ContentionSampler();
+                    Thread sampling = new Thread(sampler, "load-contention-sampler");
+                    sampling.setDaemon(true);
+                    sampling.start();
+                    long start = System.nanoTime();
+                    int[] outcomes = level(base, mix, concurrency, requests, latencies);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    sampler.stop();
+                    sampling.join();
+
+                    double throughput = latencies.count() / seconds;
+                    if (threads == 1) {
+                        baseline.put(concurrency, throughput);
+                    }
+                    Double single = baseline.get(concurrency);
+                    // Share of perfect linear scaling from one solver thread, at the threads that can be busy
+                    double efficiency = single == null ? Double.NaN : throughput / (single * Math.min(threads, concurrency));
+                    JSONObject contention = sampler.report();
+                    JSONObject level = new JSONObject()
+                            .put("solverThreads", threads)
+                            .put("concurrency", concurrency)
+                            .put("requests", requests)
+                            .put("seconds", seconds)
+                            .put("throughput", throughput)
+                            .put("meanMs", latencies.meanMs())
+                            .put("p50Ms", latencies.percentileMs(50))
+                            .put("p95Ms", latencies.percentileMs(95))
+                            .put("p99Ms", latencies.percentileMs(99))
+                            .put("errors", outcomes[1])
+                            .put("rejected", outcomes[2])
+                            .put("errorRate", (double) (outcomes[1] + outcomes[2]) / requests)
+                            .put("contention", contention);
+                    if (!Double.isNaN(efficiency)) {
+                        level.put("scalingEfficiency", efficiency);
+                    }
+                    levels.put(level);
+                    System.out.printf("%8d %12d %10.2f %10.1f %10.1f %10.1f %7.1f%% %10s %8.1f%%%n",
+                            threads, concurrency, throughput, latencies.percentileMs(50), latencies.percentileMs(95),
+                            latencies.percentileMs(99), 100.0 * level.getDouble("errorRate"),
+                            Double.isNaN(efficiency) ? "-" : String.format("%.2f", efficiency),
+                            100 * contention.getDouble("blockedShare"));
+                }
+            } finally {
+                SpringApplication.exit(app);
+            }
+        }
+        return new JSONObject()
+                .put("cores", cores)
+                .put("mix", mix.size())
+                .put("levels", levels);
+    }
+
+    /**
+     * Sends count requests from concurrency closed-loop clients, cycling through
+     * the mix, and records their latencies when given somewhere to put them.
+     * Returns the number of successes, errors and rejections (503).
+     */
+    private int[] level(String base, List<JSONObject> mix, int concurrency, int count, Latencies latencies)
+            throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong ok = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            clients.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    JSONObject request = mix.get(i % mix.size());
+                    long start = System.nanoTime();
+                    int status = send(base + request.getString("endpoint"), request.getJSONObject("body"));
+                    if (latencies != null) {
+                        latencies.add((System.nanoTime() - start) / 1000);
+                    }
+                    if (status == 200) {
+                        ok.incrementAndGet();
+                    } else if (status == 503) {
+                        rejected.incrementAndGet();
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.DAYS);
+        return new int[] { (int) ok.get(), (int) errors.get(), (int) rejected.get() };
+    }
+
+    // The HTTP status, with failed solves reported in a 200 counted as 500
+    private int send(String url, JSONObject body) {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200 && new JSONObject(response.body()).has("error")) {
+                return 500;
+            }
+            return response.statusCode();
+        } catch (IOException e) {
+            return 599;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 599;
+        }
+    }
+
+    /**
+     * Every selected record in both directions against every selected endpoint,
+     * as {"endpoint", "body"} pairs.
+     */
+    private List<JSONObject> mix() throws IOException {
+        JSONArray records = new JSONArray(resource("records/records.json"));
+        List<String> names = options.containsKey("records") ? List.of(options.get("records").split(",")) : null;
+        List<JSONObject> mix = new ArrayList<>();
+        for (int i = 0; i < records.length(); i++) {
+            JSONObject record = records.getJSONObject(i);
+            if (names != null && !names.contains(record.getString("name"))) {
+                continue;
+            }
+            for (String endpoint : options.getOrDefault("endpoints", "run,evaluate").split(",")) {
+                for (String direction : DIRECTIONS) {
+                    JSONObject request = record.getJSONObject(direction);
+                    mix.add(new JSONObject()
+                            .put("endpoint", endpoint.trim())
+                            .put("body", new JSONObject()
+                                    .put("type", direction)
+                                    .put("predicate", request.getString("predicate"))
+                                    .put("run", request.getString("run"))));
+                }
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("No records selected");
+        }
+        return mix;
+    }
+
+    private static List<Integer> integers(String list) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            values.add(Integer.parseInt(value.trim()));
+        }
+        return values;
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream stream = LoadTest.class.getClassLoader().getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,19 +1,39 @@
 package com.expungement.alloy.alloyrunner;
 
+import java.lang.management.ManagementFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.env.Environment;
 
+import com.expungement.alloy.alloyrunner.service.WarmUp;
+
 @SpringBootApplication
 @PropertySource("classpath:application.properties")
 public class AlloyRunnerApplication implements CommandLineRunner {
 
+    private static final Logger log = LoggerFactory.getLogger(AlloyRunnerApplication.class);
+
     @Autowired						
     private Environment env;
 
+    @Autowired
+    private WarmUp warmUp;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    // Exit once warmed up; used for the AppCDS training run (see Dockerfile.cds)
+    @Value("${alloy.warmup.exit:false}")
+    private boolean exitAfterWarmUp;
+
     public static void main(String[] args) {
     	try {
             SpringApplication.run(AlloyRunnerApplication.class, args);
@@ -22,9 +42,16 @@ public class AlloyRunnerApplication implements CommandLineRunner {
         }
     }
 
+    // Runners finish before the application reports itself ready to take traffic
     @Override
     public void run(String... args) {
-        System.out.println("alloy.model.path: " + env.getProperty("alloy.model.path"));
-        System.out.println("alloy.model.path2: " + env.getProperty("alloy.model.path2"));
+        log.info("alloy.model.path: {}", env.getProperty("alloy.model.path"));
+        log.info("alloy.model.path2: {}", env.getProperty("alloy.model.path2"));
+
+        warmUp.run();
+        log.info("Ready after {} ms", ManagementFactory.getRuntimeMXBean().getUptime());
+        if (exitAfterWarmUp) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 }
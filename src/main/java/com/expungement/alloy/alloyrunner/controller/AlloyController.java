@@ -1,26 +1,58 @@
 package com.expungement.alloy.alloyrunner.controller;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONObject;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
 import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.model.CaseRecord;
 import com.expungement.alloy.alloyrunner.service.AlloyResult;
 import com.expungement.alloy.alloyrunner.service.AlloyService;
+import com.expungement.alloy.alloyrunner.service.BatchEvaluation;
+import com.expungement.alloy.alloyrunner.service.EligibilitySweep;
+import com.expungement.alloy.alloyrunner.service.InvalidQueryException;
+import com.expungement.alloy.alloyrunner.service.InvalidRequestException;
+import com.expungement.alloy.alloyrunner.service.ModelRegistry;
+import com.expungement.alloy.alloyrunner.service.QueryValidator;
+import com.expungement.alloy.alloyrunner.service.RecordCompiler;
+import com.expungement.alloy.alloyrunner.service.ResultCache;
+import com.expungement.alloy.alloyrunner.service.ShapeStats;
+import com.expungement.alloy.alloyrunner.service.SolverBusyException;
+import com.expungement.alloy.alloyrunner.service.SolverExecutor;
+import com.expungement.alloy.alloyrunner.service.SolverSelection;
+import com.expungement.alloy.alloyrunner.service.TraceCapture;
+import com.expungement.alloy.alloyrunner.service.TraceStreamer;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/api/alloy")
 public class AlloyController {
 
+	static final String REQUEST_ID_HEADER = "X-Request-Id";
+	static final String CLIENT_ID_HEADER = "X-Client-Id";
+
 	@GetMapping("/")
 	public String hello() {
 		return "Hello World";
@@ -30,22 +62,212 @@ public class AlloyController {
     private AlloyService alloyService;
 	@Autowired
     private AlloyResult alloyResult;
+	@Autowired
+    private ResultCache resultCache;
+	@Autowired
+    private SolverExecutor solverExecutor;
+	@Autowired
+    private BatchEvaluation batchEvaluation;
+	@Autowired
+    private TraceStreamer traceStreamer;
+	@Autowired
+    private SolverSelection solverSelection;
+	@Autowired
+    private ShapeStats shapeStats;
+	@Autowired
+    private WorkerPool workerPool;
+	@Autowired
+    private ModelRegistry modelRegistry;
+	@Autowired
+    private EligibilitySweep eligibilitySweep;
+	@Autowired
+    private QueryValidator queryValidator;
+
+	// Addresses of the proxies allowed to name the client in X-Client-Id, comma separated
+	@Value("${alloy.solver.trusted-proxies:}")
+    private String trustedProxies = "";
 
 	@PostMapping("/run")
-    public ResponseEntity<?> runModel(@RequestBody AlloyRequest request) {
-        try {
-            JSONObject result = alloyService.runAlloyModel(request.getPredicate(), request.getRun(), request.getType());
-            return ResponseEntity.ok(result.toString(4));
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Failed to run model: " + e.getMessage());
-        }
+    public DeferredResult<ResponseEntity<String>> runModel(@RequestBody AlloyRequest request,
+            @RequestHeader(value = REQUEST_ID_HEADER, required = false) String requestId,
+            HttpServletRequest servletRequest, HttpServletResponse response) {
+        assignRequestId(request, requestId, response);
+        assignClientId(request, servletRequest);
+        return respond(alloyService.runAlloyModelAsync(request), "Failed to run model: ");
     }
 	
 	@PostMapping("/evaluate")
-    public CompletableFuture<ResponseEntity<String>> evaluateQuery(@RequestBody AlloyRequest request) {
-        return alloyResult.evaluateAlloyQueryAsync(request.getPredicate(), request.getRun(), request.getType())
-                .thenApply(result -> ResponseEntity.ok(result.toString(4)))
-                .exceptionally(ex -> ResponseEntity.internalServerError().body("Failed to validate model: " + ex.getMessage()));
+    public DeferredResult<ResponseEntity<String>> evaluateQuery(@RequestBody AlloyRequest request,
+            @RequestHeader(value = REQUEST_ID_HEADER, required = false) String requestId,
+            HttpServletRequest servletRequest, HttpServletResponse response) {
+        assignRequestId(request, requestId, response);
+        assignClientId(request, servletRequest);
+        return respond(alloyResult.evaluateAlloyQueryAsync(request), "Failed to validate model: ");
     }
 
+	// Typed record instead of Alloy text; mode picks the run or evaluate response
+	@PostMapping("/record")
+    public DeferredResult<ResponseEntity<String>> evaluateRecord(@RequestBody CaseRecord record,
+            @RequestHeader(value = REQUEST_ID_HEADER, required = false) String requestId,
+            HttpServletRequest servletRequest, HttpServletResponse response) {
+        RecordCompiler.Compiled compiled;
+        try {
+            compiled = RecordCompiler.compile(record);
+        } catch (InvalidRequestException e) {
+            return respond(CompletableFuture.failedFuture(e), "Failed to evaluate record: ");
+        }
+        AlloyRequest request = compiled.getRequest();
+        assignRequestId(request, requestId, response);
+        assignClientId(request, servletRequest);
+        if (RecordCompiler.RUN.equals(compiled.getMode())) {
+            return respond(alloyService.runAlloyModelAsync(request), "Failed to run record: ");
+        }
+        CompletableFuture<JSONObject> solve = alloyResult.evaluateAlloyQueryAsync(request);
+        return respond(SolverExecutor.cancelling(solve.thenApply(compiled::restoreIds), solve), "Failed to evaluate record: ");
+    }
+
+	// Earliest year each conviction in the record can be expunged, under both models
+	@PostMapping("/record/eligibility")
+    public DeferredResult<ResponseEntity<String>> recordEligibility(@RequestBody CaseRecord record,
+            HttpServletRequest servletRequest) {
+        return respond(eligibilitySweep.sweep(record, clientId(servletRequest)), "Failed to sweep record: ");
+    }
+
+	// Syntax and type check of a predicate and run command, without solving; meant to be called as the user types
+	@PostMapping("/validate")
+    public ResponseEntity<String> validate(@RequestBody AlloyRequest request) {
+        try {
+            return ResponseEntity.ok(queryValidator.validate(request).toString(4));
+        } catch (RuntimeException e) {
+            return failure(e, "Failed to validate request: ");
+        }
+    }
+
+	@PostMapping(value = "/run/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter runModelStream(@RequestBody AlloyRequest request,
+            @RequestHeader(value = REQUEST_ID_HEADER, required = false) String requestId,
+            HttpServletRequest servletRequest, HttpServletResponse response) {
+        assignRequestId(request, requestId, response);
+        assignClientId(request, servletRequest);
+        return traceStreamer.stream(request, "run");
+    }
+
+	@PostMapping(value = "/evaluate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter evaluateQueryStream(@RequestBody AlloyRequest request,
+            @RequestHeader(value = REQUEST_ID_HEADER, required = false) String requestId,
+            HttpServletRequest servletRequest, HttpServletResponse response) {
+        assignRequestId(request, requestId, response);
+        assignClientId(request, servletRequest);
+        return traceStreamer.stream(request, "evaluate");
+    }
+
+	// One NDJSON line per request in the order the solves finish, not the order of the list: each line's "index" is
+	// the position of its request, so one slow item does not hold back the lines of the items after it
+	@PostMapping(value = "/evaluate/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> evaluateBatch(@RequestBody List<AlloyRequest> requests,
+            HttpServletRequest servletRequest) {
+        if (requests != null) {
+            requests.forEach(request -> assignClientId(request, servletRequest));
+        }
+        StreamingResponseBody body = out -> batchEvaluation.stream(requests == null ? List.of() : requests, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+	@GetMapping("/solver/stats")
+    public ResponseEntity<String> solverStats() {
+        return ResponseEntity.ok(solverExecutor.stats()
+                .put("solvers", solverSelection.stats())
+                .put("workers", workerPool.stats())
+                .toString(4));
+    }
+
+	@GetMapping("/cache/stats")
+    public ResponseEntity<String> cacheStats() {
+        return ResponseEntity.ok(resultCache.stats().toString(4));
+    }
+
+	@GetMapping("/translation/stats")
+    public ResponseEntity<String> translationStats() {
+        return ResponseEntity.ok(shapeStats.stats().toString(4));
+    }
+
+	@GetMapping("/models")
+    public ResponseEntity<String> models() {
+        return ResponseEntity.ok(modelRegistry.stats().toString(4));
+    }
+
+	// Uses the client's request id when it is usable, otherwise a fresh one, and echoes it back
+	private static void assignRequestId(AlloyRequest request, String header, HttpServletResponse response) {
+		String id = TraceCapture.isValidRequestId(header) ? header : TraceCapture.newRequestId();
+		request.setRequestId(id);
+		response.setHeader(REQUEST_ID_HEADER, id);
+	}
+
+	private void assignClientId(AlloyRequest request, HttpServletRequest servletRequest) {
+		request.setClientId(clientId(servletRequest));
+	}
+
+	// Fair share is per client: the signed-in user, the client a trusted proxy names, or else the address it calls from.
+	// Callers could dodge their share with a fresh X-Client-Id per request, so only trusted proxies may set it
+	String clientId(HttpServletRequest servletRequest) {
+		if (servletRequest.getUserPrincipal() != null) {
+			return servletRequest.getUserPrincipal().getName();
+		}
+		String address = servletRequest.getRemoteAddr();
+		String header = servletRequest.getHeader(CLIENT_ID_HEADER);
+		if (header != null && !header.isBlank() && isTrustedProxy(address)) {
+			return header;
+		}
+		return address;
+	}
+
+	private boolean isTrustedProxy(String address) {
+		for (String proxy : trustedProxies.split(",")) {
+			if (!proxy.isBlank() && proxy.trim().equals(address)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Stops the solve when the async request times out or the connection fails
+	private DeferredResult<ResponseEntity<String>> respond(CompletableFuture<JSONObject> solve, String message) {
+		DeferredResult<ResponseEntity<String>> response = new DeferredResult<>();
+		response.onTimeout(() -> solve.cancel(true));
+		response.onError(error -> solve.cancel(true));
+		solve.thenApply(result -> ResponseEntity.ok(result.toString(4)))
+				.exceptionally(ex -> failure(ex, message))
+				.thenAccept(response::setResult);
+		return response;
+	}
+
+	private ResponseEntity<String> failure(Throwable ex, String message) {
+		Throwable cause = SolverExecutor.unwrap(ex);
+		if (cause instanceof SolverBusyException) {
+			JSONObject body = new JSONObject().put("success", false).put("error", cause.getMessage());
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(((SolverBusyException) cause).getRetryAfterSeconds()))
+					.body(body.toString(4));
+		}
+		if (cause instanceof SolveTimeoutException) {
+			JSONObject body = new JSONObject().put("success", false)
+					.put("errorCode", SolveTimeoutException.ERROR_CODE)
+					.put("error", cause.getMessage())
+					.put("timeoutMs", ((SolveTimeoutException) cause).getTimeoutMs());
+			return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(body.toString(4));
+		}
+		if (cause instanceof InvalidQueryException) {
+			JSONObject body = new JSONObject().put("success", false)
+					.put("errorCode", InvalidQueryException.ERROR_CODE)
+					.put("error", cause.getMessage())
+					.put("location", ((InvalidQueryException) cause).getError().toJSON());
+			return ResponseEntity.badRequest().body(body.toString(4));
+		}
+		if (cause instanceof InvalidRequestException) {
+			JSONObject body = new JSONObject().put("success", false).put("error", cause.getMessage());
+			return ResponseEntity.badRequest().body(body.toString(4));
+		}
+		return ResponseEntity.internalServerError().body(message + cause.getMessage());
+	}
+
 }
@@ -0,0 +1,52 @@
+package com.expungement.alloy.alloyrunner.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import com.expungement.alloy.alloyrunner.service.InvalidRequestException;
+import com.expungement.alloy.alloyrunner.service.TraceCapture;
+
+/**
+ * Debug captures at /actuator/captures (stats) and /actuator/captures/{captureId}.
+ * Captures hold client predicates and solutions, so the endpoint is only
+ * reachable once an operator adds "captures" to
+ * management.endpoints.web.exposure.include.
+ */
+@Component
+@Endpoint(id = "captures")
+public class CaptureEndpoint {
+
+    private final TraceCapture traceCapture;
+
+    public CaptureEndpoint(TraceCapture traceCapture) {
+        this.traceCapture = traceCapture;
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        return traceCapture.stats().toMap();
+    }
+
+    /**
+     * The capture, or null (a 404) if there is none.
+     */
+    @ReadOperation
+    public Map<String, Object> capture(@Selector String captureId) {
+        try {
+            JSONObject capture = traceCapture.get(captureId);
+            return capture == null ? null : capture.toMap();
+        } catch (InvalidRequestException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read capture " + captureId, e);
+        }
+    }
+}
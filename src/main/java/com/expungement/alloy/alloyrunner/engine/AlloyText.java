@@ -0,0 +1,29 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.regex.Pattern;
+
+/**
+ * Small helpers for comparing user supplied Alloy fragments.
+ */
+public final class AlloyText {
+
+    private static final Pattern COMMENT = Pattern.compile("//[^\\n]*|--[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+    private static final Pattern SPACE_AROUND_SYMBOL = Pattern.compile(" ?([^\\w\\s$']) ?");
+
+    private AlloyText() {
+    }
+
+    public static String stripComments(String text) {
+        return text == null ? "" : COMMENT.matcher(text).replaceAll(" ");
+    }
+
+    /**
+     * Removes comments and all whitespace that does not separate two words, so
+     * fragments that only differ in layout compare equal.
+     */
+    public static String normalize(String text) {
+        String compact = SPACE.matcher(stripComments(text)).replaceAll(" ").trim();
+        return SPACE_AROUND_SYMBOL.matcher(compact).replaceAll("$1");
+    }
+}
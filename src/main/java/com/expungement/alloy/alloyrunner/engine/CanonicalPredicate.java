@@ -0,0 +1,340 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A record predicate with its event variables renamed to a canonical order, so
+ * records that only differ in variable names, declaration order or the order of
+ * their conjuncts have the same text.
+ *
+ * Handles the shape the front end sends, a single existential quantifier over
+ * the events followed by a conjunction of facts:
+ *
+ * <pre>
+ * some disj c1, c2: Felony, o: OWI | c1.date = d2010 and o.date = d2012 and ...
+ * </pre>
+ *
+ * Variables are ordered by their type and the facts about them, refined by
+ * the facts that relate them to other variables, and renamed ev0, ev1, ...; the
+ * conjuncts are then sorted. Anything else (disjunctions, implications, nested
+ * quantifiers, blocks) is left as it is.
+ */
+public final class CanonicalPredicate {
+
+    private static final String PREFIX = "ev";
+    // A trailing ' is the temporal prime operator, not part of the name
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_]\\w*");
+    private static final Pattern HEADER = Pattern.compile("\\s*some\\s+(.*?)\\|(.*)", Pattern.DOTALL);
+    private static final Pattern DECL = Pattern.compile("\\s*(disj\\s+)?([A-Za-z_]\\w*(?:\\s*,\\s*[A-Za-z_]\\w*)*)\\s*:\\s*([A-Za-z_]\\w*)\\s*");
+    // Operators whose precedence is at or below "and", which would make splitting on "and" unsound
+    private static final Set<String> LOW_PRECEDENCE = Set.of("or", "implies", "iff", "else", "let", "until", "releases", "since", "triggered");
+
+    private final String text;
+    // Canonical variable name to the caller's name
+    private final Map<String, String> names;
+
+    private CanonicalPredicate(String text, Map<String, String> names) {
+        this.text = text;
+        this.names = names;
+    }
+
+    /**
+     * The canonical form of the predicate, or the predicate unchanged when it
+     * does not have the supported shape.
+     */
+    public static CanonicalPredicate of(String predicate) {
+        CanonicalPredicate canonical = predicate == null ? null : canonicalize(predicate);
+        return canonical != null ? canonical : unchanged(predicate);
+    }
+
+    /**
+     * The predicate as it is, with no names to restore.
+     */
+    public static CanonicalPredicate unchanged(String predicate) {
+        return new CanonicalPredicate(predicate, Map.of());
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Whether the variables were renamed, that is whether the predicate had the
+     * supported shape.
+     */
+    public boolean isRenamed() {
+        return !names.isEmpty();
+    }
+
+    /**
+     * The caller's name for a canonical variable name; other names are returned
+     * as they are.
+     */
+    public String originalName(String name) {
+        return names.getOrDefault(name, name);
+    }
+
+    /**
+     * Puts the caller's variable names back into the "id" fields of decoded
+     * events.
+     */
+    public JSONArray restoreIds(JSONArray events) {
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.optJSONObject(i);
+            if (event != null && event.has("id")) {
+                event.put("id", originalName(event.getString("id")));
+            }
+        }
+        return events;
+    }
+
+    private static CanonicalPredicate canonicalize(String predicate) {
+        Matcher header = HEADER.matcher(AlloyText.stripComments(predicate));
+        if (!header.matches()) {
+            return null;
+        }
+
+        // Declarations: [disj] names: Type, separated by commas
+        List<Var> vars = new ArrayList<>();
+        List<List<Var>> decls = new ArrayList<>();
+        List<Boolean> disjoint = new ArrayList<>();
+        Matcher decl = DECL.matcher(header.group(1));
+        int end = 0;
+        while (decl.find() && decl.start() == end) {
+            List<Var> names = new ArrayList<>();
+            for (String name : decl.group(2).split("\\s*,\\s*")) {
+                Var var = new Var(name.trim(), decl.group(3), vars.size());
+                vars.add(var);
+                names.add(var);
+            }
+            decls.add(names);
+            disjoint.add(decl.group(1) != null);
+            end = decl.end();
+            if (end < header.group(1).length() && header.group(1).charAt(end) == ',') {
+                end++;
+            }
+        }
+        if (end != header.group(1).length() || vars.isEmpty()) {
+            return null;
+        }
+        Map<String, Var> byName = new HashMap<>();
+        for (Var var : vars) {
+            if (byName.put(var.name, var) != null) {
+                return null;
+            }
+        }
+
+        List<String> conjuncts = splitConjuncts(header.group(2));
+        if (conjuncts == null) {
+            return null;
+        }
+        // Canonical names must not clash with anything else the predicate mentions
+        for (String conjunct : conjuncts) {
+            Matcher identifier = IDENTIFIER.matcher(conjunct);
+            while (identifier.find()) {
+                String word = identifier.group();
+                if (word.startsWith(PREFIX) && !byName.containsKey(word)) {
+                    return null;
+                }
+                // A variable used as a field (x.name) or qualified would not be a plain rename
+                if (byName.containsKey(word) && identifier.start() > 0 && ".@/".indexOf(conjunct.charAt(identifier.start() - 1)) >= 0) {
+                    return null;
+                }
+            }
+        }
+
+        order(vars, decls, disjoint, conjuncts);
+        Map<String, String> rename = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+        for (int i = 0; i < vars.size(); i++) {
+            rename.put(vars.get(i).name, PREFIX + i);
+            names.put(PREFIX + i, vars.get(i).name);
+        }
+
+        List<String> declTexts = new ArrayList<>();
+        List<Integer> declOrder = new ArrayList<>();
+        for (int d = 0; d < decls.size(); d++) {
+            declOrder.add(d);
+        }
+        declOrder.sort((a, b) -> Integer.compare(firstIndex(decls.get(a), vars), firstIndex(decls.get(b), vars)));
+        for (int d : declOrder) {
+            List<String> renamed = new ArrayList<>();
+            for (Var var : decls.get(d)) {
+                renamed.add(rename.get(var.name));
+            }
+            renamed.sort((a, b) -> Integer.compare(Integer.parseInt(a.substring(PREFIX.length())), Integer.parseInt(b.substring(PREFIX.length()))));
+            declTexts.add((disjoint.get(d) ? "disj " : "") + String.join(", ", renamed) + ": " + decls.get(d).get(0).type);
+        }
+
+        List<String> renamedConjuncts = new ArrayList<>();
+        for (String conjunct : conjuncts) {
+            renamedConjuncts.add(AlloyText.normalize(replace(conjunct, rename)));
+        }
+        Collections.sort(renamedConjuncts);
+
+        String text = "some " + String.join(", ", declTexts) + " | " + String.join(" and ", renamedConjuncts) + "\n";
+        return new CanonicalPredicate(text, names);
+    }
+
+    // Splits the body on top-level "and"/"&&"; null if it uses anything that makes that unsound
+    private static List<String> splitConjuncts(String body) {
+        List<String> conjuncts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == '{' || c == '}' || c == '|' || c == ';') {
+                return null;
+            } else if (depth == 0 && (body.startsWith("=>", i) || body.startsWith("<=>", i))) {
+                return null;
+            } else if (depth == 0 && body.startsWith("&&", i)) {
+                conjuncts.add(body.substring(start, i));
+                start = i + 2;
+                i++;
+            } else if (depth == 0 && Character.isLetter(c) && (i == 0 || !isIdentifierPart(body.charAt(i - 1)))) {
+                Matcher word = IDENTIFIER.matcher(body).region(i, body.length());
+                word.lookingAt();
+                if (LOW_PRECEDENCE.contains(word.group())) {
+                    return null;
+                }
+                if (word.group().equals("and")) {
+                    conjuncts.add(body.substring(start, i));
+                    start = word.end();
+                }
+                i = word.end() - 1;
+            }
+        }
+        if (depth != 0) {
+            return null;
+        }
+        conjuncts.add(body.substring(start));
+        for (String conjunct : conjuncts) {
+            if (conjunct.isBlank()) {
+                return null;
+            }
+        }
+        return conjuncts;
+    }
+
+    /**
+     * Sorts the variables into canonical order: by type, then by the facts about
+     * each one with the other variables replaced by their current rank, repeated
+     * until the ranks stop changing. Variables that still tie are interchangeable
+     * as far as this can tell and keep their declaration order.
+     */
+    private static void order(List<Var> vars, List<List<Var>> decls, List<Boolean> disjoint, List<String> conjuncts) {
+        // Each declaration relates its names like a fact does
+        List<String> facts = new ArrayList<>(conjuncts);
+        List<Set<Var>> mentions = new ArrayList<>();
+        for (String conjunct : conjuncts) {
+            Set<Var> mentioned = new HashSet<>();
+            Matcher identifier = IDENTIFIER.matcher(conjunct);
+            while (identifier.find()) {
+                for (Var var : vars) {
+                    if (var.name.equals(identifier.group())) {
+                        mentioned.add(var);
+                    }
+                }
+            }
+            mentions.add(mentioned);
+        }
+        for (int d = 0; d < decls.size(); d++) {
+            StringBuilder fact = new StringBuilder(disjoint.get(d) ? "disj" : "decl");
+            for (Var var : decls.get(d)) {
+                fact.append(' ').append(var.name);
+            }
+            facts.add(fact.toString());
+            mentions.add(new HashSet<>(decls.get(d)));
+        }
+
+        Map<Var, String> rank = new HashMap<>();
+        for (Var var : vars) {
+            rank.put(var, var.type);
+        }
+        int classes = new HashSet<>(rank.values()).size();
+        for (int round = 0; round < vars.size(); round++) {
+            Map<Var, String> signature = new HashMap<>();
+            for (Var var : vars) {
+                List<String> about = new ArrayList<>();
+                for (int f = 0; f < facts.size(); f++) {
+                    if (!mentions.get(f).contains(var)) {
+                        continue;
+                    }
+                    Map<String, String> relabel = new HashMap<>();
+                    for (Var other : mentions.get(f)) {
+                        relabel.put(other.name, other == var ? "_" : "<" + rank.get(other) + ">");
+                    }
+                    about.add(AlloyText.normalize(replace(facts.get(f), relabel)));
+                }
+                Collections.sort(about);
+                signature.put(var, rank.get(var) + "|" + String.join("&", about));
+            }
+            // Compress signatures to their position among the distinct signatures
+            List<String> distinct = new ArrayList<>(new TreeSet<>(signature.values()));
+            for (Var var : vars) {
+                rank.put(var, String.format("%04d", distinct.indexOf(signature.get(var))));
+            }
+            if (distinct.size() == classes) {
+                break;
+            }
+            classes = distinct.size();
+        }
+        vars.sort((a, b) -> {
+            int byRank = rank.get(a).compareTo(rank.get(b));
+            return byRank != 0 ? byRank : Integer.compare(a.position, b.position);
+        });
+    }
+
+    private static int firstIndex(List<Var> decl, List<Var> ordered) {
+        int first = Integer.MAX_VALUE;
+        for (Var var : decl) {
+            first = Math.min(first, ordered.indexOf(var));
+        }
+        return first;
+    }
+
+    // Replaces whole identifiers
+    private static String replace(String text, Map<String, String> replacements) {
+        Matcher identifier = IDENTIFIER.matcher(text);
+        StringBuilder out = new StringBuilder();
+        while (identifier.find()) {
+            String replacement = replacements.get(identifier.group());
+            identifier.appendReplacement(out, Matcher.quoteReplacement(replacement != null ? replacement : identifier.group()));
+        }
+        identifier.appendTail(out);
+        return out.toString();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static final class Var {
+        final String name;
+        final String type;
+        // Declaration order, the last tie-breaker
+        final int position;
+
+        Var(String name, String type, int position) {
+            this.name = name;
+            this.type = type;
+            this.position = position;
+        }
+    }
+}
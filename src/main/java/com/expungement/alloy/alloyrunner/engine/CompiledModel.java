@@ -0,0 +1,235 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.Pos;
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.ast.Expr;
+import edu.mit.csail.sdg.ast.Func;
+import edu.mit.csail.sdg.parser.CompModule;
+import edu.mit.csail.sdg.parser.CompUtil;
+
+/**
+ * A base Alloy module (e.g. michigan.als) that has been parsed and type-checked
+ * once. Requests only parse their own predicate and run command against it.
+ */
+public class CompiledModel {
+
+    public static final String USER_PREDICATE = "userDefinedPredicate";
+
+    private final String name;
+    private final String contentHash;
+    private final String text;
+    private final CompModule world;
+    private final boolean partialInstance;
+
+    private CompiledModel(String name, String contentHash, String text, CompModule world, boolean partialInstance) {
+        this.name = name;
+        this.contentHash = contentHash;
+        this.text = text;
+        this.world = world;
+        this.partialInstance = partialInstance;
+    }
+
+    /**
+     * Parses and resolves the given model text.
+     */
+    public static CompiledModel compile(String name, String text) throws Err {
+        return compile(name, text, false);
+    }
+
+    /**
+     * Parses and resolves the given model text. With partialInstance, solves infer
+     * exact bounds from facts that fix a relation to constant tuples.
+     */
+    public static CompiledModel compile(String name, String text, boolean partialInstance) throws Err {
+        CompModule world = CompUtil.parseEverything_fromString(null, text);
+        return new CompiledModel(name, hash(text), text, world, partialInstance);
+    }
+
+    /**
+     * The text appended to the base model when a request is parsed as a whole.
+     */
+    public static String userPredicate(String predicate, String run) {
+        return "\n\npred " + USER_PREDICATE + " {\n"
+                + predicate
+                + "}\n"
+                + run;
+    }
+
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds the command for a request. The predicate body and the run command are
+     * resolved against the cached module; anything the fast path does not understand
+     * (extra declarations, unusual scopes) falls back to parsing the whole text.
+     */
+    public CompiledQuery prepare(String predicate, String run) throws Err {
+        CompiledQuery query = prepareFast(predicate, run);
+        if (query != null) {
+            return query;
+        }
+        return prepareFull(predicate, run);
+    }
+
+    private CompiledQuery prepareFast(String predicate, String run) {
+        try {
+            Expr body = world.parseOneExpressionFromString("{\n" + predicate + "\n}");
+            Func pred = new Func(Pos.UNKNOWN, null, "this/" + USER_PREDICATE, new ArrayList<>(), null, body);
+            Expr formula = pred.call().and(world.getAllReachableFacts());
+            Command command = RunCommandParser.parse(world, run, formula);
+            if (command == null) {
+                return null;
+            }
+            return new CompiledQuery(this, world.getAllReachableSigs(), command, predicate, run);
+        } catch (Err | IOException e) {
+            // Let the full parse report the error against the complete model text
+            return null;
+        } catch (RuntimeException e) {
+            // The expression parser has no list to add warnings to; the full parse does
+            return null;
+        }
+    }
+
+    /**
+     * Checks a request's predicate and run command against this module without
+     * building anything for the solver, and returns the first error, or null.
+     *
+     * The predicate is parsed and type-checked on its own against the resolved
+     * module, which takes well under a millisecond. Errors the fast parse
+     * cannot place within the predicate, and errors in a predicate that closes
+     * its pred block to declare more, are confirmed by parsing the whole model
+     * text as {@link #prepare} would. A predicate that parses but needs
+     * the full parse anyway (a run command the fast parser does not handle, a
+     * construct the expression parser cannot take) is only parsed in full
+     * when complete is set; otherwise it passes, and the solve reports any
+     * error. A null run command checks the predicate alone.
+     */
+    public QueryError check(String predicate, String run, boolean complete) {
+        try {
+            // The wrapping brace takes the first line
+            Expr body = world.parseOneExpressionFromString("{\n" + predicate + "\n}");
+            if (!body.errors.isEmpty()) {
+                return located(body.errors.pick(), predicate);
+            }
+            if (!body.type().is_bool) {
+                return new QueryError(QueryError.PREDICATE, 1, 1, "type",
+                        "This must be a formula expression. Instead, it has the following possible type(s): " + body.type());
+            }
+            if (run == null || RunCommandParser.parse(world, run, body) != null || !complete) {
+                return null;
+            }
+        } catch (Err e) {
+            // A predicate that closes the pred block to add declarations is only valid in the full text
+            QueryError error = closesBlock(predicate) ? null : located(e, predicate);
+            if (error != null) {
+                return error;
+            }
+        } catch (IOException | RuntimeException e) {
+            // As in prepareFast, only the full parse can tell
+            if (!complete) {
+                return null;
+            }
+        }
+        try {
+            CompUtil.parseEverything_fromString(null, text + userPredicate(predicate, run == null ? "" : run));
+            return null;
+        } catch (Err e) {
+            return locate(e, predicate);
+        }
+    }
+
+    /**
+     * Where an error from parsing the model text with a request appended lies
+     * in the request's predicate or run command.
+     */
+    public QueryError locate(Err error, String predicate) {
+        int predicateStart = lines(text + "\n\npred " + USER_PREDICATE + " {\n");
+        int runStart = predicateStart + lines(predicate + "}\n");
+        int line = error.pos.y;
+        if (line > runStart) {
+            return QueryError.of(error, QueryError.RUN, line - runStart, error.pos.x);
+        }
+        if (line > predicateStart) {
+            return QueryError.of(error, QueryError.PREDICATE, line - predicateStart, error.pos.x);
+        }
+        return QueryError.of(error, QueryError.MODEL, line, error.pos.x);
+    }
+
+    // An error from the fast parse, unless it lies past the predicate
+    private static QueryError located(Err error, String predicate) {
+        int line = error.pos.y - 1;
+        int closing = lines(predicate) + 2;
+        if (line == closing && error.pos.x == 1) {
+            // Stopped at the wrapping brace: the predicate ends too early, so point at its end
+            String[] predicateLines = predicate.stripTrailing().split("\n", -1);
+            String last = predicateLines[predicateLines.length - 1];
+            return QueryError.of(error, QueryError.PREDICATE, predicateLines.length, last.length() + 1);
+        }
+        if (line < 1 || line >= closing) {
+            return null;
+        }
+        return QueryError.of(error, QueryError.PREDICATE, line, error.pos.x);
+    }
+
+    private static boolean closesBlock(String predicate) {
+        int depth = 0;
+        for (char c : AlloyText.stripComments(predicate).toCharArray()) {
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lines(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private CompiledQuery prepareFull(String predicate, String run) throws Err {
+        CompModule full = CompUtil.parseEverything_fromString(null, text + userPredicate(predicate, run));
+        Command command = full.getAllCommands().get(full.getAllCommands().size() - 1);
+        return new CompiledQuery(this, full.getAllReachableSigs(), command, predicate, run);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public CompModule getWorld() {
+        return world;
+    }
+
+    public boolean hasPartialInstance() {
+        return partialInstance;
+    }
+}
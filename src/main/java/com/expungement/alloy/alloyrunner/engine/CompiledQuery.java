@@ -0,0 +1,76 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.ast.Sig;
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
+
+/**
+ * A user predicate and run command resolved against a {@link CompiledModel},
+ * ready to be translated and solved.
+ */
+public class CompiledQuery {
+
+    private final CompiledModel model;
+    private final Iterable<Sig> sigs;
+    private final Command command;
+    private final String predicate;
+    private final String run;
+
+    CompiledQuery(CompiledModel model, Iterable<Sig> sigs, Command command, String predicate, String run) {
+        this.model = model;
+        this.sigs = sigs;
+        this.command = command;
+        this.predicate = predicate;
+        this.run = run;
+    }
+
+    public A4Solution execute(A4Options options) throws Err {
+        return execute(null, options);
+    }
+
+    public A4Solution execute(A4Reporter reporter, A4Options options) throws Err {
+        return TranslateAlloyToKodkod.execute_command(reporter, sigs, command, options);
+    }
+
+    /**
+     * The same query solved under a different command, for example with other
+     * scopes or step bounds.
+     */
+    public CompiledQuery withCommand(Command command) {
+        return new CompiledQuery(model, sigs, command, predicate, run);
+    }
+
+    /**
+     * This query with one more constraint on the user predicate. The predicate
+     * is parenthesized (a block when it spans lines), so the constraint cannot
+     * bind into it.
+     */
+    public CompiledQuery and(String constraint) throws Err {
+        String body = predicate.strip();
+        String own = body.contains("\n") ? "{\n" + body + "\n}" : "(" + body + ")";
+        return model.prepare(own + "\nand " + constraint + "\n", run);
+    }
+
+    /**
+     * The full model text this query is equivalent to, as sent by the client.
+     */
+    public String modelText() {
+        return model.getText() + CompiledModel.userPredicate(predicate, run);
+    }
+
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    public Iterable<Sig> getSigs() {
+        return sigs;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+}
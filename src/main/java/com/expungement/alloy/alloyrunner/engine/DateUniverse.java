@@ -0,0 +1,155 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the date section of a base model for the range of years a request
+ * needs. The section between the "@dates begin" and "@dates end" comments
+ * declares one atom per year and defines the withinN windows by chaining
+ * ordering/next; the generated section declares only the needed years and
+ * states the ordering and every window as explicit tuples, which Alloy turns
+ * into exact bounds when partial instance inference is on.
+ *
+ * The range runs from the earliest year the request mentions minus the
+ * longest window the model uses to the latest one plus that window, so
+ * waiting periods that start at the last event still fit, and so do undated
+ * events the solver has to place before the first dated one, such as the
+ * conviction an expungement on a given date clears. The padding stops at
+ * {@link #FIRST_YEAR} and {@link #LAST_YEAR}; years the request itself names
+ * outside them are kept, so callers can turn the request away (see
+ * {@link #isWithin(int)}) before generating a model for it.
+ */
+public final class DateUniverse {
+
+    /** The years a generated date section may cover, as for typed case records. */
+    public static final int FIRST_YEAR = 1900;
+    public static final int LAST_YEAR = 2100;
+
+    static final String BEGIN = "-- @dates begin";
+    static final String END = "-- @dates end";
+
+    private static final Pattern YEAR = Pattern.compile("\\bd(\\d{4})\\b");
+    private static final Pattern WINDOW = Pattern.compile("\\bwithin([A-Z][a-z]+)\\b");
+    private static final Map<String, Integer> NUMBERS = Map.of("Two", 2, "Three", 3, "Four", 4, "Five", 5,
+            "Six", 6, "Seven", 7, "Eight", 8, "Nine", 9, "Ten", 10);
+
+    private final int from;
+    private final int to;
+
+    private DateUniverse(int from, int to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * The years needed for a request against the model, or null when the model has
+     * no date section or the request does not mention any date.
+     */
+    public static DateUniverse forRequest(String modelText, String predicate) {
+        int begin = modelText.indexOf(BEGIN);
+        int end = modelText.indexOf(END);
+        if (begin < 0 || end < begin || predicate == null) {
+            return null;
+        }
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        Matcher matcher = YEAR.matcher(AlloyText.stripComments(predicate));
+        while (matcher.find()) {
+            int year = Integer.parseInt(matcher.group(1));
+            first = Math.min(first, year);
+            last = Math.max(last, year);
+        }
+        if (first == Integer.MAX_VALUE) {
+            return null;
+        }
+        int longest = 0;
+        for (int window : windows(modelText).values()) {
+            longest = Math.max(longest, window);
+        }
+        return new DateUniverse(Math.min(first, Math.max(FIRST_YEAR, first - longest)),
+                Math.max(last, Math.min(LAST_YEAR, last + longest)));
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public int years() {
+        return to - from + 1;
+    }
+
+    /**
+     * Whether the range lies between {@link #FIRST_YEAR} and {@link #LAST_YEAR}
+     * and covers at most maxYears years.
+     */
+    public boolean isWithin(int maxYears) {
+        return from >= FIRST_YEAR && to <= LAST_YEAR && years() <= maxYears;
+    }
+
+    /**
+     * Short label such as "d2018-d2030".
+     */
+    public String label() {
+        return "d" + from + "-d" + to;
+    }
+
+    /**
+     * The model text with its date section replaced by one for this range.
+     */
+    public String specialize(String modelText) {
+        int begin = modelText.indexOf(BEGIN);
+        int end = modelText.indexOf(END);
+        String section = modelText.substring(begin, end);
+
+        List<String> dates = new ArrayList<>();
+        for (int year = from; year <= to; year++) {
+            dates.add("d" + year);
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(BEGIN).append(": generated for ").append(label()).append('\n');
+        text.append("one sig ").append(String.join(", ", dates)).append(" extends Date {}\n\n");
+        text.append("fact {\n");
+        text.append("\tDate = ").append(String.join(" + ", dates)).append('\n');
+        text.append("\t").append(pairs(1)).append(" in ordering/next\n");
+        for (Map.Entry<String, Integer> window : windows(section).entrySet()) {
+            // withinN holds for dates 1 to N-1 years apart
+            text.append("\twithin").append(window.getKey()).append(" = ").append(pairs(window.getValue() - 1)).append('\n');
+        }
+        text.append("}\n");
+        return modelText.substring(0, begin) + text + modelText.substring(end);
+    }
+
+    // All d1->d2 with d2 between 1 and span years after d1
+    private String pairs(int span) {
+        StringJoiner pairs = new StringJoiner(" + ");
+        for (int year = from; year <= to; year++) {
+            for (int later = year + 1; later <= Math.min(to, year + span); later++) {
+                pairs.add("d" + year + "->d" + later);
+            }
+        }
+        return pairs.length() == 0 ? "none->none" : pairs.toString();
+    }
+
+    // withinN relations mentioned in the text, by name suffix
+    private static Map<String, Integer> windows(String text) {
+        Map<String, Integer> windows = new LinkedHashMap<>();
+        Matcher matcher = WINDOW.matcher(AlloyText.stripComments(text));
+        while (matcher.find()) {
+            Integer years = NUMBERS.get(matcher.group(1));
+            if (years != null) {
+                windows.put(matcher.group(1), years);
+            }
+        }
+        return windows;
+    }
+}
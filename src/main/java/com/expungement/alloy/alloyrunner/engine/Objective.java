@@ -0,0 +1,187 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.ast.Sig;
+
+/**
+ * Finds an optimal plan rather than the first one: the most convictions
+ * expunged, or the fewest convictions with a violation, by the end of the
+ * trace.
+ *
+ * Each satisfying plan's value becomes a bound the next solve has to beat,
+ * stated as a cardinality constraint over disjoint conviction variables (so
+ * no Int bitwidth is involved), until the solver reports that no better plan
+ * exists. That last UNSAT bound is the proof of optimality. Every step adds
+ * one conjunct to the cached model's user predicate, so the model is not
+ * parsed again and the record keeps its {@link RecordShape}, but each step is
+ * translated and solved from scratch. A value that cannot be improved (every
+ * conviction expunged, no violations) needs no proof solve.
+ */
+public final class Objective {
+
+    public static final String MAX_EXPUNGED = "max-expunged";
+    public static final String MIN_VIOLATIONS = "min-violations";
+
+    private static final String EXPUNGED_SIG = "pastExpunged";
+    private static final String CONVICTION_SIG = "Conviction";
+    private static final String VARIABLE = "optimized";
+
+    private final String name;
+    private final SolveOutcome outcome;
+    private final int value;
+    private final boolean optimal;
+    private final int unsatBound;
+    private final int iterations;
+
+    private Objective(String name, SolveOutcome outcome, int value, boolean optimal, int unsatBound, int iterations) {
+        this.name = name;
+        this.outcome = outcome;
+        this.value = value;
+        this.optimal = optimal;
+        this.unsatBound = unsatBound;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Whether the objective is one of {@link #MAX_EXPUNGED} and {@link #MIN_VIOLATIONS}.
+     */
+    public static boolean isKnown(String name) {
+        return MAX_EXPUNGED.equals(name) || MIN_VIOLATIONS.equals(name);
+    }
+
+    /**
+     * Solves the query for the best plan under the objective.
+     *
+     * @param solve solves one query; called once per improvement and once for the proof
+     */
+    public static Objective optimize(CompiledQuery query, String name, Function<CompiledQuery, SolveOutcome> solve,
+            SolveMonitor monitor) throws Err {
+        boolean maximize = MAX_EXPUNGED.equals(name);
+        List<String> violations = violationSigs(query);
+        SolveOutcome best = solve.apply(query);
+        int iterations = 1;
+        if (!best.getSolution().satisfiable()) {
+            return new Objective(name, best, -1, false, -1, iterations);
+        }
+        int value = value(best, maximize, violations);
+        while (true) {
+            monitor.checkpoint();
+            if (maximize ? value >= convictions(best) : value == 0) {
+                return new Objective(name, best, value, true, -1, iterations);
+            }
+            int bound = maximize ? value + 1 : value - 1;
+            String constraint = maximize ? atLeast(bound, EXPUNGED_SIG) : atMost(bound, String.join(" + ", violations));
+            SolveOutcome next = solve.apply(query.and(constraint));
+            iterations++;
+            if (!next.getSolution().satisfiable()) {
+                return new Objective(name, best, value, true, bound, iterations);
+            }
+            best = next;
+            value = value(best, maximize, violations);
+        }
+    }
+
+    public SolveOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * The objective value of the plan found, or -1 when there is no plan.
+     */
+    public int getValue() {
+        return value;
+    }
+
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Adds the objective, the value and how it was proved optimal to a response.
+     */
+    public JSONObject describe(JSONObject result) {
+        JSONObject optimization = new JSONObject()
+                .put("objective", name)
+                .put("iterations", iterations)
+                .put("optimal", optimal);
+        if (value >= 0) {
+            optimization.put("value", value);
+        }
+        if (unsatBound >= 0) {
+            // No plan reaches this value: the proof that the plan returned is optimal
+            optimization.put("unsatBound", unsatBound);
+        } else if (optimal) {
+            optimization.put("unsatBound", JSONObject.NULL);
+        }
+        return result.put("optimization", optimization);
+    }
+
+    // "At least k convictions are in the set by the end of the trace"; the sets only grow
+    static String atLeast(int k, String set) {
+        return "eventually (some disj " + variables(k) + ": " + CONVICTION_SIG + " | " + String.join(" + ", names(k)) + " in " + set + ")";
+    }
+
+    // "At most k convictions are ever in the set"
+    static String atMost(int k, String set) {
+        if (k == 0) {
+            return "always no (" + set + ")";
+        }
+        return "always not (some disj " + variables(k + 1) + ": " + CONVICTION_SIG + " | "
+                + String.join(" + ", names(k + 1)) + " in (" + set + "))";
+    }
+
+    private static String variables(int k) {
+        return String.join(", ", names(k));
+    }
+
+    private static List<String> names(int k) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            names.add(VARIABLE + i);
+        }
+        return names;
+    }
+
+    private static int value(SolveOutcome outcome, boolean maximize, List<String> violations) {
+        TraceState last = new SolutionDecoder(outcome.getSolution()).lastState();
+        if (maximize) {
+            return last.atoms(EXPUNGED_SIG).size();
+        }
+        Set<String> violating = new HashSet<>();
+        for (String sig : violations) {
+            violating.addAll(last.atoms(sig));
+        }
+        return violating.size();
+    }
+
+    private static int convictions(SolveOutcome outcome) {
+        return new SolutionDecoder(outcome.getSolution()).lastState().atoms(CONVICTION_SIG).size();
+    }
+
+    // The violation sigs this model declares
+    private static List<String> violationSigs(CompiledQuery query) {
+        Set<String> declared = new HashSet<>();
+        for (Sig sig : query.getSigs()) {
+            declared.add(sig.label.startsWith("this/") ? sig.label.substring(5) : sig.label);
+        }
+        List<String> violations = new ArrayList<>();
+        for (String sig : SolutionDecoder.VIOLATION_SIGS) {
+            if (declared.contains(sig)) {
+                violations.add(sig);
+            }
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,76 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import org.json.JSONObject;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorSyntax;
+import edu.mit.csail.sdg.alloy4.ErrorType;
+
+/**
+ * What is wrong with a request's predicate or run command, and where: the
+ * part of the request, and the line and column within that part (both
+ * counted from 1, or 0 when Alloy gives no position).
+ */
+public final class QueryError {
+
+    public static final String PREDICATE = "predicate";
+    public static final String RUN = "run";
+    // The error is in the base model as extended by the request, e.g. a redeclared name
+    public static final String MODEL = "model";
+
+    private final String part;
+    private final int line;
+    private final int column;
+    private final String kind;
+    private final String message;
+
+    QueryError(String part, int line, int column, String kind, String message) {
+        this.part = part;
+        this.line = line;
+        this.column = column;
+        this.kind = kind;
+        this.message = message;
+    }
+
+    static QueryError of(Err error, String part, int line, int column) {
+        String kind = error instanceof ErrorSyntax ? "syntax" : error instanceof ErrorType ? "type" : "error";
+        return new QueryError(part, Math.max(0, line), Math.max(0, column), kind, error.msg.trim());
+    }
+
+    public String getPart() {
+        return part;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * "syntax", "type" or "error".
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public JSONObject toJSON() {
+        return new JSONObject()
+                .put("part", part)
+                .put("line", line)
+                .put("column", column)
+                .put("kind", kind)
+                .put("message", message);
+    }
+
+    @Override
+    public String toString() {
+        return part + " " + line + ":" + column + ": " + message;
+    }
+}
@@ -0,0 +1,107 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import edu.mit.csail.sdg.ast.Decl;
+import edu.mit.csail.sdg.ast.Expr;
+import edu.mit.csail.sdg.ast.ExprBinary;
+import edu.mit.csail.sdg.ast.ExprCall;
+import edu.mit.csail.sdg.ast.ExprList;
+import edu.mit.csail.sdg.ast.ExprQt;
+import edu.mit.csail.sdg.ast.ExprUnary;
+import edu.mit.csail.sdg.ast.Sig;
+
+/**
+ * The shape of the record a query describes: how many events of each sig the
+ * user predicate introduces with top-level "some"/"one" quantifiers. Requests
+ * that differ only in dates and flags have the same shape.
+ */
+public final class RecordShape {
+
+    private final Sig event;
+    // Quantified event variables per bound sig, in declaration order
+    private final Map<Sig, Integer> declared;
+
+    private RecordShape(Sig event, Map<Sig, Integer> declared) {
+        this.event = event;
+        this.declared = declared;
+    }
+
+    public static RecordShape of(CompiledQuery query) {
+        Sig event = null;
+        for (Sig sig : query.getSigs()) {
+            if (sig.label.equals("this/Event")) {
+                event = sig;
+            }
+        }
+        Map<Sig, Integer> declared = new LinkedHashMap<>();
+        if (event != null) {
+            collect(query.getCommand().formula, event, declared);
+        }
+        return new RecordShape(event, declared);
+    }
+
+    public Sig getEvent() {
+        return event;
+    }
+
+    /**
+     * Number of events the predicate introduces.
+     */
+    public int declaredEvents() {
+        int total = 0;
+        for (int count : declared.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Stable description such as "Felony=2,Expungement=1".
+     */
+    public String key() {
+        StringJoiner key = new StringJoiner(",");
+        for (Map.Entry<Sig, Integer> entry : declared.entrySet()) {
+            key.add(name(entry.getKey()) + "=" + entry.getValue());
+        }
+        return key.toString();
+    }
+
+    private static String name(Sig sig) {
+        return sig.label.startsWith("this/") ? sig.label.substring(5) : sig.label;
+    }
+
+    // Walks conjunctions of the user predicate down to its existential quantifiers
+    private static void collect(Expr expr, Sig event, Map<Sig, Integer> declared) {
+        if (expr instanceof ExprUnary && ((ExprUnary) expr).op == ExprUnary.Op.NOOP) {
+            collect(((ExprUnary) expr).sub, event, declared);
+        } else if (expr instanceof ExprList && ((ExprList) expr).op == ExprList.Op.AND) {
+            for (Expr arg : ((ExprList) expr).args) {
+                collect(arg, event, declared);
+            }
+        } else if (expr instanceof ExprBinary && ((ExprBinary) expr).op == ExprBinary.Op.AND) {
+            collect(((ExprBinary) expr).left, event, declared);
+            collect(((ExprBinary) expr).right, event, declared);
+        } else if (expr instanceof ExprCall && ((ExprCall) expr).fun.label.endsWith(CompiledModel.USER_PREDICATE)) {
+            collect(((ExprCall) expr).fun.getBody(), event, declared);
+        } else if (expr instanceof ExprQt && (((ExprQt) expr).op == ExprQt.Op.SOME || ((ExprQt) expr).op == ExprQt.Op.ONE)) {
+            ExprQt quantifier = (ExprQt) expr;
+            for (Decl decl : quantifier.decls) {
+                Sig sig = boundSig(decl.expr);
+                if (sig != null && sig.isSameOrDescendentOf(event)) {
+                    declared.merge(sig, decl.names.size(), Integer::sum);
+                }
+            }
+            collect(quantifier.sub, event, declared);
+        }
+    }
+
+    private static Sig boundSig(Expr expr) {
+        while (expr instanceof ExprUnary) {
+            expr = ((ExprUnary) expr).sub;
+        }
+        return expr instanceof Sig ? (Sig) expr : null;
+    }
+}
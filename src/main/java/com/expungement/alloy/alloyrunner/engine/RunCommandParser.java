@@ -0,0 +1,166 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.Pos;
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.ast.CommandScope;
+import edu.mit.csail.sdg.ast.Expr;
+import edu.mit.csail.sdg.ast.Sig;
+import edu.mit.csail.sdg.parser.CompModule;
+
+/**
+ * Parses the run commands clients send ("run userDefinedPredicate for 5 but
+ * exactly 3 Felony, 10 steps") directly into a {@link Command} against an
+ * already resolved module.
+ *
+ * Only the subset of the command grammar the front end uses is handled here;
+ * {@link #parse} returns null for anything else so the caller can fall back
+ * to the regular Alloy parser.
+ */
+final class RunCommandParser {
+
+    private static final Pattern TOKEN = Pattern.compile("\\s*(\\d+|\\.\\.|[A-Za-z_][\\w/']*|\\S)");
+
+    private final List<String> tokens;
+    private int index;
+
+    private RunCommandParser(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    static Command parse(CompModule world, String run, Expr formula) throws Err {
+        List<String> tokens = tokenize(run);
+        if (tokens == null) {
+            return null;
+        }
+        return new RunCommandParser(tokens).command(world, formula);
+    }
+
+    private static List<String> tokenize(String run) {
+        if (run == null) {
+            return null;
+        }
+        String text = AlloyText.stripComments(run).trim();
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text);
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            tokens.add(matcher.group(1));
+            end = matcher.end();
+        }
+        return end == text.length() ? tokens : null;
+    }
+
+    private Command command(CompModule world, Expr formula) throws Err {
+        if (!accept("run") || !accept(CompiledModel.USER_PREDICATE)) {
+            return null;
+        }
+
+        int overall = -1, bitwidth = -1, maxseq = -1, minprefix = -1, maxprefix = -1, expects = -1;
+        List<CommandScope> scopes = new ArrayList<>();
+        Set<Sig> scoped = new HashSet<>();
+
+        if (accept("for")) {
+            // "for N" and "for N but ..." set the default scope first
+            if (isNumber(peek()) && (peek(1) == null || peek(1).equals("but") || peek(1).equals("expect"))) {
+                overall = Integer.parseInt(next());
+                if (!accept("but")) {
+                    return finish(world, formula, overall, bitwidth, maxseq, minprefix, maxprefix, expects, scopes);
+                }
+            }
+            do {
+                boolean exact = accept("exactly");
+                if (!isNumber(peek())) {
+                    return null;
+                }
+                int from = Integer.parseInt(next());
+                int to = from;
+                if (accept("..")) {
+                    if (!isNumber(peek())) {
+                        return null;
+                    }
+                    to = Integer.parseInt(next());
+                }
+                String target = next();
+                if (target == null) {
+                    return null;
+                }
+                switch (target) {
+                    case "steps":
+                        minprefix = exact ? to : (from == to ? -1 : from);
+                        maxprefix = to;
+                        break;
+                    case "Int":
+                    case "int":
+                        bitwidth = from;
+                        break;
+                    case "seq":
+                        maxseq = from;
+                        break;
+                    default:
+                        Sig sig = findSig(world, target);
+                        if (sig == null || from != to || !scoped.add(sig)) {
+                            return null;
+                        }
+                        scopes.add(new CommandScope(sig, exact, from));
+                }
+            } while (accept(","));
+        }
+        return finish(world, formula, overall, bitwidth, maxseq, minprefix, maxprefix, expects, scopes);
+    }
+
+    private Command finish(CompModule world, Expr formula, int overall, int bitwidth, int maxseq,
+            int minprefix, int maxprefix, int expects, List<CommandScope> scopes) throws Err {
+        if (accept("expect")) {
+            if (!isNumber(peek())) {
+                return null;
+            }
+            expects = Integer.parseInt(next());
+        }
+        if (peek() != null) {
+            return null;
+        }
+        return new Command(Pos.UNKNOWN, null, CompiledModel.USER_PREDICATE, false, overall, bitwidth, maxseq,
+                minprefix, maxprefix, expects, scopes, new ArrayList<Sig>(), null, formula, null);
+    }
+
+    private static Sig findSig(CompModule world, String name) {
+        for (Sig sig : world.getAllReachableSigs()) {
+            if (sig.label.equals("this/" + name) || sig.label.equals(name)) {
+                return sig;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumber(String token) {
+        return token != null && Character.isDigit(token.charAt(0));
+    }
+
+    private String peek() {
+        return peek(0);
+    }
+
+    private String peek(int ahead) {
+        return index + ahead < tokens.size() ? tokens.get(index + ahead) : null;
+    }
+
+    private String next() {
+        return index < tokens.size() ? tokens.get(index++) : null;
+    }
+
+    private boolean accept(String token) {
+        if (token.equals(peek())) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.mit.csail.sdg.ast.ExprVar;
+import edu.mit.csail.sdg.ast.Sig;
+import edu.mit.csail.sdg.ast.Sig.Field;
+import edu.mit.csail.sdg.translator.A4Tuple;
+import edu.mit.csail.sdg.translator.A4TupleSet;
+import edu.mit.csail.sdg.translator.A4Solution;
+
+/**
+ * Reads sigs and fields of the expungement models straight from a satisfiable
+ * {@link A4Solution}, instead of rendering the trace with toString() and
+ * scanning the text.
+ */
+public class SolutionDecoder {
+
+    /** The *Violations sigs of the michigan models, in response order. */
+    public static final String[] VIOLATION_SIGS = {
+            "sec1_1bViolations", "sec1_1cViolations", "sec1d_2Violations",
+            "sec1dTimingViolations", "backwardWaitingViolations", "forwardWaitingViolations"
+    };
+
+    private static final String SKOLEM_PREFIX = "$" + CompiledModel.USER_PREDICATE + "_";
+
+    private final A4Solution solution;
+    private final Map<String, Sig> sigs = new HashMap<>();
+    private final TraceState[] states;
+    private Field dateField;
+
+    public SolutionDecoder(A4Solution solution) {
+        this.solution = solution;
+        for (Sig sig : solution.getAllReachableSigs()) {
+            String name = sig.label.startsWith("this/") ? sig.label.substring(5) : sig.label;
+            sigs.put(name, sig);
+            if (name.equals("Event")) {
+                for (Field field : sig.getFields()) {
+                    if (field.label.equals("date")) {
+                        dateField = field;
+                    }
+                }
+            }
+        }
+        this.states = new TraceState[solution.isTemporal() ? solution.getTraceLength() : 1];
+    }
+
+    public A4Solution getSolution() {
+        return solution;
+    }
+
+    public int stateCount() {
+        return states.length;
+    }
+
+    public TraceState state(int index) {
+        if (states[index] == null) {
+            states[index] = new TraceState(this, index);
+        }
+        return states[index];
+    }
+
+    public TraceState lastState() {
+        return state(states.length - 1);
+    }
+
+    /**
+     * Whether the model declares a sig with the given name (without "this/").
+     */
+    public boolean hasSig(String name) {
+        return sigs.containsKey(name);
+    }
+
+    /**
+     * Maps event atoms to the variable names the user predicate bound them to,
+     * taken from the $userDefinedPredicate_* skolem constants.
+     */
+    public Map<String, String> userPredicateIds() {
+        Map<String, String> ids = new HashMap<>();
+        for (ExprVar skolem : solution.getAllSkolems()) {
+            if (!skolem.label.startsWith(SKOLEM_PREFIX)) {
+                continue;
+            }
+            try {
+                Object value = solution.eval(skolem, states.length - 1);
+                if (value instanceof A4TupleSet && ((A4TupleSet) value).arity() == 1) {
+                    for (A4Tuple tuple : (A4TupleSet) value) {
+                        ids.put(tuple.atom(0), skolem.label.substring(SKOLEM_PREFIX.length()));
+                    }
+                }
+            } catch (RuntimeException e) {
+                // A skolem that cannot be evaluated simply has no id
+            }
+        }
+        return ids;
+    }
+
+    Sig sig(String name) {
+        return sigs.get(name);
+    }
+
+    Field dateField() {
+        return dateField;
+    }
+
+    // The named field of the named sig (without "this/"), or null
+    Field field(String sigName, String fieldName) {
+        Sig sig = sigs.get(sigName);
+        if (sig != null) {
+            for (Field field : sig.getFields()) {
+                if (field.label.equals(fieldName)) {
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+}
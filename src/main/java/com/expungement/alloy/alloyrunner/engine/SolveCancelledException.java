@@ -0,0 +1,13 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+/**
+ * Thrown when a solve is stopped through its {@link SolveMonitor} before it finished.
+ */
+public class SolveCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SolveCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,203 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import org.sat4j.specs.ISolver;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import kodkod.engine.satlab.SATFactory;
+
+/**
+ * Reporter that lets another thread stop a running solve and enforces a
+ * deadline. Alloy calls the reporter between translation stages and right
+ * before SAT solving starts; once {@link #cancel} has been called or the
+ * deadline has passed, the next callback aborts the solve.
+ *
+ * Inside the SAT call only SAT4J can be stopped: solvers made by
+ * {@link #stoppable} get the remaining time as their own timeout and are
+ * stopped by {@link #cancel}. Native solvers (minisat, glucose) cannot be
+ * interrupted and stop at the first callback after the SAT call returns.
+ *
+ * A monitor with a parent also stops when its parent does, which is how the
+ * racers of a portfolio solve follow the request they belong to.
+ */
+public class SolveMonitor extends A4Reporter {
+
+    private final SolveMonitor parent;
+
+    private volatile String cancelled;
+    // System.nanoTime() deadline, only meaningful when timeoutMs > 0
+    private volatile long deadline;
+    private volatile long timeoutMs;
+    // System.nanoTime() when the last execute started, reached SAT solving and finished
+    private volatile long started;
+    private volatile long solving;
+    private volatile long finished;
+    // Size of the CNF handed to the SAT solver by the last execute
+    private volatile int variables;
+    private volatile int clauses;
+    // SAT4J instance of the running solve, when it was made by stoppable()
+    private volatile ISolver sat;
+
+    public SolveMonitor() {
+        this(null);
+    }
+
+    public SolveMonitor(SolveMonitor parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Starts the deadline clock: the solve fails with a
+     * {@link SolveTimeoutException} once timeoutMs have passed from now.
+     */
+    public SolveMonitor startDeadline(long timeoutMs) {
+        this.deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    public void cancel(String reason) {
+        if (cancelled == null) {
+            cancelled = reason;
+        }
+        ISolver solver = sat;
+        if (solver != null) {
+            solver.expireTimeout();
+        }
+    }
+
+    /**
+     * The solver to translate with: for SAT4J one this monitor can stop in the
+     * middle of the search, any other solver as it is.
+     */
+    public SATFactory stoppable(SATFactory solver) {
+        return solver != null && StoppableSat4j.ID.equals(solver.id()) ? new StoppableSat4j(this) : solver;
+    }
+
+    // Called with every SAT4J instance a stoppable() factory creates, before it solves
+    void attach(ISolver solver) {
+        sat = solver;
+        long remaining = remainingMs();
+        if (remaining != Long.MAX_VALUE) {
+            solver.setTimeoutMs(Math.max(1, remaining));
+        }
+        if (isCancelled()) {
+            solver.expireTimeout();
+        }
+    }
+
+    // Time left before this monitor's or a parent's deadline; Long.MAX_VALUE without one
+    private long remainingMs() {
+        long remaining = parent != null ? parent.remainingMs() : Long.MAX_VALUE;
+        if (timeoutMs > 0) {
+            remaining = Math.min(remaining, (deadline - System.nanoTime()) / 1_000_000);
+        }
+        return remaining;
+    }
+
+    public boolean isCancelled() {
+        return cancelled != null || (parent != null && parent.isCancelled());
+    }
+
+    public boolean isTimedOut() {
+        return (timeoutMs > 0 && System.nanoTime() - deadline >= 0) || (parent != null && parent.isTimedOut());
+    }
+
+    /**
+     * Translates and solves the query, reporting to this monitor. Throws a
+     * {@link SolveCancelledException} if the solve was cancelled.
+     */
+    public A4Solution execute(CompiledQuery query, A4Options options) throws Err {
+        checkpoint();
+        started = System.nanoTime();
+        solving = 0;
+        variables = 0;
+        clauses = 0;
+        try {
+            return query.execute(this, options);
+        } catch (RuntimeException e) {
+            // Alloy wraps exceptions thrown from reporter callbacks, and a stopped SAT4J fails with "timed out"
+            checkpoint();
+            throw e;
+        } finally {
+            finished = System.nanoTime();
+            sat = null;
+        }
+    }
+
+    /**
+     * Time the last execute spent computing bounds and translating to CNF.
+     */
+    public long getTranslateMs() {
+        return ((solving != 0 ? solving : finished) - started) / 1_000_000;
+    }
+
+    /**
+     * Time the last execute spent in the SAT solver; 0 if it never got there.
+     */
+    public long getSolveMs() {
+        return solving == 0 ? 0 : (finished - solving) / 1_000_000;
+    }
+
+    /**
+     * Variables in the CNF of the last execute; 0 if it never got to SAT solving.
+     */
+    public int getVariables() {
+        return variables;
+    }
+
+    /**
+     * Clauses in the CNF of the last execute; 0 if it never got to SAT solving.
+     */
+    public int getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Throws if the solve has been cancelled or is past its deadline. Called from
+     * the reporter callbacks, and by callers between solutions and while decoding.
+     */
+    public void checkpoint() {
+        if (parent != null) {
+            parent.checkpoint();
+        }
+        if (timeoutMs > 0 && System.nanoTime() - deadline >= 0) {
+            throw new SolveTimeoutException(timeoutMs);
+        }
+        if (cancelled != null) {
+            throw new SolveCancelledException(cancelled);
+        }
+    }
+
+    @Override
+    public void debug(String msg) {
+        checkpoint();
+    }
+
+    @Override
+    public void scope(String msg) {
+        checkpoint();
+    }
+
+    @Override
+    public void bound(String msg) {
+        checkpoint();
+    }
+
+    @Override
+    public void translate(String solver, int bitwidth, int maxseq, int mintrace, int maxtrace, int skolemDepth, int symmetry, String strategy) {
+        checkpoint();
+    }
+
+    @Override
+    public void solve(int plength, int primaryVars, int totalVars, int clauses) {
+        checkpoint();
+        if (solving == 0) {
+            solving = System.nanoTime();
+        }
+        this.variables = totalVars;
+        this.clauses = clauses;
+    }
+}
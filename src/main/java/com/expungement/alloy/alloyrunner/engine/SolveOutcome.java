@@ -0,0 +1,102 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import edu.mit.csail.sdg.translator.A4Solution;
+
+/**
+ * A solution together with the solver that produced it, how long every solver
+ * that took part ran and how the winner's time split between translation and
+ * SAT solving, in milliseconds. Adaptive solves also record the step bound
+ * that was used, and solves that reached the SAT solver the size of the CNF.
+ */
+public class SolveOutcome {
+
+    private final A4Solution solution;
+    private final String solver;
+    private final Map<String, Long> timings;
+    private final long translateMs;
+    private final long solveMs;
+    private int steps;
+    private int stepsTried;
+    private int variables;
+    private int clauses;
+
+    public SolveOutcome(A4Solution solution, String solver, Map<String, Long> timings, long translateMs, long solveMs) {
+        this.solution = solution;
+        this.solver = solver;
+        this.timings = timings;
+        this.translateMs = translateMs;
+        this.solveMs = solveMs;
+    }
+
+    public A4Solution getSolution() {
+        return solution;
+    }
+
+    public String getSolver() {
+        return solver;
+    }
+
+    public Map<String, Long> getTimings() {
+        return timings;
+    }
+
+    /**
+     * Time the winning solver spent translating to CNF.
+     */
+    public long getTranslateMs() {
+        return translateMs;
+    }
+
+    /**
+     * Time the winning solver spent in SAT solving.
+     */
+    public long getSolveMs() {
+        return solveMs;
+    }
+
+    /**
+     * Records the trace length this solution was found with and how many trace
+     * lengths, from the lower step bound on, the solve covered to get there.
+     */
+    public void setSteps(int steps, int stepsTried) {
+        this.steps = steps;
+        this.stepsTried = stepsTried;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Records the size of the CNF the winning solver was given.
+     */
+    public void setCnf(int variables, int clauses) {
+        this.variables = variables;
+        this.clauses = clauses;
+    }
+
+    public int getVariables() {
+        return variables;
+    }
+
+    public int getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Adds the winning solver, the per-solver timings and, for adaptive solves,
+     * the step bound to a response.
+     */
+    public JSONObject describe(JSONObject result) {
+        result.put("solver", solver).put("solverTimings", new JSONObject(timings));
+        result.put("translateMs", translateMs).put("solveMs", solveMs);
+        if (steps > 0) {
+            result.put("steps", steps).put("stepsTried", stepsTried);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,23 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+/**
+ * Thrown when a solve runs past its deadline. Clients see it as a
+ * {@link #ERROR_CODE} error rather than a generic failure.
+ */
+public class SolveTimeoutException extends SolveCancelledException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ERROR_CODE = "TOO_COMPLEX";
+
+    private final long timeoutMs;
+
+    public SolveTimeoutException(long timeoutMs) {
+        super("Query did not finish within " + timeoutMs + " ms; it is too complex to solve");
+        this.timeoutMs = timeoutMs;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+}
@@ -0,0 +1,139 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.A4Solution;
+import kodkod.engine.satlab.SATFactory;
+
+/**
+ * Solves a query with one SAT backend, or races several against each other and
+ * keeps the first answer.
+ *
+ * Alloy binds the SAT solver when it translates a command, so every racer
+ * translates the query itself. The losers are cancelled through their
+ * {@link SolveMonitor} as soon as a winner is known, and all racers stop when
+ * the request's own monitor is cancelled or runs out of time. A losing SAT4J
+ * racer stops in the middle of its search; a native one (minisat, glucose)
+ * cannot be interrupted and keeps its racer thread until its SAT call
+ * returns, so the racers executor should be bounded.
+ */
+public final class SolverPortfolio {
+
+    private static final long POLL_MS = 50;
+
+    private SolverPortfolio() {
+    }
+
+    /**
+     * @param solvers solver id to factory, in preference order
+     * @param racers  runs the racers when there is more than one solver; queued
+     *                racers start once a thread frees up
+     * @param monitor cancellation and deadline of the request
+     */
+    public static SolveOutcome solve(CompiledQuery query, Map<String, SATFactory> solvers, Executor racers, SolveMonitor monitor) {
+        List<String> ids = new ArrayList<>(solvers.keySet());
+        if (ids.size() == 1) {
+            String id = ids.get(0);
+            long start = System.nanoTime();
+            A4Solution solution = monitor.execute(query, options(query, monitor.stoppable(solvers.get(id))));
+            Map<String, Long> timings = new LinkedHashMap<>();
+            timings.put(id, elapsedMs(start));
+            SolveOutcome outcome = new SolveOutcome(solution, id, timings, monitor.getTranslateMs(), monitor.getSolveMs());
+            outcome.setCnf(monitor.getVariables(), monitor.getClauses());
+            return outcome;
+        }
+
+        int count = ids.size();
+        SolveMonitor[] monitors = new SolveMonitor[count];
+        long[] started = new long[count];
+        long[] finished = new long[count];
+        List<CompletableFuture<A4Solution>> runs = new ArrayList<>();
+        CompletableFuture<Integer> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            int racer = i;
+            monitors[racer] = new SolveMonitor(monitor);
+            A4Options options = options(query, monitors[racer].stoppable(solvers.get(ids.get(racer))));
+            CompletableFuture<A4Solution> run = CompletableFuture.supplyAsync(() -> {
+                started[racer] = System.nanoTime();
+                try {
+                    return monitors[racer].execute(query, options);
+                } finally {
+                    finished[racer] = System.nanoTime();
+                }
+            }, racers);
+            run.whenComplete((solution, error) -> {
+                if (error == null) {
+                    winner.complete(racer);
+                } else if (failures.incrementAndGet() == count) {
+                    winner.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                }
+            });
+            runs.add(run);
+        }
+
+        int first = await(winner, monitor, monitors);
+        for (int i = 0; i < count; i++) {
+            if (i != first) {
+                monitors[i].cancel("Another solver finished first");
+            }
+        }
+
+        long now = System.nanoTime();
+        Map<String, Long> timings = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            long start = started[i] == 0 ? now : started[i];
+            long end = finished[i] == 0 ? now : finished[i];
+            timings.put(ids.get(i), (end - start) / 1_000_000);
+        }
+        SolveOutcome outcome = new SolveOutcome(runs.get(first).join(), ids.get(first), timings,
+                monitors[first].getTranslateMs(), monitors[first].getSolveMs());
+        outcome.setCnf(monitors[first].getVariables(), monitors[first].getClauses());
+        return outcome;
+    }
+
+    // Waits for the first racer to finish while watching the request's own monitor
+    private static int await(CompletableFuture<Integer> winner, SolveMonitor monitor, SolveMonitor[] monitors) {
+        while (true) {
+            try {
+                monitor.checkpoint();
+                return winner.get(POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Check the request monitor again
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new CompletionException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                monitor.cancel("Interrupted");
+            } catch (SolveCancelledException e) {
+                for (SolveMonitor racer : monitors) {
+                    racer.cancel(e.getMessage());
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static A4Options options(CompiledQuery query, SATFactory solver) {
+        A4Options options = new A4Options();
+        options.solver = solver;
+        options.inferPartialInstance = query.getModel().hasPartialInstance();
+        return options;
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
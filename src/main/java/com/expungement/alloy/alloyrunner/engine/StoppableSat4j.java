@@ -0,0 +1,48 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ISolver;
+
+import kodkod.engine.satlab.SATFactory;
+import kodkod.engine.satlab.SATSolver;
+import kodkod.solvers.SAT4J;
+
+/**
+ * The "sat4j" backend, handing every SAT4J instance it creates to a
+ * {@link SolveMonitor} so the monitor can stop the search itself rather than
+ * wait for the SAT call to return.
+ */
+final class StoppableSat4j extends SATFactory {
+
+    static final String ID = "sat4j";
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient SolveMonitor monitor;
+
+    StoppableSat4j(SolveMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public String id() {
+        return ID;
+    }
+
+    @Override
+    public String type() {
+        return "java";
+    }
+
+    @Override
+    public boolean incremental() {
+        return true;
+    }
+
+    @Override
+    protected SATSolver createSolver() {
+        ISolver solver = SolverFactory.instance().defaultSolver();
+        monitor.attach(solver);
+        return new SAT4J(solver);
+    }
+}
@@ -0,0 +1,91 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.csail.sdg.ast.Sig;
+import edu.mit.csail.sdg.ast.Sig.Field;
+import edu.mit.csail.sdg.translator.A4Tuple;
+import edu.mit.csail.sdg.translator.A4TupleSet;
+
+/**
+ * One step of a decoded trace. Sig contents are read from the solution's tuple
+ * sets the first time they are asked for and kept as hash sets, so membership
+ * checks are constant time.
+ */
+public class TraceState {
+
+    private final SolutionDecoder decoder;
+    private final int index;
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private Map<String, String> eventDates;
+
+    TraceState(SolutionDecoder decoder, int index) {
+        this.decoder = decoder;
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Atoms of the sig with the given name (without "this/"), in solution order.
+     * Sigs the model does not declare are empty.
+     */
+    public Set<String> atoms(String sigName) {
+        Set<String> atoms = sets.get(sigName);
+        if (atoms == null) {
+            Sig sig = decoder.sig(sigName);
+            atoms = sig == null ? Collections.emptySet() : unary(decoder.getSolution().eval(sig, index));
+            sets.put(sigName, atoms);
+        }
+        return atoms;
+    }
+
+    public boolean contains(String sigName, String atom) {
+        return atoms(sigName).contains(atom);
+    }
+
+    /**
+     * The Event&lt;:date relation as event atom to date atom, in solution order.
+     */
+    public Map<String, String> eventDates() {
+        if (eventDates == null) {
+            eventDates = new LinkedHashMap<>();
+            if (decoder.dateField() != null) {
+                for (A4Tuple tuple : decoder.getSolution().eval(decoder.dateField(), index)) {
+                    eventDates.put(tuple.atom(0), tuple.atom(1));
+                }
+            }
+        }
+        return eventDates;
+    }
+
+    /**
+     * A binary field of a sig as atom to the atoms it maps to, in solution
+     * order; empty when the model does not declare it.
+     */
+    public Map<String, Set<String>> field(String sigName, String fieldName) {
+        Map<String, Set<String>> pairs = new LinkedHashMap<>();
+        Field field = decoder.field(sigName, fieldName);
+        if (field != null) {
+            for (A4Tuple tuple : decoder.getSolution().eval(field, index)) {
+                pairs.computeIfAbsent(tuple.atom(0), atom -> new LinkedHashSet<>()).add(tuple.atom(1));
+            }
+        }
+        return pairs;
+    }
+
+    private static Set<String> unary(A4TupleSet tuples) {
+        Set<String> atoms = new LinkedHashSet<>();
+        for (A4Tuple tuple : tuples) {
+            atoms.add(tuple.atom(0));
+        }
+        return atoms;
+    }
+}
@@ -1,10 +1,61 @@
 package com.expungement.alloy.alloyrunner.model;
 
+import java.util.List;
+
 public class AlloyRequest {
 	
 	private String predicate;
     private String run;
     private String type;
+    // Jurisdiction whose model to use, e.g. "michigan" or "utah"; null for the server default
+    private String jurisdiction;
+    // Number of distinct solutions to stream (stream endpoints only)
+    private Integer solutions;
+    // SAT solver id, "portfolio" to race the configured solvers, or null for the default
+    private String solver;
+    // Solve deadline in milliseconds, capped by the server; null for the server default
+    private Integer timeoutMs;
+    // Solve with the shortest trace that holds the record, growing up to the run command's step bound
+    private Boolean adaptiveSteps;
+    // Generate the Date atoms for the years the predicate mentions; null for the server default
+    private Boolean specializeDates;
+    // "max-expunged" or "min-violations" to return an optimal plan instead of the first one found; null for any plan
+    private String objective;
+    // Response fields for /run: any of expungements, violations, now, events, event_date, expunged; null for expungements and violations
+    private List<String> fields;
+    // "last" for the final state's fields only, "all" to add a trace of them for every state; null for last
+    private String states;
+    // Set by the server from the X-Request-Id header or generated; names the request's debug capture
+    private String requestId;
+    // Set by the server from the principal, a trusted proxy's X-Client-Id or the remote address; solves are shared fairly between clients
+    private String clientId;
+
+    public static AlloyRequest of(String predicate, String run, String type) {
+        AlloyRequest request = new AlloyRequest();
+        request.setPredicate(predicate);
+        request.setRun(run);
+        request.setType(type);
+        return request;
+    }
+
+    /**
+     * A copy of this request with a different predicate.
+     */
+    public AlloyRequest withPredicate(String predicate) {
+        AlloyRequest copy = of(predicate, run, type);
+        copy.setJurisdiction(jurisdiction);
+        copy.setSolutions(solutions);
+        copy.setSolver(solver);
+        copy.setTimeoutMs(timeoutMs);
+        copy.setAdaptiveSteps(adaptiveSteps);
+        copy.setSpecializeDates(specializeDates);
+        copy.setObjective(objective);
+        copy.setFields(fields);
+        copy.setStates(states);
+        copy.setRequestId(requestId);
+        copy.setClientId(clientId);
+        return copy;
+    }
 
     // Getters and setters
     public String getPredicate() {
@@ -30,4 +81,92 @@ public class AlloyRequest {
     public void setRun(String run) {
         this.run = run;
     }
+
+    public Integer getSolutions() {
+        return solutions;
+    }
+
+    public void setSolutions(Integer solutions) {
+        this.solutions = solutions;
+    }
+
+    public String getSolver() {
+        return solver;
+    }
+
+    public void setSolver(String solver) {
+        this.solver = solver;
+    }
+
+    public Integer getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(Integer timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public Boolean getAdaptiveSteps() {
+        return adaptiveSteps;
+    }
+
+    public void setAdaptiveSteps(Boolean adaptiveSteps) {
+        this.adaptiveSteps = adaptiveSteps;
+    }
+
+    public Boolean getSpecializeDates() {
+        return specializeDates;
+    }
+
+    public void setSpecializeDates(Boolean specializeDates) {
+        this.specializeDates = specializeDates;
+    }
+
+    public String getObjective() {
+        return objective;
+    }
+
+    public void setObjective(String objective) {
+        this.objective = objective;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+
+    public String getStates() {
+        return states;
+    }
+
+    public void setStates(String states) {
+        this.states = states;
+    }
+
+    public String getJurisdiction() {
+        return jurisdiction;
+    }
+
+    public void setJurisdiction(String jurisdiction) {
+        this.jurisdiction = jurisdiction;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
 }
@@ -0,0 +1,191 @@
+package com.expungement.alloy.alloyrunner.model;
+
+import java.util.List;
+
+/**
+ * A criminal record as typed data, for clients that would rather not write
+ * Alloy. The server compiles it into the predicate and run command itself.
+ */
+public class CaseRecord {
+
+    // "run" for the expungement schedule, "evaluate" for per-event results; null for evaluate
+    private String mode;
+    // "forward" or "backward", as for AlloyRequest; null for forward
+    private String type;
+    private String jurisdiction;
+    private List<Conviction> convictions;
+    // Expungements that already happened; the solver finds the rest when there are none
+    private List<Expungement> expungements;
+    private String solver;
+    private Integer timeoutMs;
+    private Boolean adaptiveSteps;
+    // As for AlloyRequest: "max-expunged" or "min-violations"; null for any plan
+    private String objective;
+
+    public static class Conviction {
+
+        // Client's name for the conviction, echoed back in results; generated when missing
+        private String id;
+        // "felony" or "misdemeanor"
+        private String kind;
+        // "2015" or "2015-06-30"; only the year is used
+        private String date;
+        private boolean assaultive;
+        // Misdemeanors only
+        private boolean owi;
+        // Felonies only
+        private boolean tenYear;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public void setKind(String kind) {
+            this.kind = kind;
+        }
+
+        public String getDate() {
+            return date;
+        }
+
+        public void setDate(String date) {
+            this.date = date;
+        }
+
+        public boolean isAssaultive() {
+            return assaultive;
+        }
+
+        public void setAssaultive(boolean assaultive) {
+            this.assaultive = assaultive;
+        }
+
+        public boolean isOwi() {
+            return owi;
+        }
+
+        public void setOwi(boolean owi) {
+            this.owi = owi;
+        }
+
+        public boolean isTenYear() {
+            return tenYear;
+        }
+
+        public void setTenYear(boolean tenYear) {
+            this.tenYear = tenYear;
+        }
+    }
+
+    public static class Expungement {
+
+        private String id;
+        private String date;
+        // Ids of the convictions it expunged
+        private List<String> convictions;
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getDate() {
+            return date;
+        }
+
+        public void setDate(String date) {
+            this.date = date;
+        }
+
+        public List<String> getConvictions() {
+            return convictions;
+        }
+
+        public void setConvictions(List<String> convictions) {
+            this.convictions = convictions;
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getJurisdiction() {
+        return jurisdiction;
+    }
+
+    public void setJurisdiction(String jurisdiction) {
+        this.jurisdiction = jurisdiction;
+    }
+
+    public List<Conviction> getConvictions() {
+        return convictions;
+    }
+
+    public void setConvictions(List<Conviction> convictions) {
+        this.convictions = convictions;
+    }
+
+    public List<Expungement> getExpungements() {
+        return expungements;
+    }
+
+    public void setExpungements(List<Expungement> expungements) {
+        this.expungements = expungements;
+    }
+
+    public String getSolver() {
+        return solver;
+    }
+
+    public void setSolver(String solver) {
+        this.solver = solver;
+    }
+
+    public Integer getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(Integer timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public Boolean getAdaptiveSteps() {
+        return adaptiveSteps;
+    }
+
+    public void setAdaptiveSteps(Boolean adaptiveSteps) {
+        this.adaptiveSteps = adaptiveSteps;
+    }
+
+    public String getObjective() {
+        return objective;
+    }
+
+    public void setObjective(String objective) {
+        this.objective = objective;
+    }
+}
@@ -3,139 +3,182 @@ package com.expungement.alloy.alloyrunner.service;
 import org.json.JSONObject;
 
 import org.json.JSONArray;
-import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.AlloyText;
+import com.expungement.alloy.alloyrunner.engine.CanonicalPredicate;
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.engine.TraceState;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
 import edu.mit.csail.sdg.alloy4.Err;
-import edu.mit.csail.sdg.ast.Module;
-import edu.mit.csail.sdg.parser.CompUtil;
-import edu.mit.csail.sdg.translator.A4Options;
 import edu.mit.csail.sdg.translator.A4Solution;
-import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
-import jakarta.annotation.PostConstruct;
-import kodkod.engine.satlab.SATFactory;
 
-import java.util.regex.*;
-import java.util.*;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 
 
 @Service
 public class AlloyResult {
 
-    @Value("${alloy.model.path}")
-    private String modelPath = "";
-
-    @Value("${alloy.model.path2}")
-    private String modelPath2 = "";
+    private static final Logger log = LoggerFactory.getLogger(AlloyResult.class);
 
-    /**
-     * Asynchronous method to evaluate an Alloy query.
-     */
-    public CompletableFuture<JSONObject> evaluateAlloyQueryAsync(String predicate, String run, String type) {
-        return CompletableFuture.supplyAsync(() -> evaluateAlloyQuery(predicate, run, type));
-    }
+    @Autowired
+    private ModelCache modelCache;
 
-    public JSONObject evaluateAlloyQuery(String predicate, String run, String type) {
-        String modelContent;
-        
-        String userPredicate = "\n\npred userDefinedPredicate {\n"
-        	    + predicate
-        	    + "}\n"
-        	    + run;
-        
-
-        try {
-            // Read the existing model from file
-        	InputStream modelStream;
-            if (type.equals("forward")) {
-                modelStream = getClass().getClassLoader().getResourceAsStream("models/michigan.als");
-            } else {
-                modelStream = getClass().getClassLoader().getResourceAsStream("models/michigan2.als");
-            }
+    @Autowired
+    private ResultCache resultCache;
 
-            if (modelStream == null) {
-                System.err.println("ERROR: Model file not found inside JAR.");
-                return formatOutput(false, new JSONArray());
-            }
+    @Autowired
+    private SolverExecutor solverExecutor;
 
-            // Read file content from classpath
-            modelContent = new String(modelStream.readAllBytes(), StandardCharsets.UTF_8);
-            modelStream.close();
+    @Autowired
+    private SolverSelection solverSelection;
 
-            // Append the user-defined predicate at the end of the model
-            modelContent += userPredicate;
+    @Autowired
+    private SolvePipeline solvePipeline;
 
-            // Parse the modified Alloy model from string
-            Module world = CompUtil.parseEverything_fromString(null, modelContent);
+    @Autowired
+    private SolveMetrics metrics;
 
-            // Options for the Alloy solver
-            A4Options options = new A4Options();
-            options.solver = SATFactory.get("minisat");
+    @Autowired
+    private WorkerDispatch workerDispatch;
 
+    /**
+     * Asynchronous method to evaluate an Alloy query on the solver pool. Fails with
+     * a {@link SolverBusyException} when the solver queue is full, with an
+     * {@link InvalidRequestException} when the request names an unavailable solver,
+     * with an {@link InvalidQueryException} when its predicate or run command does
+     * not parse, and with a {@link SolveTimeoutException} when the solve runs past its
+     * deadline. Cancelling the returned future stops the solve.
+     */
+    public CompletableFuture<JSONObject> evaluateAlloyQueryAsync(AlloyRequest request) {
+        String predicate = request.getPredicate();
+        String run = request.getRun();
+        // Equivalent records are solved and cached under one canonical predicate
+        CanonicalPredicate canonical = resultCache.canonical(predicate);
+        AlloyRequest solved = request.withPredicate(canonical.getText());
+        String solver;
+        CompiledModel model;
+        try {
+            solver = solverSelection.mode(request.getSolver());
+            SolvePipeline.objective(request.getObjective());
+            model = modelCache.get(request.getJurisdiction(), request.getType(), solved.getPredicate(), request.getSpecializeDates());
+            // Malformed requests are turned away here rather than after taking a solver slot
+            QueryValidator.admit(model, predicate, run);
+        } catch (InvalidRequestException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (Err e) {
+            log.error("Could not load the {} model", request.getType(), e);
+            return CompletableFuture.completedFuture(formatOutput(false, new JSONArray()));
+        }
+        long timeoutMs = solverExecutor.timeoutMs(request.getTimeoutMs());
+        boolean adaptive = Boolean.TRUE.equals(request.getAdaptiveSteps());
+        String settings = adaptive ? solver + ",adaptive" : solver;
+        if (request.getObjective() != null) {
+            settings += "," + request.getObjective();
+        }
+        CompletableFuture<JSONObject> solve = resultCache.getAsync(ResultCache.key("evaluate", model, solved.getPredicate(), run, settings),
+                AlloyText.normalize(predicate), () -> {
+                    SolveMonitor monitor = new SolveMonitor();
+                    if (workerDispatch.isEnabled()) {
+                        return workerDispatch.submit(WorkerPool.EVALUATE, solved, model, solver, adaptive, timeoutMs, false, monitor);
+                    }
+                    return solverExecutor.submit(monitor, timeoutMs, SolveCost.of(model.getName(), run), request.getClientId(),
+                            () -> solve(solved, model, solver, adaptive, monitor));
+                });
+        return SolverExecutor.cancelling(solve.thenApply(result -> restoreIds(canonical, result)).exceptionally(ex -> {
+            Throwable cause = SolverExecutor.unwrap(ex);
+            if (cause instanceof SolverBusyException || cause instanceof SolveCancelledException || cause instanceof InvalidRequestException) {
+                throw (RuntimeException) cause;
+            }
+            log.error("Evaluate request {} failed", request.getRequestId(), cause);
+            return formatOutput(false, new JSONArray());
+        }), solve);
+    }
 
-            // Execute the model
-            A4Solution solution = TranslateAlloyToKodkod.execute_command(null, world.getAllReachableSigs(), world.getAllCommands().get(world.getAllCommands().size() - 1), options);
+    public JSONObject evaluateAlloyQuery(String predicate, String run, String type) {
+        try {
+            CanonicalPredicate canonical = resultCache.canonical(predicate);
+            CompiledModel model = modelCache.get(type, canonical.getText(), null);
+            String solver = solverSelection.mode(null);
+            SolveMonitor monitor = new SolveMonitor().startDeadline(solverExecutor.timeoutMs(null));
+            AlloyRequest request = AlloyRequest.of(canonical.getText(), run, type);
+            return restoreIds(canonical, resultCache.get(ResultCache.key("evaluate", model, canonical.getText(), run, solver), () -> solve(request, model, solver, false, monitor)));
+        } catch (Err e) {
+            log.error("Evaluate request failed", e);
+            return formatOutput(false, new JSONArray());
+        }
+    }
 
+    private JSONObject solve(AlloyRequest request, CompiledModel model, String solver, boolean adaptive, SolveMonitor monitor) {
+        return solvePipeline.solve("evaluate", request, model, solver, adaptive, monitor, (outcome, optimized) -> {
             // Process the solution
+            A4Solution solution = outcome.getSolution();
+            JSONObject result;
             if (solution.satisfiable()) {
-                JSONArray eventData = convertToJSONArray(solution.toString());
-                System.out.println(eventData);
-                return formatOutput(!eventData.isEmpty(), eventData);
+                long decodeStart = System.nanoTime();
+                SolutionDecoder decoder = new SolutionDecoder(solution);
+                JSONArray eventData = convertToJSONArray(decoder);
+                metrics.decoded(SolveMetrics.modelTag(request.getType()), outcome.getSolver(), System.nanoTime() - decodeStart,
+                        decoder.stateCount(), eventData.length());
+                result = outcome.describe(formatOutput(!eventData.isEmpty(), eventData));
             } else {
-                return formatOutput(false, new JSONArray());
+                result = outcome.describe(formatOutput(false, new JSONArray()));
             }
-        } catch (Err | IOException e) {
-            e.printStackTrace();
-            return formatOutput(false, new JSONArray());
+            if (optimized != null) {
+                optimized.describe(result);
+            }
+            log.debug("Evaluate request {} result: {}", request.getRequestId(), result);
+            return result;
+        });
+    }
+
+    // The result may be shared with equivalent records; give this caller its own event names back
+    private static JSONObject restoreIds(CanonicalPredicate canonical, JSONObject result) {
+        if (!canonical.isRenamed() || !result.has("data")) {
+            return result;
         }
+        JSONObject restored = new JSONObject(result.toString());
+        canonical.restoreIds(restored.getJSONArray("data"));
+        return restored;
     }
 
     private JSONObject formatOutput(boolean success, JSONArray data) {
         JSONObject result = new JSONObject();
         result.put("success", success);
         result.put("data", data);
-        System.out.println(result);
         return result;
     }
 
-    public JSONArray convertToJSONArray(String alloyOutput) {
+    public JSONArray convertToJSONArray(A4Solution solution) {
+        return convertToJSONArray(new SolutionDecoder(solution));
+    }
+
+    private JSONArray convertToJSONArray(SolutionDecoder decoder) {
         JSONArray eventList = new JSONArray();
-        Map<String, String> eventToIdMap = parseUserDefinedPredicates(alloyOutput);
-        
-        int lastStateIndex = alloyOutput.lastIndexOf("------State ");
-        if (lastStateIndex == -1) {
-            System.out.println("No states found in Alloy output.");
-            return eventList;
-        }
+        Map<String, String> eventToIdMap = decoder.userPredicateIds();
 
-        // Extract the last state directly
-        String lastState = alloyOutput.substring(lastStateIndex).trim();
-
-        System.out.println("Processing last state:\n" + lastState);
-
-        // Build a map of events to dates for quick lookup
-        Map<String, String> eventDateMap = new HashMap<>();
-        Matcher eventDateMatcher = Pattern.compile("this/Event<:date=\\{([^}]*)\\}").matcher(lastState);
-        if (eventDateMatcher.find()) {
-            String[] eventDatePairs = eventDateMatcher.group(1).split(",\\s*");
-            for (String pair : eventDatePairs) {
-                String[] parts = pair.split("->");
-                if (parts.length == 2) {
-                    eventDateMap.put(parts[0].trim(), parts[1].trim());
-                }
-            }
-        } else {
-            System.out.println("No event-date pairs found.");
+        // Only the last state is needed
+        TraceState lastState = decoder.lastState();
+        log.debug("Processing last state: {}", lastState.getIndex());
+
+        Map<String, String> eventDateMap = lastState.eventDates();
+        if (eventDateMap.isEmpty()) {
+            log.debug("No event-date pairs found.");
         }
 
         // Iterate over known events and check if they have associated dates
-        for (String event : eventDateMap.keySet()) {
-            String date = eventDateMap.get(event);
+        for (Map.Entry<String, String> eventDate : eventDateMap.entrySet()) {
+            String event = eventDate.getKey();
 
             if (event.startsWith("Expungement")) {
                 continue;
@@ -145,11 +188,11 @@ public class AlloyResult {
             JSONObject entry = new JSONObject();
             entry.put("id", eventToIdMap.getOrDefault(event, ""));
             entry.put("event", event);
-            entry.put("date", date);
-            entry.put("owi", isEventInSet(lastState, "this/OWI", event));
-            entry.put("tenner", isEventInSet(lastState, "this/TenYearFelony", event));
-            entry.put("assaultive", isEventInSet(lastState, "this/Assaultive", event));
-            entry.put("expunged", isEventInSet(lastState, "this/pastExpunged", event));
+            entry.put("date", eventDate.getValue());
+            entry.put("owi", lastState.contains("OWI", event));
+            entry.put("tenner", lastState.contains("TenYearFelony", event));
+            entry.put("assaultive", lastState.contains("Assaultive", event));
+            entry.put("expunged", lastState.contains("pastExpunged", event));
 
             // Add violations
             entry.put("violations", getViolationsForEvent(lastState, event));
@@ -160,42 +203,13 @@ public class AlloyResult {
         return eventList;
     }
 
-    private Map<String, String> parseUserDefinedPredicates(String alloyOutput) {
-        Map<String, String> eventToIdMap = new HashMap<>();
-        Matcher predicateMatcher = Pattern.compile("skolem \\$(userDefinedPredicate_\\w+)=\\{([^}]*)\\}").matcher(alloyOutput);
-        while (predicateMatcher.find()) {
-            String id = predicateMatcher.group(1).replace("userDefinedPredicate_", "");
-            String[] events = predicateMatcher.group(2).split(",\\s*");
-            for (String event : events) {
-                eventToIdMap.put(event, id);
-            }
-        }
-        return eventToIdMap;
-    }
-
-    private boolean isEventInSet(String state, String setName, String event) {
-        Pattern pattern = Pattern.compile(setName + "=\\{([^}]*)\\}");
-        Matcher matcher = pattern.matcher(state);
-        if (matcher.find()) {
-            String[] setItems = matcher.group(1).split(",\\s*");
-            return Arrays.asList(setItems).contains(event);
-        }
-        return false;
-    }
-
-    private JSONArray getViolationsForEvent(String state, String event) {
+    private JSONArray getViolationsForEvent(TraceState state, String event) {
         JSONArray violations = new JSONArray();
-        String[] violationTypes = {
-                "sec1_1bViolations", "sec1_1cViolations", "sec1d_2Violations",
-                "sec1dTimingViolations", "backwardWaitingViolations", "forwardWaitingViolations"
-        };
-
-        for (String violationType : violationTypes) {
-            if (isEventInSet(state, "this/" + violationType, event)) {
+        for (String violationType : SolutionDecoder.VIOLATION_SIGS) {
+            if (state.contains(violationType, event)) {
                 violations.put(violationType);
             }
         }
-
         return violations;
     }
 }
@@ -3,203 +3,178 @@ package com.expungement.alloy.alloyrunner.service;
 import org.json.JSONObject;
 
 import org.json.JSONArray;
-import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.AlloyText;
+import com.expungement.alloy.alloyrunner.engine.CanonicalPredicate;
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.engine.TraceState;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
 import edu.mit.csail.sdg.alloy4.Err;
-import edu.mit.csail.sdg.ast.Module;
-import edu.mit.csail.sdg.parser.CompUtil;
-import edu.mit.csail.sdg.translator.A4Options;
 import edu.mit.csail.sdg.translator.A4Solution;
-import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
-import kodkod.engine.satlab.SATFactory;
 
-import java.util.regex.*;
-import java.util.*;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AlloyService {
-	
-	@Value("${alloy.model.path}")
-    private String modelPath = "";
-	
-	@Value("${alloy.model.path2}")
-    private String modelPath2 = "";
 
-    public JSONObject runAlloyModel(String predicate, String run, String type) {
-        String modelContent;
-        
-        String userPredicate = "\n\npred userDefinedPredicate {\n"
-        	    + predicate
-        	    + "}\n"
-        	    + run;
-        
-        System.out.println(userPredicate);
+    private static final Logger log = LoggerFactory.getLogger(AlloyService.class);
+
+    @Autowired
+    private ModelCache modelCache;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private SolverExecutor solverExecutor;
+
+    @Autowired
+    private SolverSelection solverSelection;
+
+    @Autowired
+    private SolvePipeline solvePipeline;
+
+    @Autowired
+    private SolveMetrics metrics;
+
+    @Autowired
+    private WorkerDispatch workerDispatch;
+
+    /**
+     * Runs the model on the solver pool. Fails with a {@link SolverBusyException}
+     * when the solver queue is full, with an {@link InvalidRequestException}
+     * when the request names a solver that is not available, with an
+     * {@link InvalidQueryException} when its predicate or run command does not
+     * parse, and with a {@link SolveTimeoutException} when the solve runs past
+     * its deadline. Cancelling the returned future stops the solve.
+     */
+    public CompletableFuture<JSONObject> runAlloyModelAsync(AlloyRequest request) {
+        String predicate = request.getPredicate();
+        String run = request.getRun();
+        log.debug("Run request {}:{}", request.getRequestId(), CompiledModel.userPredicate(predicate, run));
 
+        // Equivalent records are solved and cached under one canonical predicate
+        CanonicalPredicate canonical = resultCache.canonical(predicate);
+        AlloyRequest solved = request.withPredicate(canonical.getText());
+        String solver;
+        RunProjection projection;
+        CompiledModel model;
         try {
-            // Read the existing model from file
-        	if(type.equals("forward")) {
-                modelContent = new String(Files.readAllBytes(Paths.get(modelPath)));
-        	}else {
-                modelContent = new String(Files.readAllBytes(Paths.get(modelPath2)));
-        	}
-            // Append the user-defined predicate at the end of the model
-            modelContent += userPredicate;
-
-            // Parse the modified Alloy model from string
-            Module world = CompUtil.parseEverything_fromString(null, modelContent);
-
-            // Options for the Alloy solver
-            A4Options options = new A4Options();
-            options.solver = SATFactory.get("minisat");
-
-            // Execute the model
-            A4Solution solution = TranslateAlloyToKodkod.execute_command(null, world.getAllReachableSigs(), world.getAllCommands().get(world.getAllCommands().size() - 1), options);
-
-            // Process the solution
-            if (solution.satisfiable()) {
-                // Convert solution to JSON
-            	// System.out.println(solution.toString());
-                JSONObject jsonOutput = convertToJSONFull(solution.toString());
-            	 System.out.println(jsonOutput.toString());
-                return jsonOutput;
-            } else {
-                System.out.println("No solution found.");
-                return new JSONObject().put("success", true).put("expungements", new JSONArray());
-            }
+            solver = solverSelection.mode(request.getSolver());
+            SolvePipeline.objective(request.getObjective());
+            projection = RunProjection.of(request.getFields(), request.getStates());
+            model = modelCache.get(request.getJurisdiction(), request.getType(), solved.getPredicate(), request.getSpecializeDates());
+            // Malformed requests are turned away here rather than after taking a solver slot
+            QueryValidator.admit(model, predicate, run);
+        } catch (InvalidRequestException e) {
+            return CompletableFuture.failedFuture(e);
         } catch (Err e) {
-            e.printStackTrace();
-            return new JSONObject().put("error", "Error during Alloy model execution: " + e.getMessage()).put("success", false);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return new JSONObject().put("error", "Error reading the Alloy model file: " + e.getMessage()).put("success", false);
+            log.error("Could not load the {} model", request.getType(), e);
+            return CompletableFuture.completedFuture(new JSONObject().put("error", "Error during Alloy model execution: " + e.getMessage()).put("success", false));
+        }
+        long timeoutMs = solverExecutor.timeoutMs(request.getTimeoutMs());
+        boolean adaptive = Boolean.TRUE.equals(request.getAdaptiveSteps());
+        String settings = adaptive ? solver + ",adaptive" : solver;
+        if (request.getObjective() != null) {
+            settings += "," + request.getObjective();
         }
+        if (!projection.isDefault()) {
+            settings += "," + projection.key();
+        }
+        CompletableFuture<JSONObject> solve = resultCache.getAsync(ResultCache.key("run", model, solved.getPredicate(), run, settings),
+                AlloyText.normalize(predicate), () -> {
+                    SolveMonitor monitor = new SolveMonitor();
+                    if (workerDispatch.isEnabled()) {
+                        return workerDispatch.submit(WorkerPool.RUN, solved, model, solver, adaptive, timeoutMs, false, monitor);
+                    }
+                    return solverExecutor.submit(monitor, timeoutMs, SolveCost.of(model.getName(), run), request.getClientId(),
+                            () -> solve(solved, model, solver, adaptive, monitor));
+                });
+        return SolverExecutor.cancelling(solve.exceptionally(ex -> {
+            Throwable cause = SolverExecutor.unwrap(ex);
+            if (cause instanceof SolverBusyException || cause instanceof SolveCancelledException || cause instanceof InvalidRequestException) {
+                throw (RuntimeException) cause;
+            }
+            log.error("Run request {} failed", request.getRequestId(), cause);
+            return new JSONObject().put("error", "Error during Alloy model execution: " + cause.getMessage()).put("success", false);
+        }), solve);
     }
 
-    private JSONObject convertToJSON(String alloyOutput) {
-    	// Use regex to split input by "------State X-------"
-        String[] states = alloyOutput.split("------State \\d+-------\n");
-        JSONArray expungements = new JSONArray();
-        String state = states[states.length - 1];
-
-        JSONObject result = new JSONObject();
-        if (state.trim().isEmpty()) {
-            result.put("success", true);
-            result.put("expungements", expungements);
-            return result;
-        }else {
-        	Matcher matcher = Pattern.compile("this/pastExpunged=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-            	result.put("expungements", new JSONArray(matcher.group(1).split(",\\s*")));
-            } else {
-            	result.put("expungements", new JSONArray());
-            }
-            result.put("success", true);
-            return result;
+    public JSONObject runAlloyModel(String predicate, String run, String type) {
+        log.debug("Run request:{}", CompiledModel.userPredicate(predicate, run));
+
+        try {
+            CanonicalPredicate canonical = resultCache.canonical(predicate);
+            CompiledModel model = modelCache.get(type, canonical.getText(), null);
+            String solver = solverSelection.mode(null);
+            SolveMonitor monitor = new SolveMonitor().startDeadline(solverExecutor.timeoutMs(null));
+            AlloyRequest request = AlloyRequest.of(canonical.getText(), run, type);
+            return resultCache.get(ResultCache.key("run", model, canonical.getText(), run, solver), () -> solve(request, model, solver, false, monitor));
+        } catch (Err e) {
+            log.error("Run request failed", e);
+            return new JSONObject().put("error", "Error during Alloy model execution: " + e.getMessage()).put("success", false);
         }
     }
-    
-    public JSONObject convertToJSONFull(String alloyOutput) {
-        // Use regex to split input by "------State \\d+-------"
-        String[] states = alloyOutput.split("------State \\d+-------\n");
-        JSONArray jsonStates = new JSONArray();
-        int stateIndex = 0;
-
-        JSONObject finalExpungements = new JSONObject();
-        JSONObject finalViolations = new JSONObject();
-
-        for (String state : states) {
-            if (state.trim().isEmpty()) continue;
-
-            JSONObject jsonState = new JSONObject();
-            jsonState.put("state", stateIndex++);
-            
-            Matcher matcher = Pattern.compile("this/now=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                jsonState.put("now", new JSONArray(matcher.group(1).split(",\\s*")));
-            } else {
-                jsonState.put("now", new JSONArray());
-            }
 
-            matcher = Pattern.compile("this/Event=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                jsonState.put("events", new JSONArray(matcher.group(1).split(",\\s*")));
-            }
-
-            matcher = Pattern.compile("this/Event<:date=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                String[] relations = matcher.group(1).split(",\\s*");
-                JSONObject eventDateRelationships = new JSONObject();
-                for (String relation : relations) {
-                    String[] parts = relation.split("->");
-                    eventDateRelationships.put(parts[0], parts[1]);
-                }
-                jsonState.put("event_date", eventDateRelationships);
-            }
-            
-            matcher = Pattern.compile("this/pastExpunged=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                jsonState.put("expunged", new JSONArray(matcher.group(1).split(",\\s*")));
+    private JSONObject solve(AlloyRequest request, CompiledModel model, String solver, boolean adaptive, SolveMonitor monitor) {
+        return solvePipeline.solve("run", request, model, solver, adaptive, monitor, (outcome, optimized) -> {
+            // Process the solution, decoding only what the request asked for
+            A4Solution solution = outcome.getSolution();
+            RunProjection projection = RunProjection.of(request.getFields(), request.getStates());
+            JSONObject jsonOutput;
+            if (solution.satisfiable()) {
+                long decodeStart = System.nanoTime();
+                SolutionDecoder decoder = new SolutionDecoder(solution);
+                jsonOutput = outcome.describe(projection.decode(decoder));
+                metrics.decoded(SolveMetrics.modelTag(request.getType()), outcome.getSolver(), System.nanoTime() - decodeStart,
+                        decoder.stateCount(), decoder.lastState().atoms("Event").size());
+                log.debug("Run request {} result: {}", request.getRequestId(), jsonOutput);
             } else {
-                jsonState.put("expunged", new JSONArray());
+                log.debug("Run request {}: no solution found", request.getRequestId());
+                jsonOutput = outcome.describe(projection.empty());
             }
+            return optimized != null ? optimized.describe(jsonOutput) : jsonOutput;
+        });
+    }
 
-            // Initialize the date attributes object
-            JSONObject dateAttributes = new JSONObject();
-            dateAttributes.put("withinFive", new JSONArray());
-            dateAttributes.put("withinSix", new JSONArray());
-            dateAttributes.put("withinSeven", new JSONArray());
-            jsonState.put("date_attributes", dateAttributes);
-            
-            // Extract and store violations as objects
-            storeViolationsAsObjects(state, "sec1_1bViolations", finalViolations, jsonState);
-            storeViolationsAsObjects(state, "sec1_1cViolations", finalViolations, jsonState);
-            storeViolationsAsObjects(state, "sec1d_2Violations", finalViolations, jsonState);
-            storeViolationsAsObjects(state, "sec1dTimingViolations", finalViolations, jsonState);
-            storeViolationsAsObjects(state, "backwardWaitingViolations", finalViolations, jsonState);
-            storeViolationsAsObjects(state, "forwardWaitingViolations", finalViolations, jsonState);
-
-            jsonStates.put(jsonState);
-
-            // If this is the last state, gather the expungements
-            if (stateIndex == states.length) {
-                System.out.println("Processing last state: " + stateIndex);
-                JSONArray expunged = jsonState.getJSONArray("expunged");
-                JSONObject eventDate = jsonState.getJSONObject("event_date");
-                for (int i = 0; i < expunged.length(); i++) {
-                    String event = expunged.getString(i);
-                    if (eventDate.has(event)) {
-                        finalExpungements.put(event, eventDate.getString(event));
-                    }
-                }
-            }
-        }
+    public JSONObject convertToJSONFull(A4Solution solution) {
+        return summarize(new SolutionDecoder(solution));
+    }
 
-        JSONObject result = new JSONObject();
-        result.put("success", true);
-        result.put("expungements", finalExpungements);
-        result.put("violations", finalViolations); // Add the violations as objects
-        return result;
+    /**
+     * JSON for a single trace state.
+     */
+    public JSONObject convertState(TraceState state) {
+        JSONObject jsonState = new JSONObject();
+        jsonState.put("state", state.getIndex());
+        jsonState.put("now", new JSONArray(state.atoms("now")));
+        jsonState.put("events", new JSONArray(state.atoms("Event")));
+        jsonState.put("event_date", new JSONObject(state.eventDates()));
+        jsonState.put("expunged", new JSONArray(state.atoms("pastExpunged")));
+
+        // Initialize the date attributes object
+        JSONObject dateAttributes = new JSONObject();
+        dateAttributes.put("withinFive", new JSONArray());
+        dateAttributes.put("withinSix", new JSONArray());
+        dateAttributes.put("withinSeven", new JSONArray());
+        jsonState.put("date_attributes", dateAttributes);
+        return jsonState;
     }
-    
-    private void storeViolationsAsObjects(String state, String violationType, JSONObject finalViolations, JSONObject jsonState) {
-        Matcher matcher = Pattern.compile(violationType + "=\\{([^}]*)\\}").matcher(state);
-        if (matcher.find()) {
-            String[] violations = matcher.group(1).split(",\\s*");
-            JSONObject eventDate = jsonState.optJSONObject("event_date");
-            if (eventDate != null) {
-                JSONArray violationArray = new JSONArray();
-                for (String violation : violations) {
-                    if (eventDate.has(violation)) {
-                        JSONObject violationObject = new JSONObject();
-                        violationObject.put(violation, eventDate.getString(violation));
-                        violationArray.put(violationObject);
-                    }
-                }
-                finalViolations.put(violationType, violationArray);
-            }
-        }
+
+    /**
+     * The /run response for a solution: expungements and violations in its last state.
+     */
+    public JSONObject summarize(SolutionDecoder decoder) {
+        return RunProjection.DEFAULT.decode(decoder);
     }
 }
@@ -0,0 +1,158 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+/**
+ * Evaluates a list of requests on the solver pool and writes one JSON line per
+ * request as soon as it is done, so each line carries the index of its request.
+ * At most one item per solver thread is in flight, so a large batch does not
+ * fill the solver queue, and the next item is submitted as soon as any item
+ * finishes. Each item has its own deadline so a slow item only fails itself,
+ * and when the client goes away the items still in flight are cancelled.
+ */
+@Service
+public class BatchEvaluation {
+
+    @Autowired
+    private AlloyResult alloyResult;
+
+    @Autowired
+    private SolverExecutor solverExecutor;
+
+    @Value("${alloy.batch.item-timeout-ms:120000}")
+    private long itemTimeoutMs = 120000;
+
+    public void stream(List<AlloyRequest> requests, OutputStream out) throws IOException {
+        stream(requests, out, alloyResult::evaluateAlloyQueryAsync, Math.max(1, solverExecutor.getPoolSize()));
+    }
+
+    void stream(List<AlloyRequest> requests, OutputStream out, Function<AlloyRequest, CompletableFuture<JSONObject>> evaluate,
+            int window) throws IOException {
+        BlockingQueue<Item> done = new LinkedBlockingQueue<>();
+        List<Item> inFlight = new ArrayList<>();
+        int next = 0;
+        try {
+            while (next < requests.size() || !inFlight.isEmpty()) {
+                while (next < requests.size() && inFlight.size() < window) {
+                    Item item = submit(next, requests.get(next), evaluate);
+                    inFlight.add(item);
+                    item.result.whenComplete((value, error) -> done.add(item));
+                    next++;
+                }
+                Item finished = done.poll(untilFirstDeadline(inFlight), TimeUnit.MILLISECONDS);
+                if (finished != null) {
+                    // Items that timed out were written when they did
+                    if (inFlight.remove(finished)) {
+                        write(out, line(finished));
+                    }
+                    continue;
+                }
+                for (Iterator<Item> it = inFlight.iterator(); it.hasNext();) {
+                    Item item = it.next();
+                    if (remainingMs(item) <= 0) {
+                        // Stop the solve rather than let it hold a solver thread
+                        it.remove();
+                        item.result.cancel(true);
+                        write(out, header(item).put("status", "error").put("error", "Timed out after " + itemTimeoutMs + " ms"));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch interrupted");
+        } finally {
+            // Only left over when the client went away or the batch was interrupted
+            for (Item item : inFlight) {
+                item.result.cancel(true);
+            }
+        }
+    }
+
+    private Item submit(int index, AlloyRequest request, Function<AlloyRequest, CompletableFuture<JSONObject>> evaluate) {
+        if (request == null) {
+            return new Item(index, null, CompletableFuture.failedFuture(new IllegalArgumentException("Empty request")));
+        }
+        if (!TraceCapture.isValidRequestId(request.getRequestId())) {
+            request.setRequestId(TraceCapture.newRequestId());
+        }
+        CompletableFuture<JSONObject> result;
+        try {
+            result = evaluate.apply(request);
+        } catch (RuntimeException e) {
+            // Only this item fails; the rest of the batch goes on
+            result = CompletableFuture.failedFuture(e);
+        }
+        return new Item(index, request.getRequestId(), result);
+    }
+
+    private long remainingMs(Item item) {
+        return itemTimeoutMs - (System.currentTimeMillis() - item.submittedAt);
+    }
+
+    private long untilFirstDeadline(List<Item> inFlight) {
+        long remaining = Long.MAX_VALUE;
+        for (Item item : inFlight) {
+            remaining = Math.min(remaining, remainingMs(item));
+        }
+        return Math.max(0, remaining);
+    }
+
+    private static JSONObject header(Item item) {
+        return new JSONObject().put("index", item.index).putOpt("requestId", item.requestId);
+    }
+
+    private static JSONObject line(Item item) {
+        JSONObject line = header(item);
+        try {
+            return line.put("status", "ok").put("result", item.result.join());
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = SolverExecutor.unwrap(e);
+            line.put("status", "error").put("error", String.valueOf(cause.getMessage()));
+            if (cause instanceof SolveTimeoutException) {
+                line.put("errorCode", SolveTimeoutException.ERROR_CODE);
+            } else if (cause instanceof InvalidQueryException) {
+                line.put("errorCode", InvalidQueryException.ERROR_CODE).put("location", ((InvalidQueryException) cause).getError().toJSON());
+            }
+            return line;
+        }
+    }
+
+    private void write(OutputStream out, JSONObject line) throws IOException {
+        out.write((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static final class Item {
+        final int index;
+        final String requestId;
+        final CompletableFuture<JSONObject> result;
+        final long submittedAt = System.currentTimeMillis();
+
+        Item(int index, String requestId, CompletableFuture<JSONObject> result) {
+            this.index = index;
+            this.requestId = requestId;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.DateUniverse;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+import com.expungement.alloy.alloyrunner.engine.TraceState;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.model.CaseRecord;
+
+/**
+ * Finds, for every conviction in a record, the earliest year it can be
+ * expunged under the forward and the backward model.
+ *
+ * "Expunged by year Y" is monotone in Y, so each conviction is a search over
+ * the record's date range rather than a solve per year. Each round solves a few
+ * evenly spread years in parallel, fewer than the solver pool has threads,
+ * and keeps the range between the latest UNSAT year and the earliest SAT year. A satisfying schedule also shows when
+ * it expunges every other conviction, and those dates become upper bounds for
+ * the convictions still to be searched. All probes of a direction run against
+ * one compiled (date-specialized) model, so the model is parsed once; each
+ * probe is still translated on its own, which is why the search keeps the
+ * number of probes down.
+ */
+@Service
+public class EligibilitySweep {
+
+    private static final Logger log = LoggerFactory.getLogger(EligibilitySweep.class);
+
+    private static final Pattern DATE_ATOM = Pattern.compile("d(\\d{4})\\b.*");
+    // Years searched past the last conviction for models without a date section
+    private static final int DEFAULT_HORIZON_YEARS = 10;
+    private static final String[] DIRECTIONS = { ModelRegistry.FORWARD, ModelRegistry.BACKWARD };
+
+    @Autowired
+    private ModelCache modelCache;
+
+    @Autowired
+    private SolverExecutor solverExecutor;
+
+    @Autowired
+    private SolverSelection solverSelection;
+
+    @Autowired
+    private ShapeStats shapeStats;
+
+    @Autowired
+    private SolveMetrics metrics;
+
+    // Years solved at once per conviction; 0 for half the solver threads. Always below the pool size.
+    @Value("${alloy.sweep.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * Sweeps the record's convictions; expungements in the record are ignored.
+     * Nothing blocks the caller: the returned future completes when both
+     * directions have been searched, and cancelling it cancels the solves in
+     * flight. Fails with an {@link InvalidRequestException} for a malformed
+     * record, and with a {@link SolverBusyException} when the pool turns the
+     * sweep away before it has learned anything. A direction whose solves fail
+     * later is reported with its error, the years it did find and the range
+     * still open for the others.
+     *
+     * @param clientId who asked, for fair share on the solver pool
+     */
+    public CompletableFuture<JSONObject> sweep(CaseRecord record, String clientId) {
+        long start = System.currentTimeMillis();
+        Map<String, RecordCompiler.Compiled> compiled = new LinkedHashMap<>();
+        try {
+            for (String direction : DIRECTIONS) {
+                compiled.put(direction, RecordCompiler.compile(convictionsOnly(record, direction)));
+            }
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String solver = solverSelection.mode(record.getSolver());
+        long timeoutMs = solverExecutor.timeoutMs(record.getTimeoutMs());
+
+        JSONObject result = new JSONObject().put("success", true);
+        Map<String, Progress> progress = new LinkedHashMap<>();
+        CompletableFuture<JSONObject> response = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<Progress>> running = new AtomicReference<>();
+        CompletableFuture<Void> directions = CompletableFuture.completedFuture(null);
+        for (String direction : DIRECTIONS) {
+            directions = directions.thenCompose(ignored -> {
+                Throwable busy = busy(progress);
+                if (response.isDone() || busy != null) {
+                    // The pool had no room for the previous direction and will have none for this one
+                    if (busy != null) {
+                        result.put(direction + "Error", String.valueOf(busy.getMessage()));
+                    }
+                    return CompletableFuture.completedFuture(null);
+                }
+                CompletableFuture<Progress> search = search(direction, record, compiled.get(direction), clientId, solver, timeoutMs, result);
+                running.set(search);
+                return search.thenAccept(found -> progress.put(direction, found));
+            });
+        }
+        directions.whenComplete((ignored, error) -> {
+            try {
+                if (error != null) {
+                    response.completeExceptionally(SolverExecutor.unwrap(error));
+                } else {
+                    response.complete(describe(compiled.get(ModelRegistry.FORWARD), progress, result)
+                            .put("elapsedMs", System.currentTimeMillis() - start));
+                }
+            } catch (RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+        });
+        response.whenComplete((value, error) -> {
+            CompletableFuture<Progress> search = running.get();
+            if (response.isCancelled() && search != null) {
+                search.cancel(true);
+            }
+        });
+        return response;
+    }
+
+    private CompletableFuture<Progress> search(String direction, CaseRecord record, RecordCompiler.Compiled current,
+            String clientId, String solver, long timeoutMs, JSONObject result) {
+        AlloyRequest request = current.getRequest();
+        CompiledModel model = modelCache.get(record.getJurisdiction(), direction, request.getPredicate(), true);
+        DateUniverse dates = DateUniverse.forRequest(model.getText(), request.getPredicate());
+        int horizon = dates != null ? dates.getTo()
+                : Collections.max(current.getConvictionYears().values()) + DEFAULT_HORIZON_YEARS;
+        SolveCost cost = SolveCost.of(model.getName(), request.getRun());
+
+        AtomicInteger solves = new AtomicInteger();
+        return search(current.getConvictionYears(), horizon, width(), (name, year) -> {
+            solves.incrementAndGet();
+            SolveMonitor monitor = new SolveMonitor();
+            return solverExecutor.submit(monitor, timeoutMs, cost, clientId,
+                    () -> witness(model, request, current, name, year, solver, monitor));
+        }).thenApply(found -> {
+            result.put(direction + "Solves", solves.get()).put(direction + "Horizon", horizon);
+            return found;
+        });
+    }
+
+    private JSONObject describe(RecordCompiler.Compiled compiled, Map<String, Progress> progress, JSONObject result) {
+        for (Map.Entry<String, Progress> direction : progress.entrySet()) {
+            Throwable error = direction.getValue().error;
+            if (error instanceof InvalidRequestException) {
+                throw (InvalidRequestException) error;
+            }
+            if (error instanceof SolverBusyException && direction.getValue().solved == 0
+                    && direction.getKey().equals(DIRECTIONS[0])) {
+                // Turned away before anything was learned: the client should simply retry
+                throw (SolverBusyException) error;
+            }
+            if (error != null) {
+                if (!(error instanceof SolverBusyException)) {
+                    log.error("Eligibility sweep ({}) failed", direction.getKey(), error);
+                }
+                result.put(direction.getKey() + "Error", String.valueOf(error.getMessage()));
+            }
+        }
+
+        JSONArray convictions = new JSONArray();
+        for (Map.Entry<String, Integer> conviction : compiled.getConvictionYears().entrySet()) {
+            JSONObject entry = new JSONObject()
+                    .put("id", compiled.id(conviction.getKey()))
+                    .put("year", conviction.getValue());
+            for (Map.Entry<String, Progress> direction : progress.entrySet()) {
+                Integer year = direction.getValue().earliest.get(conviction.getKey());
+                entry.put(direction.getKey(), year == null ? JSONObject.NULL : year);
+                Integer[] range = direction.getValue().open.get(conviction.getKey());
+                if (range != null) {
+                    entry.put(direction.getKey() + "Range", new JSONArray()
+                            .put(range[0])
+                            .put(range[1] == null ? JSONObject.NULL : range[1]));
+                }
+            }
+            convictions.put(entry);
+        }
+        return result.put("convictions", convictions);
+    }
+
+    private static Throwable busy(Map<String, Progress> progress) {
+        for (Progress found : progress.values()) {
+            if (found.error instanceof SolverBusyException) {
+                return found.error;
+            }
+        }
+        return null;
+    }
+
+    // Leaves room on the pool for other requests while a sweep runs
+    private int width() {
+        int pool = solverExecutor.getPoolSize();
+        int wanted = parallelism > 0 ? parallelism : pool / 2;
+        return Math.max(1, Math.min(wanted, pool - 1));
+    }
+
+    /**
+     * How far a search got. earliest has every conviction it finished: the
+     * earliest year, or null when the conviction cannot be expunged within the
+     * horizon. When a probe failed, error says why and open has the range still
+     * searched for every other conviction: its lowest possible year and the
+     * best known year, null when none is known yet.
+     */
+    static final class Progress {
+        final Map<String, Integer> earliest = new LinkedHashMap<>();
+        final Map<String, Integer[]> open = new LinkedHashMap<>();
+        Throwable error;
+        // Probes that finished
+        int solved;
+    }
+
+    /**
+     * The earliest year in [its own year, horizon] each conviction can be
+     * expunged by. The probe solves "conviction expunged by year" and completes
+     * with null when that is UNSAT, or else with the year the schedule it found
+     * expunges each conviction. The first probe failure ends the search with
+     * what it found so far; cancelling the returned future cancels the probes
+     * in flight.
+     */
+    static CompletableFuture<Progress> search(Map<String, Integer> from, int horizon, int width,
+            BiFunction<String, Integer, CompletableFuture<Map<String, Integer>>> probe) {
+        Search search = new Search(from, horizon, width, probe);
+        search.advance();
+        return search.result;
+    }
+
+    /**
+     * One search, driven by probe completions: convictions are searched one
+     * after the other, each in rounds of up to width probes.
+     */
+    private static final class Search {
+        private final Map<String, Integer> from;
+        private final Iterator<Map.Entry<String, Integer>> convictions;
+        private final int horizon;
+        private final int width;
+        private final BiFunction<String, Integer, CompletableFuture<Map<String, Integer>>> probe;
+        private final CompletableFuture<Progress> result = new CompletableFuture<>();
+        private final Progress progress = new Progress();
+        // Best known upper bound per conviction, from every schedule found so far
+        private final Map<String, Integer> known = new HashMap<>();
+        private final List<CompletableFuture<Map<String, Integer>>> inFlight = new ArrayList<>();
+        // The conviction being searched and its lowest possible year
+        private String name;
+        private int lo;
+
+        Search(Map<String, Integer> from, int horizon, int width,
+                BiFunction<String, Integer, CompletableFuture<Map<String, Integer>>> probe) {
+            this.from = from;
+            this.convictions = from.entrySet().iterator();
+            this.horizon = horizon;
+            this.width = width;
+            this.probe = probe;
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    cancelInFlight();
+                }
+            });
+        }
+
+        // Finishes the convictions that need no more probes and starts the next round
+        synchronized void advance() {
+            while (!result.isDone()) {
+                if (name == null) {
+                    if (!convictions.hasNext()) {
+                        result.complete(progress);
+                        return;
+                    }
+                    Map.Entry<String, Integer> next = convictions.next();
+                    name = next.getKey();
+                    lo = next.getValue();
+                }
+                if (!known.containsKey(name)) {
+                    // Whether it can be expunged at all
+                    start(List.of(horizon));
+                    return;
+                }
+                int hi = known.get(name);
+                if (lo < hi) {
+                    start(spread(lo, hi, width));
+                    return;
+                }
+                progress.earliest.put(name, hi);
+                name = null;
+            }
+        }
+
+        private void start(List<Integer> years) {
+            List<CompletableFuture<Map<String, Integer>>> solves = new ArrayList<>();
+            for (int year : years) {
+                solves.add(probe.apply(name, year));
+            }
+            inFlight.clear();
+            inFlight.addAll(solves);
+            for (CompletableFuture<Map<String, Integer>> solve : solves) {
+                solve.whenComplete((witness, error) -> {
+                    if (error != null) {
+                        fail(error);
+                    }
+                });
+            }
+            CompletableFuture.allOf(solves.toArray(new CompletableFuture<?>[0]))
+                    .thenRun(() -> finish(years, solves));
+        }
+
+        private synchronized void finish(List<Integer> years, List<CompletableFuture<Map<String, Integer>>> solves) {
+            if (result.isDone()) {
+                return;
+            }
+            progress.solved += solves.size();
+            for (int i = 0; i < years.size(); i++) {
+                Map<String, Integer> witness = solves.get(i).join();
+                int year = years.get(i);
+                if (witness != null) {
+                    learn(known, witness, name, year);
+                } else if (year == horizon && !known.containsKey(name)) {
+                    progress.earliest.put(name, null);
+                    name = null;
+                    break;
+                } else {
+                    lo = Math.max(lo, year + 1);
+                }
+            }
+            advance();
+        }
+
+        private synchronized void fail(Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+            progress.error = SolverExecutor.unwrap(error);
+            for (Map.Entry<String, Integer> conviction : from.entrySet()) {
+                String other = conviction.getKey();
+                if (!progress.earliest.containsKey(other)) {
+                    int low = other.equals(name) ? lo : conviction.getValue();
+                    progress.open.put(other, new Integer[] { low, known.get(other) });
+                }
+            }
+            cancelInFlight();
+            result.complete(progress);
+        }
+
+        private synchronized void cancelInFlight() {
+            inFlight.forEach(solve -> solve.cancel(true));
+        }
+    }
+
+    // Up to width years in [lo, hi), evenly spread
+    static List<Integer> spread(int lo, int hi, int width) {
+        List<Integer> years = new ArrayList<>();
+        int span = hi - lo;
+        if (span <= width) {
+            for (int year = lo; year < hi; year++) {
+                years.add(year);
+            }
+            return years;
+        }
+        for (int i = 1; i <= width; i++) {
+            years.add(lo + (i * span) / (width + 1));
+        }
+        return years;
+    }
+
+    // A schedule expunging name by year bounds name by year and every conviction by when it expunges it
+    private static void learn(Map<String, Integer> known, Map<String, Integer> witness, String name, int year) {
+        for (Map.Entry<String, Integer> expunged : witness.entrySet()) {
+            known.merge(expunged.getKey(), expunged.getValue(), Math::min);
+        }
+        known.merge(name, year, Math::min);
+    }
+
+    // Solves "name is expunged by year" and reads when the schedule expunges each conviction
+    private Map<String, Integer> witness(CompiledModel model, AlloyRequest request, RecordCompiler.Compiled compiled,
+            String name, int year, String solver, SolveMonitor monitor) {
+        String tag = SolveMetrics.modelTag(request.getType());
+        String predicate = request.getPredicate().stripTrailing()
+                + " and (some sweep: Expungement | " + name + " in sweep.con and d" + year + " in sweep.date.*nextDate)\n";
+        try {
+            CompiledQuery query = model.prepare(predicate, request.getRun());
+            SolveOutcome outcome = solverSelection.solve(query, solver, monitor);
+            metrics.solved(tag, outcome);
+            shapeStats.record(query, outcome);
+            if (!outcome.getSolution().satisfiable()) {
+                return null;
+            }
+            SolutionDecoder decoder = new SolutionDecoder(outcome.getSolution());
+            TraceState last = decoder.lastState();
+            Map<String, String> ids = decoder.userPredicateIds();
+            Map<String, String> dates = last.eventDates();
+            Map<String, Integer> witness = new HashMap<>();
+            for (Map.Entry<String, Set<String>> expungement : last.field("Expungement", "con").entrySet()) {
+                Matcher date = DATE_ATOM.matcher(dates.getOrDefault(expungement.getKey(), ""));
+                if (!date.matches()) {
+                    continue;
+                }
+                for (String conviction : expungement.getValue()) {
+                    String label = ids.get(conviction);
+                    if (label != null && compiled.getConvictionYears().containsKey(label)) {
+                        witness.merge(label, Integer.parseInt(date.group(1)), Math::min);
+                    }
+                }
+            }
+            return witness;
+        } catch (RuntimeException e) {
+            metrics.failed(tag, solver, e);
+            throw e;
+        }
+    }
+
+    private static CaseRecord convictionsOnly(CaseRecord record, String direction) {
+        CaseRecord copy = new CaseRecord();
+        copy.setType(direction);
+        copy.setJurisdiction(record.getJurisdiction());
+        copy.setConvictions(record.getConvictions());
+        return copy;
+    }
+}
@@ -0,0 +1,26 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import com.expungement.alloy.alloyrunner.engine.QueryError;
+
+/**
+ * Thrown before a request is queued when its predicate or run command does not
+ * parse or type-check. Reported to the client as a 400 with {@link #ERROR_CODE}
+ * and where the error is.
+ */
+public class InvalidQueryException extends InvalidRequestException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ERROR_CODE = "INVALID_QUERY";
+
+    private final transient QueryError error;
+
+    public InvalidQueryException(QueryError error) {
+        super("Invalid " + error.getPart() + " at line " + error.getLine() + ", column " + error.getColumn() + ": " + error.getMessage());
+        this.error = error;
+    }
+
+    public QueryError getError() {
+        return error;
+    }
+}
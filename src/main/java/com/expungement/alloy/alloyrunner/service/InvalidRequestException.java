@@ -0,0 +1,14 @@
+package com.expungement.alloy.alloyrunner.service;
+
+/**
+ * Thrown when a request asks for something the server cannot do, such as an
+ * unknown solver. Reported to the client as a 400.
+ */
+public class InvalidRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,106 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.DateUniverse;
+
+import edu.mit.csail.sdg.alloy4.Err;
+
+/**
+ * Resolves the model a request is solved against: the base model for its
+ * jurisdiction and direction from the {@link ModelRegistry}, or that model
+ * specialized to the date range of the request (see {@link DateUniverse}).
+ * Specialized models are compiled on first use and kept in a small LRU map.
+ */
+@Service
+public class ModelCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelCache.class);
+
+    @Autowired
+    private ModelRegistry registry;
+
+    // Date-specialized models by "baseContentHash:dFROM-dTO"
+    private final Map<String, CompiledModel> specialized;
+
+    @Value("${alloy.dates.specialize:false}")
+    private boolean specializeDates;
+
+    @Value("${alloy.dates.max-years:80}")
+    private int maxYears = 80;
+
+    @Autowired
+    private SolveMetrics metrics;
+
+    public ModelCache(@Value("${alloy.dates.specialized-models:32}") int maxSpecialized) {
+        this.specialized = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledModel> eldest) {
+                return size() > maxSpecialized;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled base model for the given request type in the default
+     * jurisdiction ("forward" or, for anything else, backward).
+     */
+    public CompiledModel get(String type) {
+        return registry.get(null, type);
+    }
+
+    /**
+     * Returns the model for a request in the default jurisdiction.
+     */
+    public CompiledModel get(String type, String predicate, Boolean specialize) throws Err {
+        return get(null, type, predicate, specialize);
+    }
+
+    /**
+     * Returns the model for a request. When date specialization is requested (or
+     * on by default and not turned off) and the predicate mentions dates, this is
+     * the base model with its date section generated for just those years. Fails
+     * with an {@link InvalidRequestException} for an unknown jurisdiction, and for
+     * dates outside d1900-d2100 or spread over more than alloy.dates.max-years,
+     * which would otherwise generate and cache a model of that many Date atoms.
+     */
+    public CompiledModel get(String jurisdiction, String type, String predicate, Boolean specialize) throws Err {
+        CompiledModel base = registry.get(jurisdiction, type);
+        if (!(specialize != null ? specialize : specializeDates)) {
+            return base;
+        }
+        DateUniverse dates = DateUniverse.forRequest(base.getText(), predicate);
+        if (dates == null) {
+            return base;
+        }
+        if (!dates.isWithin(maxYears)) {
+            throw new InvalidRequestException("Dates must lie between d" + DateUniverse.FIRST_YEAR + " and d"
+                    + DateUniverse.LAST_YEAR + " and span at most " + maxYears + " years with their waiting periods (got "
+                    + dates.label() + ")");
+        }
+        String key = base.getContentHash() + ":" + dates.label();
+        synchronized (specialized) {
+            CompiledModel model = specialized.get(key);
+            if (model != null) {
+                return model;
+            }
+        }
+        long start = System.nanoTime();
+        CompiledModel model = CompiledModel.compile(base.getName() + "[" + dates.label() + "]", dates.specialize(base.getText()), true);
+        long elapsed = System.nanoTime() - start;
+        metrics.parsed(SolveMetrics.modelTag(type), elapsed);
+        log.info("Compiled {} in {} ms", model.getName(), elapsed / 1_000_000);
+        synchronized (specialized) {
+            specialized.put(key, model);
+        }
+        return model;
+    }
+}
@@ -0,0 +1,338 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Every base model the service can solve against, keyed by jurisdiction and
+ * direction. Models are found at startup under models/ on the classpath and in
+ * an optional external directory, and are parsed and warmed once.
+ *
+ * The file name gives the key: "utah.als" (or "utah-forward.als") is the
+ * forward model for utah and "michigan-backward.als" the backward model for
+ * michigan. External files take precedence over classpath ones with the same
+ * key; alloy.model.path and alloy.model.path2, empty by default, name external
+ * michigan forward and backward files that override the bundled ones.
+ *
+ * External files are watched. When one changes it is recompiled and swapped in
+ * atomically; solves that already hold the old model finish on it. A change that
+ * does not compile leaves the previous version in place, and deleting an
+ * external file falls back to the classpath model it overrode, if any.
+ */
+@Service
+public class ModelRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelRegistry.class);
+
+    public static final String FORWARD = "forward";
+    public static final String BACKWARD = "backward";
+
+    private static final String SUFFIX = ".als";
+    private static final String FORWARD_SUFFIX = "-" + FORWARD;
+    private static final String BACKWARD_SUFFIX = "-" + BACKWARD;
+    private static final String WARM_RUN = "run " + CompiledModel.USER_PREDICATE + " for 1";
+
+    @Value("${alloy.model.path:}")
+    private String modelPath = "";
+
+    @Value("${alloy.model.path2:}")
+    private String modelPath2 = "";
+
+    @Value("${alloy.models.dir:}")
+    private String modelsDir = "";
+
+    @Value("${alloy.models.default-jurisdiction:michigan}")
+    private String defaultJurisdiction = "michigan";
+
+    @Value("${alloy.models.watch:true}")
+    private boolean watch = true;
+
+    @Autowired
+    private SolveMetrics metrics;
+
+    // Current model per "jurisdiction/direction"; replaced wholesale on reload
+    private final Map<String, Registered> models = new ConcurrentHashMap<>();
+    // Classpath models, restored when the external file overriding them goes away
+    private final Map<String, Registered> bundled = new ConcurrentHashMap<>();
+    // External files and the key they are registered under
+    private final Map<Path, String> files = new ConcurrentHashMap<>();
+
+    private WatchService watcher;
+    private Thread watchThread;
+
+    @PostConstruct
+    public void load() {
+        loadClasspath();
+        if (!modelsDir.isEmpty()) {
+            Path dir = Paths.get(modelsDir);
+            if (Files.isDirectory(dir)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+                    for (Path file : stream) {
+                        String[] key = keyFor(file.getFileName().toString());
+                        loadFile(file.toAbsolutePath(), key(key[0], key[1]));
+                    }
+                } catch (IOException e) {
+                    log.error("Could not list models in {}", dir, e);
+                }
+            } else {
+                log.warn("Model directory {} does not exist", dir);
+            }
+        }
+        loadOverride(modelPath, key("michigan", FORWARD));
+        loadOverride(modelPath2, key("michigan", BACKWARD));
+        if (watch) {
+            startWatching();
+        }
+        log.info("Registered models: {}", new TreeMap<>(models).keySet());
+    }
+
+    /**
+     * The current model for a jurisdiction (null for the default) and request
+     * type ("forward", anything else is backward). Fails with an
+     * {@link InvalidRequestException} when there is no such model.
+     */
+    public CompiledModel get(String jurisdiction, String type) {
+        String name = jurisdiction == null || jurisdiction.isBlank() ? defaultJurisdiction : jurisdiction.trim().toLowerCase();
+        Registered registered = models.get(key(name, direction(type)));
+        if (registered == null) {
+            throw new InvalidRequestException("No " + direction(type) + " model for jurisdiction " + name
+                    + " (available: " + String.join(", ", new TreeMap<>(models).keySet()) + ")");
+        }
+        return registered.model;
+    }
+
+    public static String direction(String type) {
+        return FORWARD.equals(type) ? FORWARD : BACKWARD;
+    }
+
+    /**
+     * Jurisdiction and direction for a model file name: "name-backward.als" is
+     * the backward model for name, "name-forward.als" and any other "name.als"
+     * the forward one.
+     */
+    static String[] keyFor(String fileName) {
+        String name = fileName.substring(0, fileName.length() - SUFFIX.length()).toLowerCase();
+        if (name.length() > BACKWARD_SUFFIX.length() && name.endsWith(BACKWARD_SUFFIX)) {
+            return new String[] { name.substring(0, name.length() - BACKWARD_SUFFIX.length()), BACKWARD };
+        }
+        if (name.length() > FORWARD_SUFFIX.length() && name.endsWith(FORWARD_SUFFIX)) {
+            return new String[] { name.substring(0, name.length() - FORWARD_SUFFIX.length()), FORWARD };
+        }
+        return new String[] { name, FORWARD };
+    }
+
+    private static String key(String jurisdiction, String direction) {
+        return jurisdiction + "/" + direction;
+    }
+
+    private void loadClasspath() {
+        Resource[] resources;
+        try {
+            resources = new PathMatchingResourcePatternResolver().getResources("classpath*:models/*" + SUFFIX);
+        } catch (IOException e) {
+            log.error("Could not list bundled models", e);
+            return;
+        }
+        for (Resource resource : resources) {
+            String[] key = keyFor(resource.getFilename());
+            String source = "models/" + resource.getFilename();
+            try (InputStream stream = resource.getInputStream()) {
+                Registered registered = compile(source, new String(stream.readAllBytes(), StandardCharsets.UTF_8), key[1]);
+                bundled.put(key(key[0], key[1]), registered);
+                models.put(key(key[0], key[1]), registered);
+            } catch (IOException | Err e) {
+                log.error("Could not load bundled model {}", source, e);
+            }
+        }
+    }
+
+    private void loadOverride(String path, String key) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        Path file = Paths.get(path).toAbsolutePath();
+        if (Files.isRegularFile(file)) {
+            loadFile(file, key);
+        }
+    }
+
+    private void loadFile(Path file, String key) {
+        files.put(file, key);
+        reload(file);
+    }
+
+    // Compiles the file and swaps it in, unless it is unchanged or does not compile
+    private void reload(Path file) {
+        String key = files.get(file);
+        try {
+            String text = Files.readString(file, StandardCharsets.UTF_8);
+            Registered current = models.get(key);
+            if (current != null && current.model.getContentHash().equals(CompiledModel.hash(text))) {
+                return;
+            }
+            Registered registered = compile(file.toString(), text, key.substring(key.indexOf('/') + 1));
+            models.put(key, registered);
+            if (current != null) {
+                log.info("Reloaded {} from {} ({} -> {})", key, file, current.model.getContentHash(), registered.model.getContentHash());
+            }
+        } catch (IOException | Err e) {
+            log.error("Could not load {} from {}; keeping the previous version", key, file, e);
+        }
+    }
+
+    private void removed(Path file) {
+        String key = files.get(file);
+        Registered fallback = bundled.get(key);
+        if (fallback != null) {
+            models.put(key, fallback);
+            log.info("{} was deleted; using the bundled {} for {}", file, fallback.source, key);
+        } else {
+            models.remove(key);
+            log.info("{} was deleted; {} is no longer available", file, key);
+        }
+    }
+
+    // Parses and type-checks the model, then resolves a trivial request so the first real one is warm
+    private Registered compile(String source, String text, String direction) throws Err {
+        long start = System.nanoTime();
+        CompiledModel model = CompiledModel.compile(source, text);
+        metrics.parsed(direction, System.nanoTime() - start);
+        model.prepare("", WARM_RUN);
+        log.info("Compiled model {} ({}) in {} ms", source, model.getContentHash(), (System.nanoTime() - start) / 1_000_000);
+        return new Registered(source, model);
+    }
+
+    private void startWatching() {
+        Set<Path> dirs = new HashSet<>();
+        for (Path file : files.keySet()) {
+            dirs.add(file.getParent());
+        }
+        if (!modelsDir.isEmpty() && Files.isDirectory(Paths.get(modelsDir))) {
+            // Watched even while empty, so models added later are picked up
+            dirs.add(Paths.get(modelsDir).toAbsolutePath());
+        }
+        if (dirs.isEmpty()) {
+            return;
+        }
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            for (Path dir : dirs) {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        } catch (IOException e) {
+            log.error("Could not watch model directories {}; models will not reload", dirs, e);
+            return;
+        }
+        watchThread = new Thread(this::watchLoop, "alloy-model-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    files.keySet().forEach(this::reloadIfPresent);
+                    continue;
+                }
+                Path file = dir.resolve((Path) event.context());
+                if (!file.getFileName().toString().endsWith(SUFFIX)) {
+                    continue;
+                }
+                if (!files.containsKey(file)) {
+                    // New files are only picked up from the models directory
+                    if (modelsDir.isEmpty() || !dir.equals(Paths.get(modelsDir).toAbsolutePath())) {
+                        continue;
+                    }
+                    String[] name = keyFor(file.getFileName().toString());
+                    files.put(file, key(name[0], name[1]));
+                }
+                reloadIfPresent(file);
+            }
+            key.reset();
+        }
+    }
+
+    private void reloadIfPresent(Path file) {
+        if (Files.isRegularFile(file)) {
+            reload(file);
+        } else {
+            removed(file);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    public JSONObject stats() {
+        JSONArray list = new JSONArray();
+        for (Map.Entry<String, Registered> entry : new TreeMap<>(models).entrySet()) {
+            Registered registered = entry.getValue();
+            list.put(new JSONObject()
+                    .put("key", entry.getKey())
+                    .put("source", registered.source)
+                    .put("contentHash", registered.model.getContentHash())
+                    .put("loadedAt", registered.loadedAt.toString()));
+        }
+        return new JSONObject()
+                .put("defaultJurisdiction", defaultJurisdiction)
+                .put("watching", watchThread != null && watchThread.isAlive())
+                .put("models", list);
+    }
+
+    private static final class Registered {
+        final String source;
+        final CompiledModel model;
+        final Instant loadedAt = Instant.now();
+
+        Registered(String source, CompiledModel model) {
+            this.source = source;
+            this.model = model;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.QueryError;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+import edu.mit.csail.sdg.alloy4.Err;
+
+/**
+ * Checks predicates and run commands against the cached base models without
+ * a solver: before a solve is queued, so a malformed request never takes a
+ * solver slot, and for POST /api/alloy/validate, which the UI calls as the
+ * user types.
+ */
+@Service
+public class QueryValidator {
+
+    @Autowired
+    private ModelCache modelCache;
+
+    /**
+     * Fails with an {@link InvalidRequestException} when there is no predicate,
+     * and with an {@link InvalidQueryException} when the fast check finds an
+     * error. Requests it cannot decide on are let through for the solve to parse.
+     */
+    public static void admit(CompiledModel model, String predicate, String run) {
+        required(predicate);
+        QueryError error = model.check(predicate, run, false);
+        if (error != null) {
+            throw new InvalidQueryException(error);
+        }
+    }
+
+    /**
+     * The /validate response: whether the request's predicate (and run command,
+     * when given) are valid for its model, the first error if not, and how long
+     * the check took. Checks against the base model, so no date-specialized
+     * model is generated.
+     */
+    public JSONObject validate(AlloyRequest request) throws Err {
+        required(request.getPredicate());
+        CompiledModel model = modelCache.get(request.getJurisdiction(), request.getType(), request.getPredicate(), false);
+        long start = System.nanoTime();
+        QueryError error = model.check(request.getPredicate(), request.getRun(), true);
+        JSONObject result = new JSONObject().put("valid", error == null);
+        if (error != null) {
+            result.put("error", error.toJSON());
+        }
+        return result.put("checkMs", Math.round((System.nanoTime() - start) / 1_000.0) / 1_000.0);
+    }
+
+    private static void required(String predicate) {
+        if (predicate == null || predicate.isBlank()) {
+            throw new InvalidRequestException("A predicate is required");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.expungement.alloy.alloyrunner.engine.DateUniverse;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.model.CaseRecord;
+
+/**
+ * Compiles a typed {@link CaseRecord} into an Alloy request that pins the record
+ * down exactly, so the solver only searches the expungement schedule.
+ *
+ * Every conviction gets its own variable with a fixed date, and the flag sigs
+ * (Assaultive, OWI, TenYearFelony) are set equal to exactly the flagged
+ * convictions. The run command gives exact scopes for Felony and Misdemeanor
+ * (and Expungement when the record lists them), and the date universe is
+ * specialized to the record's years. The translator then has fixed atom sets
+ * for everything but the schedule.
+ *
+ * The client's text never reaches the Alloy parser: ids are only used to label
+ * results, and every other field is checked and turned into generated names.
+ */
+public final class RecordCompiler {
+
+    public static final String RUN = "run";
+    public static final String EVALUATE = "evaluate";
+
+    static final int MAX_CONVICTIONS = 16;
+
+    private static final Pattern DATE = Pattern.compile("(\\d{4})(-\\d{2}-\\d{2})?");
+
+    private RecordCompiler() {
+    }
+
+    /**
+     * Compiles the record, failing with an {@link InvalidRequestException} that
+     * names the offending entry when it is malformed.
+     */
+    public static Compiled compile(CaseRecord record) {
+        if (record == null) {
+            throw new InvalidRequestException("Missing record");
+        }
+        String mode = record.getMode() == null ? EVALUATE : record.getMode().trim().toLowerCase();
+        if (!mode.equals(RUN) && !mode.equals(EVALUATE)) {
+            throw new InvalidRequestException("Unknown mode " + record.getMode() + " (expected run or evaluate)");
+        }
+        List<CaseRecord.Conviction> convictions = record.getConvictions() == null ? List.of() : record.getConvictions();
+        List<CaseRecord.Expungement> expungements = record.getExpungements() == null ? List.of() : record.getExpungements();
+        if (convictions.isEmpty()) {
+            throw new InvalidRequestException("A record needs at least one conviction");
+        }
+        if (convictions.size() > MAX_CONVICTIONS) {
+            throw new InvalidRequestException("A record can have at most " + MAX_CONVICTIONS + " convictions");
+        }
+
+        // Generated variable name to the client's id
+        Map<String, String> ids = new LinkedHashMap<>();
+        Map<String, String> byId = new HashMap<>();
+        List<String> felonies = new ArrayList<>();
+        List<String> misdemeanors = new ArrayList<>();
+        List<String> assaultive = new ArrayList<>();
+        List<String> owi = new ArrayList<>();
+        List<String> tenYear = new ArrayList<>();
+        List<String> facts = new ArrayList<>();
+        Map<String, Integer> years = new LinkedHashMap<>();
+
+        for (int i = 0; i < convictions.size(); i++) {
+            CaseRecord.Conviction conviction = convictions.get(i);
+            String where = "convictions[" + i + "]";
+            if (conviction == null) {
+                throw new InvalidRequestException(where + " is empty");
+            }
+            String name = "c" + i;
+            register(name, conviction.getId(), where, ids, byId);
+            String kind = conviction.getKind() == null ? "" : conviction.getKind().trim().toLowerCase();
+            if (kind.equals("felony")) {
+                felonies.add(name);
+            } else if (kind.equals("misdemeanor")) {
+                misdemeanors.add(name);
+            } else {
+                throw new InvalidRequestException(where + ".kind must be felony or misdemeanor");
+            }
+            if (conviction.isOwi() && !kind.equals("misdemeanor")) {
+                throw new InvalidRequestException(where + ": only misdemeanors can be OWI");
+            }
+            if (conviction.isTenYear() && !kind.equals("felony")) {
+                throw new InvalidRequestException(where + ": only felonies can be ten-year felonies");
+            }
+            years.put(name, year(conviction.getDate(), where));
+            facts.add(name + ".date = d" + years.get(name));
+            if (conviction.isAssaultive()) {
+                assaultive.add(name);
+            }
+            if (conviction.isOwi()) {
+                owi.add(name);
+            }
+            if (conviction.isTenYear()) {
+                tenYear.add(name);
+            }
+        }
+        facts.add(exactly("Assaultive", assaultive));
+        facts.add(exactly("OWI", owi));
+        facts.add(exactly("TenYearFelony", tenYear));
+
+        List<String> expungementNames = new ArrayList<>();
+        for (int i = 0; i < expungements.size(); i++) {
+            CaseRecord.Expungement expungement = expungements.get(i);
+            String where = "expungements[" + i + "]";
+            if (expungement == null) {
+                throw new InvalidRequestException(where + " is empty");
+            }
+            String name = "x" + i;
+            register(name, expungement.getId(), where, ids, byId);
+            expungementNames.add(name);
+            facts.add(name + ".date = d" + year(expungement.getDate(), where));
+            List<String> expunged = new ArrayList<>();
+            for (String id : expungement.getConvictions() == null ? List.<String>of() : expungement.getConvictions()) {
+                String conviction = byId.get(id);
+                if (conviction == null || !conviction.startsWith("c")) {
+                    throw new InvalidRequestException(where + ".convictions: unknown conviction " + id);
+                }
+                expunged.add(conviction);
+            }
+            if (expunged.isEmpty()) {
+                throw new InvalidRequestException(where + " must expunge at least one conviction");
+            }
+            facts.add(name + ".con = " + String.join(" + ", expunged));
+        }
+
+        List<String> decls = new ArrayList<>();
+        decl(decls, felonies, "Felony");
+        decl(decls, misdemeanors, "Misdemeanor");
+        decl(decls, expungementNames, "Expungement");
+        String predicate = "some " + String.join(", ", decls) + " | " + String.join(" and ", facts) + "\n";
+
+        // With no expungements given, each conviction can be expunged at most once
+        int maxExpungements = expungements.isEmpty() ? convictions.size() : expungements.size();
+        int events = convictions.size() + maxExpungements;
+        String run = "run userDefinedPredicate for " + events + " but exactly " + felonies.size() + " Felony, exactly "
+                + misdemeanors.size() + " Misdemeanor, " + (expungements.isEmpty() ? "" : "exactly ") + maxExpungements
+                + " Expungement, " + (events + 2) + " steps";
+
+        AlloyRequest request = AlloyRequest.of(predicate, run, record.getType() == null ? ModelRegistry.FORWARD : record.getType());
+        request.setJurisdiction(record.getJurisdiction());
+        request.setSolver(record.getSolver());
+        request.setTimeoutMs(record.getTimeoutMs());
+        request.setAdaptiveSteps(record.getAdaptiveSteps());
+        request.setObjective(record.getObjective());
+        // The record's years are all known, so the date universe can be cut down to them
+        request.setSpecializeDates(true);
+        return new Compiled(mode, request, ids, years);
+    }
+
+    private static void register(String name, String id, String where, Map<String, String> ids, Map<String, String> byId) {
+        String label = id == null || id.isBlank() ? name : id;
+        if (byId.putIfAbsent(label, name) != null) {
+            throw new InvalidRequestException(where + ": duplicate id " + label);
+        }
+        ids.put(name, label);
+    }
+
+    private static int year(String date, String where) {
+        Matcher matcher = date == null ? null : DATE.matcher(date.trim());
+        if (matcher == null || !matcher.matches()) {
+            throw new InvalidRequestException(where + ".date must be a year or a yyyy-mm-dd date");
+        }
+        int year = Integer.parseInt(matcher.group(1));
+        if (year < DateUniverse.FIRST_YEAR || year > DateUniverse.LAST_YEAR) {
+            throw new InvalidRequestException(where + ".date is out of range: " + date);
+        }
+        return year;
+    }
+
+    private static String exactly(String sig, List<String> names) {
+        return names.isEmpty() ? "no " + sig : sig + " = " + String.join(" + ", names);
+    }
+
+    private static void decl(List<String> decls, List<String> names, String sig) {
+        if (!names.isEmpty()) {
+            decls.add((names.size() > 1 ? "disj " : "") + String.join(", ", names) + ": " + sig);
+        }
+    }
+
+    /**
+     * A compiled record: the request to solve and the client's ids for the
+     * generated event names.
+     */
+    public static final class Compiled {
+
+        private final String mode;
+        private final AlloyRequest request;
+        private final Map<String, String> ids;
+        private final Map<String, Integer> years;
+
+        Compiled(String mode, AlloyRequest request, Map<String, String> ids, Map<String, Integer> years) {
+            this.mode = mode;
+            this.request = request;
+            this.ids = ids;
+            this.years = years;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public AlloyRequest getRequest() {
+            return request;
+        }
+
+        /**
+         * Generated conviction names and their years, in record order.
+         */
+        public Map<String, Integer> getConvictionYears() {
+            return years;
+        }
+
+        /**
+         * The client's id for a generated name.
+         */
+        public String id(String name) {
+            return ids.getOrDefault(name, name);
+        }
+
+        /**
+         * Replaces generated names with the client's ids in an evaluate result.
+         */
+        public JSONObject restoreIds(JSONObject result) {
+            if (!result.has("data")) {
+                return result;
+            }
+            // Results can be shared with other callers, so work on a copy
+            JSONObject restored = new JSONObject(result.toString());
+            JSONArray data = restored.getJSONArray("data");
+            for (int i = 0; i < data.length(); i++) {
+                JSONObject event = data.optJSONObject(i);
+                if (event != null && event.has("id")) {
+                    event.put("id", id(event.getString("id")));
+                }
+            }
+            return restored;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.AlloyText;
+import com.expungement.alloy.alloyrunner.engine.CanonicalPredicate;
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+
+/**
+ * Bounded LRU cache of solved requests. Identical requests that arrive while
+ * the first one is still solving wait for that solve instead of starting their own.
+ *
+ * Requests are keyed by their canonical predicate (see {@link CanonicalPredicate}),
+ * so records that only differ in event names or the order they are written in
+ * share an entry. Each entry remembers the predicate texts it has served, which
+ * is how the hits that only canonicalization made possible are counted.
+ *
+ * A maximum of 0 entries turns caching and the sharing of running solves off.
+ */
+@Service
+public class ResultCache {
+
+    // Predicate texts remembered per entry for the canonical hit counts
+    private static final int MAX_VARIANTS = 16;
+
+    private final int maxEntries;
+
+    @Value("${alloy.cache.canonicalize:true}")
+    private boolean canonicalize = true;
+
+    private final Map<String, Entry> entries;
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong canonicalized = new AtomicLong();
+    private final AtomicLong canonicalHits = new AtomicLong();
+    private final AtomicLong canonicalMerged = new AtomicLong();
+
+    public ResultCache(@Value("${alloy.cache.max-entries:1000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Cache key for a request: the endpoint, the model content hash and the
+     * predicate and run command with comments and layout stripped.
+     */
+    public static String key(String kind, CompiledModel model, String predicate, String run) {
+        return kind + ":" + model.getContentHash() + ":" + AlloyText.normalize(predicate) + "\n" + AlloyText.normalize(run);
+    }
+
+    /**
+     * Cache key for a request solved with non-default settings, such as the solver
+     * choice, that can change the answer or the response.
+     */
+    public static String key(String kind, CompiledModel model, String predicate, String run, String settings) {
+        return key(kind, model, predicate, run) + "\n" + settings;
+    }
+
+    /**
+     * The canonical form of a request predicate, or the predicate as it is when
+     * canonicalization is off or does not apply to it.
+     */
+    public CanonicalPredicate canonical(String predicate) {
+        if (!canonicalize) {
+            return CanonicalPredicate.unchanged(predicate);
+        }
+        CanonicalPredicate canonical = CanonicalPredicate.of(predicate);
+        if (canonical.isRenamed()) {
+            canonicalized.incrementAndGet();
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the cached result for the key, or runs the loader on the calling
+     * thread. Exceptions thrown by the loader are rethrown and not cached.
+     */
+    public JSONObject get(String key, Supplier<JSONObject> loader) {
+        try {
+            return getAsync(key, () -> CompletableFuture.completedFuture(loader.get())).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the cached result for the key, joins an identical solve that is
+     * already running, or starts a new one with the loader.
+     *
+     * Each caller gets its own future. Cancelling it only cancels the solve when
+     * no other caller is still waiting for the same result.
+     */
+    public CompletableFuture<JSONObject> getAsync(String key, Supplier<CompletableFuture<JSONObject>> loader) {
+        return getAsync(key, null, loader);
+    }
+
+    /**
+     * {@link #getAsync(String, Supplier)} for a canonical key, where variant is
+     * the request's predicate as the caller wrote it (normalized). A hit or merge
+     * for a variant the entry has not seen before counts as a canonical hit.
+     */
+    public CompletableFuture<JSONObject> getAsync(String key, String variant, Supplier<CompletableFuture<JSONObject>> loader) {
+        if (maxEntries <= 0) {
+            // Caching is off, so every request is solved on its own (as load tests need)
+            misses.incrementAndGet();
+            try {
+                return loader.get();
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        JSONObject cached = lookup(key, variant);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        while (true) {
+            Flight flight = new Flight();
+            flight.join();
+            flight.seen(variant);
+            Flight running = inFlight.putIfAbsent(key, flight);
+            if (running == null) {
+                misses.incrementAndGet();
+                start(key, flight, loader);
+                return flight.waiter(false);
+            }
+            if (running.join()) {
+                merged.incrementAndGet();
+                if (!running.seen(variant)) {
+                    canonicalMerged.incrementAndGet();
+                }
+                return running.waiter(true);
+            }
+            // Everyone waiting for that solve has gone away and it is being cancelled
+            inFlight.remove(key, running);
+        }
+    }
+
+    private void start(String key, Flight flight, Supplier<CompletableFuture<JSONObject>> loader) {
+        CompletableFuture<JSONObject> solve;
+        try {
+            solve = loader.get();
+        } catch (RuntimeException e) {
+            solve = CompletableFuture.failedFuture(e);
+        }
+        flight.solve = solve;
+        solve.whenComplete((result, error) -> {
+            if (error == null) {
+                store(key, copy(result), flight.variants());
+            }
+            inFlight.remove(key, flight);
+            if (error == null) {
+                flight.result.complete(result);
+            } else {
+                flight.result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+        });
+    }
+
+    private JSONObject lookup(String key, String variant) {
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+            if (cached != null && variant != null && !cached.variants.contains(variant)) {
+                canonicalHits.incrementAndGet();
+                if (cached.variants.size() < MAX_VARIANTS) {
+                    cached.variants.add(variant);
+                }
+            }
+        }
+        return cached == null ? null : copy(cached.result);
+    }
+
+    private void store(String key, JSONObject result, Set<String> variants) {
+        synchronized (entries) {
+            entries.put(key, new Entry(result, variants));
+        }
+    }
+
+    // Results are handed out as copies so callers can add to them freely
+    private static JSONObject copy(JSONObject result) {
+        return new JSONObject(result.toString());
+    }
+
+    private static final class Entry {
+        final JSONObject result;
+        // Predicate texts this entry has answered; a bounded sample once it is full
+        final Set<String> variants;
+
+        Entry(JSONObject result, Set<String> variants) {
+            this.result = result;
+            this.variants = variants;
+        }
+    }
+
+    // One solve and the callers waiting for it
+    private static final class Flight {
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        volatile CompletableFuture<JSONObject> solve;
+        private int waiters;
+        private boolean abandoned;
+        private final Set<String> variants = new HashSet<>();
+
+        // Records the variant; false when it is one this solve had not seen
+        synchronized boolean seen(String variant) {
+            if (variant == null || variants.contains(variant)) {
+                return true;
+            }
+            if (variants.size() < MAX_VARIANTS) {
+                variants.add(variant);
+            }
+            return false;
+        }
+
+        synchronized Set<String> variants() {
+            return new HashSet<>(variants);
+        }
+
+        synchronized boolean join() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        // True when the last waiter left before the solve finished
+        synchronized boolean leave() {
+            waiters--;
+            if (waiters == 0 && !result.isDone()) {
+                abandoned = true;
+            }
+            return abandoned;
+        }
+
+        CompletableFuture<JSONObject> waiter(boolean copied) {
+            CompletableFuture<JSONObject> waiter = new CompletableFuture<>();
+            result.whenComplete((value, error) -> {
+                if (error == null) {
+                    waiter.complete(copied ? copy(value) : value);
+                } else {
+                    waiter.completeExceptionally(error);
+                }
+            });
+            waiter.whenComplete((value, error) -> {
+                if (waiter.isCancelled() && leave()) {
+                    solve.cancel(true);
+                }
+            });
+            return waiter;
+        }
+    }
+
+    private static double rate(long count, long total) {
+        return total == 0 ? 0.0 : (double) count / total;
+    }
+
+    public JSONObject stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new JSONObject()
+                .put("size", size)
+                .put("maxEntries", maxEntries)
+                .put("hits", hits.get())
+                .put("misses", misses.get())
+                .put("merged", merged.get())
+                .put("evictions", evictions.get())
+                .put("inFlight", inFlight.size())
+                .put("canonicalize", canonicalize)
+                .put("canonicalized", canonicalized.get())
+                .put("canonicalHits", canonicalHits.get())
+                .put("canonicalMerged", canonicalMerged.get())
+                .put("canonicalHitRate", rate(canonicalHits.get() + canonicalMerged.get(), hits.get() + misses.get() + merged.get()));
+    }
+}
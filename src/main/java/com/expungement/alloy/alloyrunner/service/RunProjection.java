@@ -0,0 +1,192 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.TraceState;
+
+/**
+ * The parts of a solution a /run client asked for: which fields, and whether
+ * for the final state only or for every state of the trace.
+ *
+ * Decoding reads a sig's tuples only when a requested field needs them, so
+ * the default projection (the final state's expungements and violations)
+ * never touches the earlier states.
+ */
+public final class RunProjection {
+
+    public static final String LAST = "last";
+    public static final String ALL = "all";
+
+    public static final String EXPUNGEMENTS = "expungements";
+    public static final String VIOLATIONS = "violations";
+    public static final String NOW = "now";
+    public static final String EVENTS = "events";
+    public static final String EVENT_DATE = "event_date";
+    public static final String EXPUNGED = "expunged";
+
+    // In response order
+    private static final List<String> FIELDS = List.of(EXPUNGEMENTS, VIOLATIONS, NOW, EVENTS, EVENT_DATE, EXPUNGED);
+
+    /**
+     * The response /run has always given: the final state's expungements and violations.
+     */
+    public static final RunProjection DEFAULT = new RunProjection(List.of(EXPUNGEMENTS, VIOLATIONS), false);
+
+    private final List<String> fields;
+    private final boolean allStates;
+
+    private RunProjection(List<String> fields, boolean allStates) {
+        this.fields = fields;
+        this.allStates = allStates;
+    }
+
+    /**
+     * The projection for a request's fields and states, either of which may be
+     * null for the default. Fails with an {@link InvalidRequestException} on an
+     * unknown field or states value.
+     */
+    public static RunProjection of(List<String> fields, String states) {
+        if (states != null && !LAST.equals(states) && !ALL.equals(states)) {
+            throw new InvalidRequestException("Unknown states " + states + " (expected " + LAST + " or " + ALL + ")");
+        }
+        boolean allStates = ALL.equals(states);
+        if (fields == null) {
+            return allStates ? new RunProjection(DEFAULT.fields, true) : DEFAULT;
+        }
+        for (String field : fields) {
+            if (!FIELDS.contains(field)) {
+                throw new InvalidRequestException("Unknown field " + field + " (expected one of " + String.join(", ", FIELDS) + ")");
+            }
+        }
+        List<String> ordered = new ArrayList<>();
+        for (String field : FIELDS) {
+            if (fields.contains(field)) {
+                ordered.add(field);
+            }
+        }
+        return new RunProjection(List.copyOf(ordered), allStates);
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public boolean isAllStates() {
+        return allStates;
+    }
+
+    public boolean isDefault() {
+        return !allStates && fields.equals(DEFAULT.fields);
+    }
+
+    /**
+     * Names the projection in cache keys; requests that ask for the same
+     * fields in a different order share an entry.
+     */
+    public String key() {
+        return (allStates ? ALL : LAST) + ":" + String.join("+", fields);
+    }
+
+    /**
+     * The /run response for a satisfiable solution: the requested fields of the
+     * final state, and with {@link #ALL} a "trace" of them for every state.
+     * "decodeMs" reports how long that took.
+     */
+    public JSONObject decode(SolutionDecoder decoder) {
+        long start = System.nanoTime();
+        JSONObject result = new JSONObject().put("success", true);
+        TraceState lastState = decoder.lastState();
+        for (String field : fields) {
+            result.put(field, field(decoder, lastState, field));
+        }
+        if (allStates) {
+            JSONArray trace = new JSONArray();
+            for (int i = 0; i < decoder.stateCount(); i++) {
+                trace.put(state(decoder, i));
+            }
+            result.put("trace", trace);
+        }
+        // Fractional, as the default projection often decodes in well under a millisecond
+        return result.put("decodeMs", Math.round((System.nanoTime() - start) / 1_000.0) / 1_000.0);
+    }
+
+    /**
+     * The requested fields of one state of the trace.
+     */
+    public JSONObject state(SolutionDecoder decoder, int index) {
+        TraceState state = decoder.state(index);
+        JSONObject jsonState = new JSONObject().put("state", state.getIndex());
+        for (String field : fields) {
+            jsonState.put(field, field(decoder, state, field));
+        }
+        return jsonState;
+    }
+
+    /**
+     * The response for an unsatisfiable run: nothing to expunge.
+     */
+    public JSONObject empty() {
+        JSONObject result = new JSONObject().put("success", true);
+        if (fields.contains(EXPUNGEMENTS)) {
+            result.put(EXPUNGEMENTS, new JSONArray());
+        }
+        if (allStates) {
+            result.put("trace", new JSONArray());
+        }
+        return result;
+    }
+
+    private static Object field(SolutionDecoder decoder, TraceState state, String field) {
+        switch (field) {
+            case EXPUNGEMENTS:
+                return expungements(state);
+            case VIOLATIONS:
+                return violations(decoder, state);
+            case NOW:
+                return new JSONArray(state.atoms("now"));
+            case EVENTS:
+                return new JSONArray(state.atoms("Event"));
+            case EVENT_DATE:
+                return new JSONObject(state.eventDates());
+            case EXPUNGED:
+                return new JSONArray(state.atoms("pastExpunged"));
+            default:
+                throw new IllegalStateException(field);
+        }
+    }
+
+    private static JSONObject expungements(TraceState state) {
+        Map<String, String> eventDate = state.eventDates();
+        JSONObject expungements = new JSONObject();
+        for (String event : state.atoms("pastExpunged")) {
+            if (eventDate.containsKey(event)) {
+                expungements.put(event, eventDate.get(event));
+            }
+        }
+        return expungements;
+    }
+
+    private static JSONObject violations(SolutionDecoder decoder, TraceState state) {
+        Map<String, String> eventDate = state.eventDates();
+        JSONObject violations = new JSONObject();
+        for (String violationType : SolutionDecoder.VIOLATION_SIGS) {
+            if (!decoder.hasSig(violationType)) {
+                continue;
+            }
+            JSONArray violationArray = new JSONArray();
+            for (String violation : state.atoms(violationType)) {
+                if (eventDate.containsKey(violation)) {
+                    violationArray.put(new JSONObject().put(violation, eventDate.get(violation)));
+                }
+            }
+            violations.put(violationType, violationArray);
+        }
+        return violations;
+    }
+}
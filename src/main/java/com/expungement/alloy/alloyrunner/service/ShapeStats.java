@@ -0,0 +1,98 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.RecordShape;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+
+/**
+ * Translation timings per record shape, for /translation/stats. Solves
+ * against the same model and run command whose predicates declare the same
+ * events are counted together, which shows what repeated shapes cost to
+ * translate. Nothing is reused between solves: each one is translated afresh,
+ * and a solve is recorded only after it finished.
+ */
+@Service
+public class ShapeStats {
+
+    private final int maxEntries;
+    private final Map<String, Shape> shapes;
+
+    public ShapeStats(@Value("${alloy.translation.shape-stats-size:256}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.shapes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+                return size() > ShapeStats.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Records the translation time of a finished solve of query.
+     */
+    public void record(CompiledQuery query, SolveOutcome outcome) {
+        String shape = RecordShape.of(query).key();
+        String key = query.getModel().getContentHash() + "|" + query.getCommand() + "|" + shape;
+        Shape stats;
+        synchronized (shapes) {
+            stats = shapes.computeIfAbsent(key, k -> new Shape(shape, query.getCommand().toString()));
+        }
+        stats.record(outcome.getTranslateMs());
+    }
+
+    public JSONObject stats() {
+        List<Shape> snapshot;
+        synchronized (shapes) {
+            snapshot = new ArrayList<>(shapes.values());
+        }
+        JSONArray entries = new JSONArray();
+        for (Shape shape : snapshot) {
+            entries.put(shape.stats());
+        }
+        return new JSONObject()
+                .put("size", snapshot.size())
+                .put("maxEntries", maxEntries)
+                .put("shapes", entries);
+    }
+
+    private static final class Shape {
+        final String shape;
+        final String command;
+
+        private long requests;
+        private long firstTranslateMs = -1;
+        private long repeatTranslateMs;
+
+        Shape(String shape, String command) {
+            this.shape = shape;
+            this.command = command;
+        }
+
+        synchronized void record(long translateMs) {
+            if (requests++ == 0) {
+                firstTranslateMs = translateMs;
+            } else {
+                repeatTranslateMs += translateMs;
+            }
+        }
+
+        synchronized JSONObject stats() {
+            return new JSONObject()
+                    .put("shape", shape)
+                    .put("command", command)
+                    .put("requests", requests)
+                    .put("firstTranslateMs", firstTranslateMs)
+                    .put("avgRepeatTranslateMs", requests > 1 ? repeatTranslateMs / (requests - 1) : -1);
+        }
+    }
+}
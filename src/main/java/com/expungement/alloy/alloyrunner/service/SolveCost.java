@@ -0,0 +1,95 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.expungement.alloy.alloyrunner.engine.AlloyText;
+
+/**
+ * What a solve is expected to cost, read from the request before anything is
+ * parsed or translated: the model it runs against, the atoms its run command
+ * allows and its step bound.
+ */
+public final class SolveCost {
+
+    /**
+     * For solves submitted without an estimate; they are expected to take as
+     * long as the average solve.
+     */
+    public static final SolveCost UNKNOWN = new SolveCost("unknown", 0, 0);
+
+    // Alloy's trace length when the command gives none
+    private static final int DEFAULT_STEPS = 10;
+
+    private static final Pattern DEFAULT_SCOPE = Pattern.compile("\\bfor\\s+(\\d+)\\s*(?:\\bbut\\b|$)");
+    private static final Pattern SCOPE = Pattern.compile("\\b(\\d+)(?:\\s*\\.\\.\\s*(\\d+))?\\s+([A-Za-z_][\\w/']*)");
+
+    // Words after a number that do not scope atoms: the default scope, the bitwidth and the sequence length
+    private static final Set<String> NOT_ATOMS = Set.of("but", "Int", "int", "seq");
+
+    private final String model;
+    private final int atoms;
+    private final int steps;
+
+    private SolveCost(String model, int atoms, int steps) {
+        this.model = model;
+        this.atoms = atoms;
+        this.steps = steps;
+    }
+
+    /**
+     * The cost of running a run command against a model: the atoms it scopes
+     * explicitly plus its default scope, and its step bound.
+     */
+    public static SolveCost of(String model, String run) {
+        if (run == null) {
+            return new SolveCost(model, 0, DEFAULT_STEPS);
+        }
+        String text = AlloyText.stripComments(run);
+        int atoms = 0;
+        int steps = DEFAULT_STEPS;
+        Matcher overall = DEFAULT_SCOPE.matcher(text);
+        if (overall.find()) {
+            atoms += Integer.parseInt(overall.group(1));
+        }
+        Matcher scope = SCOPE.matcher(text);
+        while (scope.find()) {
+            // "1..10 steps" is bounded by its upper end
+            int bound = Integer.parseInt(scope.group(2) != null ? scope.group(2) : scope.group(1));
+            if ("steps".equals(scope.group(3))) {
+                steps = bound;
+            } else if (!NOT_ATOMS.contains(scope.group(3))) {
+                atoms += bound;
+            }
+        }
+        return new SolveCost(model, atoms, steps);
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public int getAtoms() {
+        return atoms;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Requests that are expected to cost the same: same model, atoms and steps.
+     */
+    String bucket() {
+        return model + ":" + atoms + ":" + steps;
+    }
+
+    /**
+     * A size the solve time grows with, for shapes not solved yet: the
+     * translation has a relation per field over the atoms, unrolled per step.
+     */
+    double size() {
+        return (double) Math.max(1, atoms) * Math.max(1, atoms) * Math.max(1, steps);
+    }
+}
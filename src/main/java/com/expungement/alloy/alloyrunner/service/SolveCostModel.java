@@ -0,0 +1,72 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONObject;
+
+/**
+ * Expected solve times, learned from the solves that have finished. A request
+ * whose model, atoms and steps have been solved before is expected to take as
+ * long as those did; otherwise the time is scaled from its model's time per
+ * unit of {@link SolveCost#size}, or from any model's while the model has not
+ * been solved yet. All averages are exponentially weighted so the estimates
+ * follow load and model changes.
+ */
+final class SolveCostModel {
+
+    // Weight of the newest observation
+    private static final double ALPHA = 0.3;
+
+    private final double defaultMs;
+    private final Map<String, Double> byBucket = new ConcurrentHashMap<>();
+    private final Map<String, Double> msPerSizeByModel = new ConcurrentHashMap<>();
+    private volatile double msPerSize = -1;
+    private volatile double meanMs = -1;
+
+    /**
+     * @param defaultMs the estimate for every solve until one has finished
+     */
+    SolveCostModel(double defaultMs) {
+        this.defaultMs = defaultMs;
+    }
+
+    double expectedMs(SolveCost cost) {
+        if (cost == SolveCost.UNKNOWN) {
+            double mean = meanMs;
+            return mean >= 0 ? mean : defaultMs;
+        }
+        Double seen = byBucket.get(cost.bucket());
+        if (seen != null) {
+            return seen;
+        }
+        Double scale = msPerSizeByModel.get(cost.getModel());
+        if (scale != null) {
+            return scale * cost.size();
+        }
+        double anyScale = msPerSize;
+        return anyScale >= 0 ? anyScale * cost.size() : defaultMs;
+    }
+
+    synchronized void observe(SolveCost cost, long millis) {
+        double ms = Math.max(0, millis);
+        meanMs = average(meanMs, ms);
+        if (cost == SolveCost.UNKNOWN) {
+            return;
+        }
+        byBucket.merge(cost.bucket(), ms, (old, next) -> average(old, next));
+        double scale = ms / cost.size();
+        msPerSizeByModel.merge(cost.getModel(), scale, (old, next) -> average(old, next));
+        msPerSize = average(msPerSize, scale);
+    }
+
+    JSONObject stats() {
+        return new JSONObject()
+                .put("shapesSeen", byBucket.size())
+                .put("meanMs", meanMs >= 0 ? Math.round(meanMs) : defaultMs);
+    }
+
+    private static double average(double old, double next) {
+        return old < 0 ? next : old + ALPHA * (next - old);
+    }
+}
@@ -0,0 +1,153 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer meters for the phases of a request, exported at
+ * /actuator/prometheus.
+ *
+ * <ul>
+ * <li>alloy.phase: time per phase (parse, prepare, translate, solve, decode),
+ * tagged by model (forward/backward) and solver</li>
+ * <li>alloy.solve.results: solves by result (sat, unsat, timeout, cancelled,
+ * error)</li>
+ * <li>alloy.cnf.variables, alloy.cnf.clauses: size of the translated problem</li>
+ * <li>alloy.trace.length, alloy.decoded.events: size of the decoded solution</li>
+ * <li>alloy.solver.*: solver pool saturation, registered by {@link SolverExecutor}</li>
+ * </ul>
+ */
+@Service
+public class SolveMetrics {
+
+    // Solver tag for phases that happen before a solver is involved
+    static final String NO_SOLVER = "none";
+
+    private final MeterRegistry registry;
+
+    public SolveMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * The model tag for a request type, following {@link ModelCache#get(String)}.
+     */
+    public static String modelTag(String type) {
+        return "forward".equals(type) ? "forward" : "backward";
+    }
+
+    /**
+     * A base or date-specialized model was parsed and type-checked.
+     */
+    public void parsed(String model, long nanos) {
+        phase("parse", model, NO_SOLVER).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A user predicate and run command were resolved against a compiled model.
+     */
+    public void prepared(String model, long nanos) {
+        phase("prepare", model, NO_SOLVER).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the translation and SAT time, the problem size and the result of
+     * a finished solve, tagged with the solver that won.
+     */
+    public void solved(String model, SolveOutcome outcome) {
+        solved(model, outcome.getSolver(), outcome.getTranslateMs(), outcome.getSolveMs(), outcome.getVariables(),
+                outcome.getClauses(), outcome.getSolution().satisfiable());
+    }
+
+    /**
+     * As {@link #solved(String, SolveOutcome)}, for a solve on a worker, from the
+     * outcome it reported (see {@link #describe(SolveOutcome)}).
+     */
+    public void solved(String model, JSONObject outcome) {
+        solved(model, outcome.getString("solver"), outcome.getLong("translateMs"), outcome.getLong("solveMs"),
+                outcome.getInt("variables"), outcome.getInt("clauses"), outcome.getBoolean("satisfiable"));
+    }
+
+    /**
+     * What {@link #solved(String, SolveOutcome)} records of an outcome, for a
+     * worker to report with its result.
+     */
+    public static JSONObject describe(SolveOutcome outcome) {
+        return outcome.describe(new JSONObject())
+                .put("variables", outcome.getVariables())
+                .put("clauses", outcome.getClauses())
+                .put("satisfiable", outcome.getSolution().satisfiable());
+    }
+
+    private void solved(String model, String solver, long translateMs, long solveMs, int variables, int clauses, boolean satisfiable) {
+        phase("translate", model, solver).record(translateMs, TimeUnit.MILLISECONDS);
+        phase("solve", model, solver).record(solveMs, TimeUnit.MILLISECONDS);
+        if (clauses > 0) {
+            summary("alloy.cnf.variables", "Variables in the translated CNF", model).record(variables);
+            summary("alloy.cnf.clauses", "Clauses in the translated CNF", model).record(clauses);
+        }
+        result(model, solver, satisfiable ? "sat" : "unsat").increment();
+    }
+
+    /**
+     * A solution was turned into a response.
+     */
+    public void decoded(String model, String solver, long nanos, int traceLength, int events) {
+        phase("decode", model, solver).record(nanos, TimeUnit.NANOSECONDS);
+        summary("alloy.trace.length", "States in the decoded trace", model).record(traceLength);
+        summary("alloy.decoded.events", "Events in the decoded response", model).record(events);
+    }
+
+    /**
+     * A solve ended without a result.
+     */
+    public void failed(String model, String solver, Throwable error) {
+        String result;
+        if (error instanceof SolveTimeoutException) {
+            result = "timeout";
+        } else if (error instanceof SolveCancelledException) {
+            result = "cancelled";
+        } else {
+            result = "error";
+        }
+        result(model, solver, result).increment();
+    }
+
+    private Timer phase(String phase, String model, String solver) {
+        return Timer.builder("alloy.phase")
+                .description("Time spent in each phase of a request")
+                .tag("phase", phase)
+                .tag("model", model)
+                .tag("solver", solver)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter result(String model, String solver, String result) {
+        return Counter.builder("alloy.solve.results")
+                .description("Solves by result")
+                .tag("model", model)
+                .tag("solver", solver)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private DistributionSummary summary(String name, String description, String model) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .tag("model", model)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,108 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.Objective;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+import edu.mit.csail.sdg.alloy4.Err;
+
+/**
+ * The in-process solve behind /run, /evaluate and their streams: resolves the
+ * request's predicate against the model, solves it with the requested solver
+ * (for the best plan when the request names an objective), and records the
+ * solve in the metrics and trace captures. Each endpoint only supplies the
+ * step that turns the outcome into its response.
+ */
+@Service
+public class SolvePipeline {
+
+    @Autowired
+    private SolverSelection solverSelection;
+
+    @Autowired
+    private ShapeStats shapeStats;
+
+    @Autowired
+    private SolveMetrics metrics;
+
+    @Autowired
+    private TraceCapture traceCapture;
+
+    /**
+     * Turns a solve into an endpoint's response.
+     */
+    @FunctionalInterface
+    public interface Decode<T, E extends Exception> {
+
+        /**
+         * @param optimized how the objective was met, or null when the request names none
+         */
+        T decode(SolveOutcome outcome, Objective optimized) throws E;
+    }
+
+    /**
+     * Fails with an {@link InvalidRequestException} for an objective other than
+     * those {@link Objective} knows; none at all is fine.
+     */
+    static void objective(String objective) {
+        if (objective != null && !Objective.isKnown(objective)) {
+            throw new InvalidRequestException("Unknown objective " + objective + " (expected "
+                    + Objective.MAX_EXPUNGED + " or " + Objective.MIN_VIOLATIONS + ")");
+        }
+    }
+
+    /**
+     * Solves the request on the calling thread and decodes the outcome. kind
+     * ("run" or "evaluate") labels the trace capture. Fails with an
+     * {@link InvalidQueryException} when the predicate or run command does not
+     * parse. Runtime failures, decoding included, are recorded as failed solves;
+     * checked exceptions from the decode step, such as a stream whose client
+     * went away, pass through unrecorded.
+     */
+    public <T, E extends Exception> T solve(String kind, AlloyRequest request, CompiledModel model, String solver,
+            boolean adaptive, SolveMonitor monitor, Decode<T, E> decode) throws E {
+        String tag = SolveMetrics.modelTag(request.getType());
+        long start = System.nanoTime();
+        SolveOutcome outcome = null;
+        boolean captured = false;
+        try {
+            // Resolve the user predicate against the cached base model
+            CompiledQuery query;
+            try {
+                query = model.prepare(request.getPredicate(), request.getRun());
+            } catch (Err e) {
+                // Only requests the admission check could not decide on get here; positions are in the predicate as solved
+                throw new InvalidQueryException(model.locate(e, request.getPredicate()));
+            }
+            metrics.prepared(tag, System.nanoTime() - start);
+
+            Function<CompiledQuery, SolveOutcome> solve = next -> solverSelection.solve(next, solver, monitor, adaptive);
+            Objective optimized = null;
+            if (request.getObjective() != null) {
+                optimized = Objective.optimize(query, request.getObjective(), solve, monitor);
+                outcome = optimized.getOutcome();
+            } else {
+                outcome = solve.apply(query);
+            }
+            metrics.solved(tag, outcome);
+            shapeStats.record(query, outcome);
+            traceCapture.record(kind, request, model, outcome, (System.nanoTime() - start) / 1_000_000, null);
+            captured = true;
+            return decode.decode(outcome, optimized);
+        } catch (RuntimeException e) {
+            metrics.failed(tag, solver, e);
+            if (!captured) {
+                traceCapture.record(kind, request, model, outcome, (System.nanoTime() - start) / 1_000_000, e);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+/**
+ * The solver pool's wait queue when solves are scheduled by cost: the solve
+ * expected to finish soonest starts first, so a large history does not hold
+ * up the quick checks queued behind it.
+ *
+ * Waiting makes a solve cheaper: every millisecond in the queue takes
+ * agingRate milliseconds off its expected time, so a large solve is passed by
+ * cheaper ones for at most its expected time divided by the aging rate. As
+ * that discount is the same for every queued solve, the order only changes
+ * when solves arrive, and a priority queue keeps it.
+ *
+ * With fair share on, each client's solves are queued apart, and a client is
+ * also charged for the expected time of the solves it started recently
+ * (halving every half-life). A client sending many solves then waits behind
+ * clients sending few, while still getting the pool to itself when it is alone.
+ */
+final class SolveQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * A solve with what it is expected to cost and who asked for it.
+     */
+    static final class Task implements Runnable {
+
+        private final Runnable body;
+        private final SolveCost cost;
+        private final String client;
+        private double expectedMs;
+        private double key;
+        private long sequence;
+
+        Task(Runnable body, SolveCost cost, String client) {
+            this.body = body;
+            this.cost = cost;
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            body.run();
+        }
+
+        @Override
+        public String toString() {
+            return body.toString();
+        }
+    }
+
+    private static final Comparator<Task> ORDER = Comparator.<Task>comparingDouble(task -> task.key)
+            .thenComparingLong(task -> task.sequence);
+
+    private final int capacity;
+    private final double agingRate;
+    private final boolean fairShare;
+    private final double halfLifeMs;
+    private final SolveCostModel costs;
+    private final long origin = System.nanoTime();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Guarded by lock; a single "" client when fair share is off
+    private final Map<String, PriorityQueue<Task>> queues = new LinkedHashMap<>();
+    private final Map<String, double[]> usage = new HashMap<>();
+    private int count;
+
+    SolveQueue(int capacity, double agingRate, boolean fairShare, long halfLifeMs, SolveCostModel costs) {
+        this.capacity = capacity;
+        this.agingRate = agingRate;
+        this.fairShare = fairShare;
+        this.halfLifeMs = Math.max(1, halfLifeMs);
+        this.costs = costs;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        Task task = runnable instanceof Task ? (Task) runnable : new Task(runnable, SolveCost.UNKNOWN, null);
+        lock.lock();
+        try {
+            if (count >= capacity) {
+                return false;
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+        offer(runnable, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+        Task task = runnable instanceof Task ? (Task) runnable : new Task(runnable, SolveCost.UNKNOWN, null);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            String client = next();
+            return client == null ? null : queues.get(client).peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (Iterator<PriorityQueue<Task>> it = queues.values().iterator(); it.hasNext();) {
+                PriorityQueue<Task> queue = it.next();
+                if (queue.remove(o)) {
+                    if (queue.isEmpty()) {
+                        it.remove();
+                    }
+                    count--;
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A snapshot in no particular order
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> tasks = new ArrayList<>(count);
+            for (PriorityQueue<Task> queue : queues.values()) {
+                tasks.addAll(queue);
+            }
+            return tasks.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                target.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    JSONObject stats() {
+        JSONObject stats = new JSONObject()
+                .put("policy", "cost")
+                .put("agingRate", agingRate)
+                .put("fairShare", fairShare)
+                .put("estimates", costs.stats());
+        if (fairShare) {
+            lock.lock();
+            try {
+                stats.put("clientsQueued", queues.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+        return stats;
+    }
+
+    private void enqueue(Task task) {
+        task.expectedMs = costs.expectedMs(task.cost);
+        task.key = task.expectedMs + agingRate * nowMs();
+        task.sequence = sequence.incrementAndGet();
+        queues.computeIfAbsent(clientOf(task), client -> new PriorityQueue<>(ORDER)).add(task);
+        count++;
+        notEmpty.signal();
+    }
+
+    private Task dequeue() {
+        String client = next();
+        PriorityQueue<Task> queue = queues.get(client);
+        Task task = queue.poll();
+        if (queue.isEmpty()) {
+            queues.remove(client);
+        }
+        count--;
+        if (fairShare) {
+            double now = nowMs();
+            double[] used = usage.computeIfAbsent(client, c -> new double[2]);
+            used[0] = decayed(used, now) + task.expectedMs;
+            used[1] = now;
+        }
+        notFull.signal();
+        return task;
+    }
+
+    // The client whose head solve goes next, or null when nothing is queued
+    private String next() {
+        double now = nowMs();
+        String best = null;
+        Task bestHead = null;
+        double bestScore = 0;
+        for (Map.Entry<String, PriorityQueue<Task>> entry : queues.entrySet()) {
+            Task head = entry.getValue().peek();
+            double score = head.key;
+            if (fairShare) {
+                double[] used = usage.get(entry.getKey());
+                score += used == null ? 0 : decayed(used, now);
+            }
+            if (best == null || score < bestScore || (score == bestScore && head.sequence < bestHead.sequence)) {
+                best = entry.getKey();
+                bestHead = head;
+                bestScore = score;
+            }
+        }
+        if (fairShare) {
+            // Forget clients that have gone quiet
+            usage.values().removeIf(used -> decayed(used, now) < 1);
+        }
+        return best;
+    }
+
+    private String clientOf(Task task) {
+        return fairShare && task.client != null ? task.client : "";
+    }
+
+    private double decayed(double[] used, double now) {
+        return used[0] * Math.pow(0.5, (now - used[1]) / halfLifeMs);
+    }
+
+    private double nowMs() {
+        return (System.nanoTime() - origin) / 1_000_000.0;
+    }
+}
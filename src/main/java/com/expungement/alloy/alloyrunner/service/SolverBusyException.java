@@ -0,0 +1,20 @@
+package com.expungement.alloy.alloyrunner.service;
+
+/**
+ * Thrown when the solver queue is full and a request cannot be admitted.
+ */
+public class SolverBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    public SolverBusyException(int retryAfterSeconds) {
+        super("Solver queue is full, retry later");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,398 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Dedicated pool for translation and SAT solving, so solves neither run on the
+ * common ForkJoinPool nor hold web request threads. The wait queue is bounded;
+ * when it is full, requests are rejected with a {@link SolverBusyException}.
+ *
+ * Solves submitted with a deadline fail with a {@link SolveTimeoutException} once
+ * it passes, counted from when the solve leaves the queue. The caller gets the
+ * timeout right away. The solve itself runs on a second, fixed pool of
+ * alloy.solver.threads plus max-overrunning threads, which the pool thread
+ * gives up on at the deadline: the solve is interrupted and stops at its next
+ * {@link SolveMonitor} checkpoint, but a native SAT call cannot be stopped from
+ * outside, so it may keep running until the call returns. The pool thread
+ * moves on to the next queued solve while fewer than max-overrunning solves are
+ * running past their deadline, and otherwise waits for its own solve to stop,
+ * which bounds how far runaway solves oversubscribe the cores. Until they stop,
+ * overrunning solves also take up places in the wait queue, so a server busy
+ * with runaway solves turns new requests away sooner. Solves that must be
+ * killed at the deadline belong on the worker processes (alloy.workers).
+ *
+ * With "cost" scheduling (the default) queued solves do not start in arrival
+ * order but by expected solve time, learned from the solves that finished;
+ * see {@link SolveQueue}. "fifo" keeps arrival order.
+ *
+ * Saturation is exported with the other meters at /actuator/prometheus:
+ * alloy.solver.queued, alloy.solver.active, alloy.solver.threads and
+ * alloy.solver.overrunning gauges, and alloy.solver.rejected (requests turned
+ * away with a 429) and alloy.solver.timeouts counters.
+ */
+@Service
+public class SolverExecutor implements MeterBinder {
+
+    public static final String FIFO = "fifo";
+    public static final String COST = "cost";
+
+    // Where a supervised solve stands: still running, finished, or given up on at its deadline
+    private static final int RUNNING = 0;
+    private static final int FINISHED = 1;
+    private static final int OVERRAN = 2;
+
+    private final ThreadPoolExecutor executor;
+    // Runs the supervised solves; the pool threads wait on them
+    private final ThreadPoolExecutor solves;
+    private final int queueCapacity;
+    private final SolveQueue scheduled;
+    private final SolveCostModel costs;
+    private final ScheduledExecutorService deadlines;
+    private final int retryAfterSeconds;
+    private final long defaultTimeoutMs;
+    private final long maxTimeoutMs;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicInteger overrunning = new AtomicInteger();
+    private final int maxOverrunning;
+
+    public SolverExecutor(@Value("${alloy.solver.threads:0}") int threads,
+            @Value("${alloy.solver.queue-capacity:64}") int queueCapacity,
+            @Value("${alloy.solver.retry-after-seconds:5}") int retryAfterSeconds,
+            @Value("${alloy.solver.timeout-ms:30000}") long defaultTimeoutMs,
+            @Value("${alloy.solver.max-timeout-ms:120000}") long maxTimeoutMs,
+            @Value("${alloy.solver.scheduling:cost}") String scheduling,
+            @Value("${alloy.solver.aging-rate:1.0}") double agingRate,
+            @Value("${alloy.solver.fair-share:false}") boolean fairShare,
+            @Value("${alloy.solver.fair-share-half-life-ms:30000}") long fairShareHalfLifeMs,
+            @Value("${alloy.solver.default-cost-ms:1000}") double defaultCostMs,
+            @Value("${alloy.solver.max-overrunning:0}") int maxOverrunning) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        if (!FIFO.equals(scheduling) && !COST.equals(scheduling)) {
+            throw new IllegalArgumentException("Unknown alloy.solver.scheduling " + scheduling + " (expected " + FIFO + " or " + COST + ")");
+        }
+        this.costs = new SolveCostModel(defaultCostMs);
+        this.scheduled = COST.equals(scheduling) ? new SolveQueue(queueCapacity, agingRate, fairShare, fairShareHalfLifeMs, costs) : null;
+        BlockingQueue<Runnable> queue = scheduled != null ? scheduled : new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "alloy-solver-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "alloy-solver-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueCapacity = queueCapacity;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.maxTimeoutMs = maxTimeoutMs;
+        this.maxOverrunning = maxOverrunning > 0 ? maxOverrunning : size;
+        // Every pool thread waits on at most one solve, plus the ones given up on
+        int solveThreads = size + this.maxOverrunning;
+        AtomicInteger solveCount = new AtomicInteger();
+        this.solves = new ThreadPoolExecutor(solveThreads, solveThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "alloy-solve-" + solveCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.solves.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The deadline for a request: the requested timeout capped at the server
+     * maximum, or the server default when none was requested.
+     */
+    public long timeoutMs(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return Math.min(defaultTimeoutMs, maxTimeoutMs);
+        }
+        return Math.min(requested, maxTimeoutMs);
+    }
+
+    /**
+     * Runs the task on the solver pool under a deadline. The returned future fails
+     * with a {@link SolveTimeoutException} when the deadline passes; cancelling it
+     * cancels the monitor, or drops the task if it has not started yet.
+     */
+    public <T> CompletableFuture<T> submit(SolveMonitor monitor, long timeoutMs, Supplier<T> task) {
+        return submit(monitor, timeoutMs, SolveCost.UNKNOWN, null, task);
+    }
+
+    /**
+     * As {@link #submit(SolveMonitor, long, Supplier)}, for a solve whose cost
+     * can be estimated up front. With cost scheduling it is queued by that
+     * estimate and, under fair share, with the client's other solves; the
+     * time it takes refines the estimates for later solves.
+     *
+     * @param client who asked for the solve, for fair share; null for no one in particular
+     */
+    public <T> CompletableFuture<T> submit(SolveMonitor monitor, long timeoutMs, SolveCost cost, String client, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> run = submit(cost, client, () -> {
+            monitor.startDeadline(timeoutMs);
+            ScheduledFuture<?> timer = deadlines.schedule(
+                    () -> result.completeExceptionally(new SolveTimeoutException(timeoutMs)), timeoutMs, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            try {
+                return supervise(timeoutMs, task);
+            } finally {
+                timer.cancel(false);
+                costs.observe(cost, (System.nanoTime() - start) / 1_000_000);
+            }
+        });
+        run.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                cancelled.incrementAndGet();
+                monitor.cancel("Request cancelled");
+                run.cancel(false);
+            } else if (error instanceof SolveTimeoutException) {
+                timedOut.incrementAndGet();
+            }
+        });
+        return result;
+    }
+
+    // Runs the task on the solve pool and waits for it until the deadline
+    private <T> T supervise(long timeoutMs, Supplier<T> task) {
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        AtomicReference<Thread> runner = new AtomicReference<>();
+        FutureTask<T> solve = new FutureTask<>(() -> {
+            runner.set(Thread.currentThread());
+            try {
+                return task.get();
+            } finally {
+                synchronized (runner) {
+                    runner.set(null);
+                    // An interrupt meant for this solve must not reach the next one on this thread
+                    Thread.interrupted();
+                }
+                if (!state.compareAndSet(RUNNING, FINISHED)) {
+                    overrunning.decrementAndGet();
+                }
+            }
+        });
+        try {
+            solves.execute(solve);
+        } catch (RejectedExecutionException e) {
+            throw new SolveCancelledException("Solver pool stopped");
+        }
+        try {
+            return solve.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            interrupt(runner);
+            if (overrunning.incrementAndGet() <= maxOverrunning && state.compareAndSet(RUNNING, OVERRAN)) {
+                // The solve thread takes the count back when it stops
+                abandoned.incrementAndGet();
+            } else {
+                overrunning.decrementAndGet();
+                awaitQuietly(solve);
+            }
+            throw new SolveTimeoutException(timeoutMs);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        } catch (InterruptedException e) {
+            // The pool is shutting down
+            interrupt(runner);
+            Thread.currentThread().interrupt();
+            throw new SolveCancelledException("Solver pool stopped");
+        }
+    }
+
+    private static void interrupt(AtomicReference<Thread> runner) {
+        synchronized (runner) {
+            Thread thread = runner.get();
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private static void awaitQuietly(FutureTask<?> solve) {
+        try {
+            solve.get();
+        } catch (ExecutionException | CancellationException e) {
+            // Only the timeout matters now
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Makes cancelling a derived stage cancel the future it was derived from;
+     * CompletableFuture does not propagate cancellation upstream by itself.
+     */
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, CompletableFuture<?> source) {
+        derived.whenComplete((value, error) -> {
+            if (derived.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * Runs the task on the solver pool, or fails immediately with a
+     * {@link SolverBusyException} if the queue is full.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return submit(SolveCost.UNKNOWN, null, task);
+    }
+
+    private <T> CompletableFuture<T> submit(SolveCost cost, String client, Supplier<T> task) {
+        // Solves still running past their deadline hold on to a place in the queue until they stop
+        if (getQueueDepth() + getOverrunningCount() >= queueCapacity) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new SolverBusyException(retryAfterSeconds));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable body = () -> {
+            // Cancelled while queued
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(task.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+        try {
+            executor.execute(scheduled != null ? new SolveQueue.Task(body, cost, client) : body);
+            return result;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new SolverBusyException(retryAfterSeconds));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("alloy.solver.queued", this, SolverExecutor::getQueueDepth)
+                .description("Solves waiting for a solver thread")
+                .register(registry);
+        Gauge.builder("alloy.solver.active", this, SolverExecutor::getActiveCount)
+                .description("Solver threads running a solve")
+                .register(registry);
+        Gauge.builder("alloy.solver.threads", this, SolverExecutor::getPoolSize)
+                .description("Solver threads in the pool")
+                .register(registry);
+        Gauge.builder("alloy.solver.overrunning", this, SolverExecutor::getOverrunningCount)
+                .description("Solves past their deadline whose thread has not stopped yet")
+                .register(registry);
+        FunctionCounter.builder("alloy.solver.rejected", rejected, AtomicLong::get)
+                .description("Solves turned away because the queue was full")
+                .register(registry);
+        FunctionCounter.builder("alloy.solver.timeouts", timedOut, AtomicLong::get)
+                .description("Solves that ran past their deadline")
+                .register(registry);
+    }
+
+    /**
+     * Strips the CompletionException wrappers added by CompletableFuture stages.
+     */
+    public static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Solves past their deadline whose thread has not stopped yet.
+     */
+    public int getOverrunningCount() {
+        return overrunning.get();
+    }
+
+    public JSONObject stats() {
+        return new JSONObject()
+                .put("threads", getPoolSize())
+                .put("active", getActiveCount())
+                .put("queued", getQueueDepth())
+                .put("queueCapacity", queueCapacity)
+                .put("completed", executor.getCompletedTaskCount())
+                .put("rejected", getRejectedCount())
+                .put("timedOut", timedOut.get())
+                .put("cancelled", cancelled.get())
+                .put("abandoned", abandoned.get())
+                .put("overrunning", getOverrunningCount())
+                .put("maxOverrunning", maxOverrunning)
+                .put("defaultTimeoutMs", timeoutMs(null))
+                .put("maxTimeoutMs", maxTimeoutMs)
+                .put("scheduling", scheduled != null ? scheduled.stats() : new JSONObject().put("policy", FIFO));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        solves.shutdownNow();
+        deadlines.shutdownNow();
+    }
+}
@@ -0,0 +1,198 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+import com.expungement.alloy.alloyrunner.engine.SolverPortfolio;
+import com.expungement.alloy.alloyrunner.engine.TraceDeepening;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.parser.CompModule;
+import edu.mit.csail.sdg.parser.CompUtil;
+import edu.mit.csail.sdg.translator.A4Options;
+import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kodkod.engine.satlab.SATFactory;
+
+/**
+ * Maps the "solver" field of a request to SAT backends. A request can name a
+ * single solver, ask for the "portfolio" (the configured solvers raced against
+ * each other, first answer wins) or leave it out to get the server default.
+ *
+ * Every candidate solver is tried on a trivial model at startup, so solvers
+ * whose native library is missing on this platform are never offered.
+ *
+ * Portfolio racers run on a fixed pool with one thread per racer of each
+ * solver thread (alloy.solver.threads times the portfolio size), so racing
+ * never runs more solves than the solver pool could drive at once. A racer
+ * that has to wait for a thread, behind losers that cannot be stopped yet,
+ * is queued.
+ */
+@Service
+public class SolverSelection {
+
+    public static final String PORTFOLIO = "portfolio";
+
+    private static final Logger log = LoggerFactory.getLogger(SolverSelection.class);
+
+    private static final String[] CANDIDATES = { "minisat", "sat4j", "glucose" };
+
+    @Value("${alloy.solver.default:minisat}")
+    private String defaultSolver = "minisat";
+
+    @Value("${alloy.solver.portfolio:minisat,sat4j}")
+    private String portfolio = "minisat,sat4j";
+
+    // Solver pool size the racer pool is sized from; 0 for one thread per core, as in SolverExecutor
+    @Value("${alloy.solver.threads:0}")
+    private int solverThreads;
+
+    private final Map<String, SATFactory> available = new LinkedHashMap<>();
+
+    // Racers for portfolio solves; the solver pool thread that owns the request waits for them
+    private ThreadPoolExecutor racers;
+
+    @PostConstruct
+    public void probe() {
+        Set<String> candidates = new LinkedHashSet<>();
+        candidates.add(defaultSolver.trim());
+        for (String id : portfolio.split(",")) {
+            candidates.add(id.trim());
+        }
+        for (String id : CANDIDATES) {
+            candidates.add(id);
+        }
+        for (String id : candidates) {
+            SATFactory factory = tryFactory(id);
+            if (factory != null) {
+                available.put(id, factory);
+            }
+        }
+        log.info("Available SAT solvers: {}", available.keySet());
+        if (!available.containsKey(defaultSolver) && !available.isEmpty()) {
+            String fallback = available.keySet().iterator().next();
+            log.warn("Default solver {} is not available, using {}", defaultSolver, fallback);
+            defaultSolver = fallback;
+        }
+        racers = racers(solvers(PORTFOLIO).size());
+    }
+
+    private ThreadPoolExecutor racers(int members) {
+        int threads = (solverThreads > 0 ? solverThreads : Runtime.getRuntime().availableProcessors()) * Math.max(1, members);
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "alloy-racer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static SATFactory tryFactory(String id) {
+        try {
+            SATFactory factory = SATFactory.get(id);
+            if (factory == null) {
+                return null;
+            }
+            CompModule world = CompUtil.parseEverything_fromString(A4Reporter.NOP, "sig A {}\nrun {} for 1");
+            A4Options options = new A4Options();
+            options.solver = factory;
+            TranslateAlloyToKodkod.execute_command(A4Reporter.NOP, world.getAllReachableSigs(), world.getAllCommands().get(0), options);
+            return factory;
+        } catch (Throwable e) {
+            // Typically an UnsatisfiedLinkError wrapped by Alloy for a missing native solver
+            log.info("SAT solver {} is not available: {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Canonical name for the requested solver: the default when none is given,
+     * the solver id, or {@link #PORTFOLIO}. Fails with an
+     * {@link InvalidRequestException} for solvers that are not available.
+     */
+    public String mode(String requested) {
+        String mode = requested == null || requested.isBlank() ? defaultSolver : requested.trim().toLowerCase();
+        if (!PORTFOLIO.equals(mode) && !available.containsKey(mode)) {
+            throw new InvalidRequestException("Unknown or unavailable solver: " + requested
+                    + " (available: " + String.join(", ", available.keySet()) + ", " + PORTFOLIO + ")");
+        }
+        return mode;
+    }
+
+    /**
+     * Solves the query with the solver(s) selected by the given mode, stopping
+     * when the monitor is cancelled or runs out of time.
+     */
+    public SolveOutcome solve(CompiledQuery query, String mode, SolveMonitor monitor) {
+        return SolverPortfolio.solve(query, solvers(mode(mode)), racers, monitor);
+    }
+
+    /**
+     * Same as {@link #solve(CompiledQuery, String, SolveMonitor)}; with
+     * adaptiveSteps the trace bound is deepened from the shortest trace that can
+     * hold the record, see {@link TraceDeepening}.
+     */
+    public SolveOutcome solve(CompiledQuery query, String mode, SolveMonitor monitor, boolean adaptiveSteps) {
+        if (!adaptiveSteps) {
+            return solve(query, mode, monitor);
+        }
+        Map<String, SATFactory> solvers = solvers(mode(mode));
+        return TraceDeepening.solve(query, bounded -> SolverPortfolio.solve(bounded, solvers, racers, monitor), monitor);
+    }
+
+    private Map<String, SATFactory> solvers(String mode) {
+        Map<String, SATFactory> solvers = new LinkedHashMap<>();
+        if (!PORTFOLIO.equals(mode)) {
+            solvers.put(mode, available.get(mode));
+            return solvers;
+        }
+        for (String id : portfolio.split(",")) {
+            SATFactory factory = available.get(id.trim());
+            if (factory != null) {
+                solvers.put(id.trim(), factory);
+            }
+        }
+        if (solvers.isEmpty()) {
+            solvers.put(defaultSolver, available.get(defaultSolver));
+        }
+        return solvers;
+    }
+
+    public JSONObject stats() {
+        List<String> members = new ArrayList<>(solvers(PORTFOLIO).keySet());
+        return new JSONObject()
+                .put("default", defaultSolver)
+                .put("available", new JSONArray(available.keySet()))
+                .put("portfolio", new JSONArray(members))
+                .put("racerThreads", racers.getMaximumPoolSize())
+                .put("racersQueued", racers.getQueue().size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (racers != null) {
+            racers.shutdownNow();
+        }
+    }
+}
@@ -4,58 +4,45 @@ import org.json.JSONObject;
 
 
 import org.json.JSONArray;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.TraceState;
+
 import edu.mit.csail.sdg.alloy4.Err;
-import edu.mit.csail.sdg.ast.Module;
-import edu.mit.csail.sdg.parser.CompUtil;
 import edu.mit.csail.sdg.translator.A4Options;
 import edu.mit.csail.sdg.translator.A4Solution;
-import edu.mit.csail.sdg.translator.TranslateAlloyToKodkod;
 import kodkod.engine.satlab.SATFactory;
 
-import java.util.regex.*;
-import java.util.*;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 
 @Service
 public class Test {
 	
-	@Value("${alloy.model.path}")
-    private String modelPath = "";
+    @Autowired
+    private ModelCache modelCache;
 
     public JSONObject runAlloyModel(String predicate, String run) {
-        String modelContent;
-        
-        String userPredicate = "\n\npred userDefinedPredicate {\n"
-        	    + predicate
-        	    + "}\n"
-        	    + run;
-        System.out.println(userPredicate);
+        System.out.println(CompiledModel.userPredicate(predicate, run));
 
         try {
-            // Read the existing model from file
-            modelContent = new String(Files.readAllBytes(Paths.get(modelPath)));
-            // Append the user-defined predicate at the end of the model
-            modelContent += userPredicate;
-
-            // Parse the modified Alloy model from string
-            Module world = CompUtil.parseEverything_fromString(null, modelContent);
+            // Resolve the user predicate against the cached forward model
+            CompiledQuery query = modelCache.get("forward").prepare(predicate, run);
 
             // Options for the Alloy solver
             A4Options options = new A4Options();
             options.solver = SATFactory.get("minisat");
 
             // Execute the model
-            A4Solution solution = TranslateAlloyToKodkod.execute_command(null, world.getAllReachableSigs(), world.getAllCommands().get(world.getAllCommands().size() - 1), options);
+            A4Solution solution = query.execute(options);
 
             // Process the solution
             if (solution.satisfiable()) {
                 // Convert solution to JSON
             	System.out.println(solution.toString());
-                JSONObject jsonOutput = convertToJSON(solution.toString());
+                JSONObject jsonOutput = convertToJSON(solution);
                 return jsonOutput;
             } else {
                 System.out.println("No solution found.");
@@ -64,53 +51,22 @@ public class Test {
         } catch (Err e) {
             e.printStackTrace();
             return new JSONObject().put("error", "Error during Alloy model execution: " + e.getMessage()).put("success", false);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return new JSONObject().put("error", "Error reading the Alloy model file: " + e.getMessage()).put("success", false);
         }
     }
 
-    private JSONObject convertToJSON(String alloyOutput) {
-    	// Use regex to split input by "------State X-------"
-        String[] states = alloyOutput.split("------State \\d+-------\n");
+    private JSONObject convertToJSON(A4Solution solution) {
+        SolutionDecoder decoder = new SolutionDecoder(solution);
         JSONArray jsonStates = new JSONArray();
-        int stateIndex = 0;
 
-        for (String state : states) {
-            if (state.trim().isEmpty()) continue;
+        for (int stateIndex = 0; stateIndex < decoder.stateCount(); stateIndex++) {
+            TraceState state = decoder.state(stateIndex);
 
             JSONObject jsonState = new JSONObject();
-            jsonState.put("state", stateIndex++);
-            
-            Matcher matcher = Pattern.compile("this/now=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                jsonState.put("now", new JSONArray(matcher.group(1).split(",\\s*")));
-            } else {
-                jsonState.put("now", new JSONArray());
-            }
-
-            matcher = Pattern.compile("this/Event=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                jsonState.put("events", new JSONArray(matcher.group(1).split(",\\s*")));
-            }
-
-            matcher = Pattern.compile("this/Event<:date=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                String[] relations = matcher.group(1).split(",\\s*");
-                JSONObject eventDateRelationships = new JSONObject();
-                for (String relation : relations) {
-                    String[] parts = relation.split("->");
-                    eventDateRelationships.put(parts[0], parts[1]);
-                }
-                jsonState.put("event_date", eventDateRelationships);
-            }
-            
-            matcher = Pattern.compile("this/pastExpunged=\\{([^}]*)\\}").matcher(state);
-            if (matcher.find()) {
-                jsonState.put("expunged", new JSONArray(matcher.group(1).split(",\\s*")));
-            } else {
-                jsonState.put("expunged", new JSONArray());
-            }
+            jsonState.put("state", stateIndex);
+            jsonState.put("now", new JSONArray(state.atoms("now")));
+            jsonState.put("events", new JSONArray(state.atoms("Event")));
+            jsonState.put("event_date", new JSONObject(state.eventDates()));
+            jsonState.put("expunged", new JSONArray(state.atoms("pastExpunged")));
 
             // Initialize the date attributes object
             JSONObject dateAttributes = new JSONObject();
@@ -0,0 +1,304 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Debug captures of slow, failing, timed out and sampled solves, written to a
+ * local directory off the request thread. A capture holds the request, the
+ * full model text it was solved against, the raw solution and the timings.
+ *
+ * Captures hold client data, so they are off unless alloy.capture.enabled is
+ * set and are read only through the "captures" actuator endpoint, which is
+ * not exposed unless the operator adds it. Each capture is stored under an id
+ * of its own, never under the client's request id; the request id is kept
+ * inside the capture and logged next to the capture id.
+ *
+ * Only the solve that actually ran is captured: requests answered from the
+ * result cache or merged into an identical running solve have no capture of
+ * their own. The directory keeps the newest captures up to a fixed count, and
+ * captures that arrive while the writer is backed up are dropped.
+ */
+@Service
+public class TraceCapture {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceCapture.class);
+
+    private static final Pattern REQUEST_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String SUFFIX = ".json";
+
+    @Value("${alloy.capture.enabled:false}")
+    private boolean enabled;
+
+    // Fraction of solves captured regardless of how they went
+    @Value("${alloy.capture.sample-rate:0.0}")
+    private double sampleRate;
+
+    // Solves that take at least this long are always captured
+    @Value("${alloy.capture.slow-ms:10000}")
+    private long slowMs = 10000;
+
+    @Value("${alloy.capture.dir:${java.io.tmpdir}/alloy-captures}")
+    private String dir = System.getProperty("java.io.tmpdir") + "/alloy-captures";
+
+    @Value("${alloy.capture.max-captures:500}")
+    private int maxCaptures = 500;
+
+    private final ThreadPoolExecutor writer;
+    // Capture files, oldest first
+    private final Deque<Path> files = new ArrayDeque<>();
+
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    public TraceCapture(@Value("${alloy.capture.queue-capacity:32}") int queueCapacity) {
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "alloy-capture");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> dropped.incrementAndGet());
+    }
+
+    @PostConstruct
+    public void loadExisting() {
+        Path directory = Paths.get(dir);
+        if (!enabled || !Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(existing::add);
+        } catch (IOException e) {
+            log.warn("Could not list captures in {}", directory, e);
+            return;
+        }
+        existing.sort(Comparator.comparingLong(TraceCapture::modified));
+        synchronized (files) {
+            files.addAll(existing);
+        }
+    }
+
+    /**
+     * A fresh id for a request that did not bring its own, and for every capture.
+     */
+    public static String newRequestId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Whether a client-supplied request id can be used as is.
+     */
+    public static boolean isValidRequestId(String requestId) {
+        return requestId != null && REQUEST_ID.matcher(requestId).matches();
+    }
+
+    /**
+     * Captures the solve if it failed, timed out, was slow or is sampled. Cheap
+     * when it is not captured; otherwise the capture is built and written on the
+     * capture thread.
+     *
+     * @param model   the model the request was solved against
+     * @param outcome the solve result, or null if the solve failed
+     * @param error   why the solve failed, or null
+     */
+    public void record(String kind, AlloyRequest request, CompiledModel model, SolveOutcome outcome, long elapsedMs, Throwable error) {
+        record(kind, request, model, outcome == null ? null : () -> describe(outcome), elapsedMs, error);
+    }
+
+    /**
+     * As {@link #record(String, AlloyRequest, CompiledModel, SolveOutcome, long, Throwable)},
+     * for a solve on a worker that described its outcome with {@link #describe(SolveOutcome)}.
+     */
+    public void recordWorker(String kind, AlloyRequest request, CompiledModel model, JSONObject outcome, long elapsedMs, Throwable error) {
+        record(kind, request, model, outcome == null ? null : () -> outcome, elapsedMs, error);
+    }
+
+    /**
+     * What a capture keeps of a solve outcome: its timings, whether it was
+     * satisfiable and the solution.
+     */
+    public static JSONObject describe(SolveOutcome outcome) {
+        return new JSONObject()
+                .put("timings", outcome.describe(new JSONObject()))
+                .put("satisfiable", outcome.getSolution().satisfiable())
+                .put("solution", outcome.getSolution().toString());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void record(String kind, AlloyRequest request, CompiledModel model, Supplier<JSONObject> outcome, long elapsedMs, Throwable error) {
+        if (!enabled) {
+            return;
+        }
+        String reason;
+        if (error instanceof SolveTimeoutException) {
+            reason = "timeout";
+        } else if (error instanceof SolveCancelledException) {
+            // The client went away; nothing to debug
+            return;
+        } else if (error != null) {
+            reason = "error";
+        } else if (elapsedMs >= slowMs) {
+            reason = "slow";
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            reason = "sampled";
+        } else {
+            return;
+        }
+        String captureId = newRequestId();
+        Instant at = Instant.now();
+        writer.execute(() -> {
+            try {
+                write(captureId, capture(captureId, at, reason, kind, request, model, outcome, elapsedMs, error));
+            } catch (RuntimeException e) {
+                failedWrites.incrementAndGet();
+                log.warn("Could not capture request {}", request.getRequestId(), e);
+            }
+        });
+    }
+
+    /**
+     * The capture with the given capture id, or null if there is none.
+     */
+    public JSONObject get(String captureId) throws IOException {
+        if (!isValidRequestId(captureId)) {
+            throw new InvalidRequestException("Invalid capture id: " + captureId);
+        }
+        Path file = Paths.get(dir).resolve(captureId + SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        return new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+    }
+
+    private JSONObject capture(String captureId, Instant at, String reason, String kind, AlloyRequest request,
+            CompiledModel model, Supplier<JSONObject> outcome, long elapsedMs, Throwable error) {
+        JSONObject json = new JSONObject()
+                .put("captureId", captureId)
+                .putOpt("requestId", request.getRequestId())
+                .put("capturedAt", at.toString())
+                .put("reason", reason)
+                .put("kind", kind)
+                .put("elapsedMs", elapsedMs);
+        json.put("request", new JSONObject()
+                .put("type", request.getType())
+                .put("predicate", request.getPredicate())
+                .put("run", request.getRun())
+                .putOpt("solver", request.getSolver())
+                .putOpt("timeoutMs", request.getTimeoutMs())
+                .putOpt("adaptiveSteps", request.getAdaptiveSteps())
+                .putOpt("specializeDates", request.getSpecializeDates()));
+        if (model != null) {
+            json.put("model", model.getName())
+                    .put("modelText", model.getText() + CompiledModel.userPredicate(request.getPredicate(), request.getRun()));
+        }
+        if (outcome != null) {
+            JSONObject described = outcome.get();
+            for (String key : described.keySet()) {
+                json.put(key, described.get(key));
+            }
+        }
+        if (error != null) {
+            json.put("error", error.getClass().getSimpleName() + ": " + error.getMessage());
+        }
+        return json;
+    }
+
+    private void write(String captureId, JSONObject capture) {
+        Path directory = Paths.get(dir);
+        Path file = directory.resolve(captureId + SUFFIX);
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, captureId, ".tmp");
+            Files.writeString(temp, capture.toString(2), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            failedWrites.incrementAndGet();
+            log.warn("Could not write capture {}", file, e);
+            return;
+        }
+        synchronized (files) {
+            files.remove(file);
+            files.addLast(file);
+            while (files.size() > maxCaptures) {
+                Path oldest = files.removeFirst();
+                try {
+                    Files.deleteIfExists(oldest);
+                } catch (IOException e) {
+                    log.warn("Could not delete old capture {}", oldest, e);
+                }
+            }
+        }
+        captured.incrementAndGet();
+        log.info("Captured {} request {} as {} ({})", capture.getString("kind"), capture.optString("requestId"),
+                captureId, capture.getString("reason"));
+    }
+
+    private static long modified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    public JSONObject stats() {
+        int stored;
+        synchronized (files) {
+            stored = files.size();
+        }
+        return new JSONObject()
+                .put("enabled", enabled)
+                .put("sampleRate", sampleRate)
+                .put("slowMs", slowMs)
+                .put("stored", stored)
+                .put("maxCaptures", maxCaptures)
+                .put("captured", captured.get())
+                .put("dropped", dropped.get())
+                .put("failedWrites", failedWrites.get())
+                .put("queued", writer.getQueue().size());
+    }
+}
@@ -0,0 +1,215 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.translator.A4Solution;
+
+/**
+ * Streams decoded trace states over server-sent events as they are decoded,
+ * optionally followed by further distinct solutions from {@link A4Solution#next()}.
+ *
+ * Events: "state" for each trace state, "solution" with the regular /run or
+ * /evaluate result once a solution is complete, "done" at the end and "error"
+ * if solving fails or runs past the request deadline. Solving stops as soon as
+ * the client goes away.
+ *
+ * Requests are admitted and queued as /run and /evaluate requests are: a
+ * malformed one is turned away before it takes a solver slot, and the rest are
+ * scheduled by cost and client. The objective, if any, picks the first
+ * solution, and the requested fields shape the "state" and /run "solution"
+ * events. With the worker pool on, the solve runs on a worker, which sends the
+ * whole trace at once and only the first solution.
+ */
+@Service
+public class TraceStreamer {
+
+    @Autowired
+    private ModelCache modelCache;
+
+    @Autowired
+    private SolverExecutor solverExecutor;
+
+    @Autowired
+    private SolverSelection solverSelection;
+
+    @Autowired
+    private SolvePipeline solvePipeline;
+
+    @Autowired
+    private AlloyService alloyService;
+
+    @Autowired
+    private AlloyResult alloyResult;
+
+    @Autowired
+    private WorkerDispatch workerDispatch;
+
+    @Value("${alloy.stream.max-solutions:10}")
+    private int maxSolutions = 10;
+
+    @Value("${alloy.stream.timeout-ms:600000}")
+    private long timeoutMs = 600000;
+
+    /**
+     * Starts streaming the request. kind is "run" or "evaluate" and selects the
+     * shape of the "solution" events.
+     */
+    public SseEmitter stream(AlloyRequest request, String kind) {
+        return stream(request, kind, new SseEmitter(timeoutMs));
+    }
+
+    SseEmitter stream(AlloyRequest request, String kind, SseEmitter emitter) {
+        String solver;
+        RunProjection projection;
+        CompiledModel model;
+        try {
+            solver = solverSelection.mode(request.getSolver());
+            SolvePipeline.objective(request.getObjective());
+            projection = RunProjection.of(request.getFields(), request.getStates());
+            model = modelCache.get(request.getJurisdiction(), request.getType(), request.getPredicate(), request.getSpecializeDates());
+            // Malformed requests are turned away here rather than after taking a solver slot
+            QueryValidator.admit(model, request.getPredicate(), request.getRun());
+        } catch (InvalidRequestException | Err e) {
+            fail(emitter, e);
+            return emitter;
+        }
+
+        int limit = Math.max(1, Math.min(maxSolutions, request.getSolutions() == null ? 1 : request.getSolutions()));
+        long solveTimeoutMs = solverExecutor.timeoutMs(request.getTimeoutMs());
+        boolean adaptive = Boolean.TRUE.equals(request.getAdaptiveSteps());
+        SolveMonitor monitor = new SolveMonitor();
+        CompletableFuture<?> solve;
+        if (workerDispatch.isEnabled()) {
+            String job = "evaluate".equals(kind) ? WorkerPool.EVALUATE : WorkerPool.RUN;
+            solve = workerDispatch.submit(job, request, model, solver, adaptive, solveTimeoutMs, true, monitor)
+                    .thenAccept(result -> sendWorkerResult(emitter, result));
+        } else {
+            solve = solverExecutor.submit(monitor, solveTimeoutMs, SolveCost.of(model.getName(), request.getRun()), request.getClientId(), () -> {
+                solve(request, kind, model, solver, adaptive, projection, limit, emitter, monitor);
+                return null;
+            });
+        }
+        emitter.onCompletion(() -> stop(monitor, solve, "Stream closed"));
+        emitter.onTimeout(() -> stop(monitor, solve, "Stream timed out"));
+        emitter.onError(error -> stop(monitor, solve, "Client went away"));
+        solve.exceptionally(ex -> {
+            Throwable cause = SolverExecutor.unwrap(ex);
+            // A plain cancellation means the stream is already gone
+            if (!(cause instanceof SolveCancelledException) || cause instanceof SolveTimeoutException) {
+                fail(emitter, cause);
+            }
+            return null;
+        });
+        return emitter;
+    }
+
+    private static void stop(SolveMonitor monitor, CompletableFuture<?> solve, String reason) {
+        monitor.cancel(reason);
+        solve.cancel(true);
+    }
+
+    private void solve(AlloyRequest request, String kind, CompiledModel model, String solver, boolean adaptive,
+            RunProjection projection, int limit, SseEmitter emitter, SolveMonitor monitor) {
+        try {
+            int count = solvePipeline.solve(kind, request, model, solver, adaptive, monitor, (outcome, optimized) -> {
+                A4Solution solution = outcome.getSolution();
+                int sent = 0;
+                while (solution.satisfiable() && sent < limit && !monitor.isCancelled()) {
+                    SolutionDecoder decoder = new SolutionDecoder(solution);
+                    for (int i = 0; i < decoder.stateCount() && !monitor.isCancelled(); i++) {
+                        JSONObject state = request.getFields() == null ? alloyService.convertState(decoder.state(i)) : projection.state(decoder, i);
+                        send(emitter, "state", state.put("solution", sent));
+                    }
+                    JSONObject result;
+                    if ("evaluate".equals(kind)) {
+                        JSONArray eventData = alloyResult.convertToJSONArray(solution);
+                        result = new JSONObject().put("success", !eventData.isEmpty()).put("data", eventData);
+                    } else {
+                        result = projection.decode(decoder);
+                    }
+                    outcome.describe(result).put("solution", sent);
+                    // Only the first solution is the one the objective was proved for
+                    if (optimized != null && sent == 0) {
+                        optimized.describe(result);
+                    }
+                    send(emitter, "solution", result);
+                    sent++;
+
+                    if (sent < limit && !monitor.isCancelled()) {
+                        monitor.checkpoint();
+                        solution = solution.next();
+                    }
+                }
+                return sent;
+            });
+            if (!monitor.isCancelled()) {
+                send(emitter, "done", new JSONObject().put("solutions", count));
+                emitter.complete();
+            }
+        } catch (IOException e) {
+            // The client disconnected; nothing left to send
+            monitor.cancel("Client went away");
+        } catch (SolveCancelledException e) {
+            // Reported once, by the submitting future
+            throw e;
+        } catch (RuntimeException e) {
+            fail(emitter, e);
+        }
+    }
+
+    // A worker's result holds the whole trace; it is sent as the in-process stream would send it
+    private void sendWorkerResult(SseEmitter emitter, JSONObject result) {
+        try {
+            JSONArray states = (JSONArray) result.remove("states");
+            int count = 0;
+            if (states != null) {
+                for (int i = 0; i < states.length(); i++) {
+                    send(emitter, "state", states.getJSONObject(i).put("solution", 0));
+                }
+                send(emitter, "solution", result.put("solution", 0));
+                count = 1;
+            }
+            send(emitter, "done", new JSONObject().put("solutions", count));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // The client disconnected; nothing left to send
+        }
+    }
+
+    private void send(SseEmitter emitter, String name, JSONObject data) throws IOException {
+        emitter.send(SseEmitter.event().name(name).data(data.toString()));
+    }
+
+    private void fail(SseEmitter emitter, Throwable error) {
+        try {
+            JSONObject data = new JSONObject().put("success", false).put("error", String.valueOf(error.getMessage()));
+            if (error instanceof SolveTimeoutException) {
+                data.put("errorCode", SolveTimeoutException.ERROR_CODE);
+            } else if (error instanceof InvalidQueryException) {
+                data.put("errorCode", InvalidQueryException.ERROR_CODE)
+                        .put("location", ((InvalidQueryException) error).getError().toJSON());
+            }
+            send(emitter, "error", data);
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(error);
+        }
+    }
+}
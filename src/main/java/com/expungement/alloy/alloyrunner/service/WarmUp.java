@@ -0,0 +1,115 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+
+import edu.mit.csail.sdg.translator.A4Solution;
+
+/**
+ * Runs the canned requests in warmup/requests.json end to end (resolve,
+ * translate, solve, decode) a few times at startup, so class loading, the
+ * native solver libraries and the first JIT passes happen before the service
+ * reports ready rather than on the first client requests.
+ *
+ * The requests are solved directly, not through the result cache or the solver
+ * pool, and do not show up in the request metrics.
+ */
+@Service
+public class WarmUp {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmUp.class);
+
+    @Value("${alloy.warmup.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${alloy.warmup.iterations:3}")
+    private int iterations = 3;
+
+    @Value("${alloy.warmup.timeout-ms:60000}")
+    private long timeoutMs = 60000;
+
+    @Autowired
+    private ModelRegistry modelRegistry;
+
+    @Autowired
+    private SolverSelection solverSelection;
+
+    @Autowired
+    private AlloyService alloyService;
+
+    @Autowired
+    private AlloyResult alloyResult;
+
+    /**
+     * Runs the warm-up and returns how long each request took per iteration.
+     * Failures are logged; they never stop the application from starting.
+     */
+    public JSONObject run() {
+        JSONObject report = new JSONObject().put("enabled", enabled);
+        if (!enabled) {
+            return report;
+        }
+        JSONArray requests;
+        try {
+            requests = new JSONArray(resource("warmup/requests.json"));
+        } catch (IOException e) {
+            log.warn("No warm-up requests: {}", e.getMessage());
+            return report;
+        }
+
+        long start = System.nanoTime();
+        JSONArray timings = new JSONArray();
+        for (int i = 0; i < requests.length(); i++) {
+            JSONObject request = requests.getJSONObject(i);
+            JSONArray times = new JSONArray();
+            try {
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    long begin = System.nanoTime();
+                    solve(request);
+                    times.put((System.nanoTime() - begin) / 1_000_000);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Warm-up request {} failed: {}", request.optString("type"), e.getMessage());
+            }
+            timings.put(new JSONObject().put("type", request.optString("type")).put("ms", times));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        log.info("Warm-up finished in {} ms: {}", elapsedMs, timings);
+        return report.put("elapsedMs", elapsedMs).put("requests", timings);
+    }
+
+    private void solve(JSONObject request) {
+        CompiledQuery query = modelRegistry.get(request.optString("jurisdiction", null), request.getString("type"))
+                .prepare(request.getString("predicate"), request.getString("run"));
+        SolveMonitor monitor = new SolveMonitor().startDeadline(timeoutMs);
+        SolveOutcome outcome = solverSelection.solve(query, null, monitor);
+        A4Solution solution = outcome.getSolution();
+        if (solution.satisfiable()) {
+            // The /run and /evaluate responses
+            alloyService.convertToJSONFull(solution);
+            alloyResult.convertToJSONArray(solution);
+        }
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream stream = WarmUp.class.getClassLoader().getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
+/**
+ * Sends solves to the {@link WorkerPool} through the solver pool, so with
+ * workers on a request is admitted, queued by cost, shared out between
+ * clients and recorded in the solve metrics and trace captures as an
+ * in-process solve is. The pool thread waits for the worker; when the solve is
+ * cancelled or passes its deadline the job is cancelled on the worker, and the
+ * worker is killed if it does not stop.
+ *
+ * Solver threads bound how many jobs are on workers or in their queue at once,
+ * so alloy.solver.threads is best set to alloy.workers.count.
+ */
+@Service
+public class WorkerDispatch {
+
+    // How often a waiting pool thread checks the monitor
+    private static final long CANCEL_POLL_MS = 100;
+
+    @Autowired
+    private WorkerPool workerPool;
+
+    @Autowired
+    private SolverExecutor solverExecutor;
+
+    @Autowired
+    private SolveMetrics metrics;
+
+    @Autowired
+    private TraceCapture traceCapture;
+
+    public boolean isEnabled() {
+        return workerPool.isEnabled();
+    }
+
+    /**
+     * Queues a run or evaluate job as {@link SolverExecutor#submit(SolveMonitor, long, SolveCost, String, java.util.function.Supplier)}
+     * queues an in-process solve, and completes with the worker's response
+     * body. With trace the body also holds the solution's "states" for a stream.
+     * Cancelling the monitor or the returned future cancels the job.
+     */
+    public CompletableFuture<JSONObject> submit(String kind, AlloyRequest request, CompiledModel model, String solver,
+            boolean adaptive, long timeoutMs, boolean trace, SolveMonitor monitor) {
+        return solverExecutor.submit(monitor, timeoutMs, SolveCost.of(model.getName(), request.getRun()), request.getClientId(),
+                () -> solve(kind, request, model, solver, adaptive, timeoutMs, trace, monitor));
+    }
+
+    private JSONObject solve(String kind, AlloyRequest request, CompiledModel model, String solver, boolean adaptive,
+            long timeoutMs, boolean trace, SolveMonitor monitor) {
+        String tag = SolveMetrics.modelTag(request.getType());
+        long start = System.nanoTime();
+        CompletableFuture<JSONObject> job = workerPool.submit(kind, request, model, solver, adaptive, timeoutMs, trace,
+                traceCapture.isEnabled());
+        try {
+            JSONObject result = await(job, monitor);
+            JSONObject outcome = (JSONObject) result.remove("outcome");
+            JSONObject capture = (JSONObject) result.remove("capture");
+            if (outcome != null) {
+                metrics.solved(tag, outcome);
+            }
+            traceCapture.recordWorker(kind, request, model, capture, (System.nanoTime() - start) / 1_000_000, null);
+            return result;
+        } catch (SolverBusyException e) {
+            // The worker queue is full; nothing was solved
+            throw e;
+        } catch (RuntimeException e) {
+            metrics.failed(tag, solver, e);
+            traceCapture.recordWorker(kind, request, model, null, (System.nanoTime() - start) / 1_000_000, e);
+            throw e;
+        }
+    }
+
+    // Waits for the job, cancelling it when the monitor is cancelled or the thread interrupted at the deadline
+    private static JSONObject await(CompletableFuture<JSONObject> job, SolveMonitor monitor) {
+        try {
+            while (true) {
+                try {
+                    return job.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    monitor.checkpoint();
+                }
+            }
+        } catch (SolveCancelledException e) {
+            job.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            job.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SolveCancelledException("Worker job cancelled");
+        } catch (CancellationException e) {
+            throw new SolveCancelledException("Worker job cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+}
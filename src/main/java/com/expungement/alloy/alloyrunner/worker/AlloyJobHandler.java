@@ -0,0 +1,111 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.CompiledQuery;
+import com.expungement.alloy.alloyrunner.engine.Objective;
+import com.expungement.alloy.alloyrunner.engine.SolutionDecoder;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveOutcome;
+import com.expungement.alloy.alloyrunner.service.AlloyResult;
+import com.expungement.alloy.alloyrunner.service.AlloyService;
+import com.expungement.alloy.alloyrunner.service.RunProjection;
+import com.expungement.alloy.alloyrunner.service.SolveMetrics;
+import com.expungement.alloy.alloyrunner.service.SolverSelection;
+import com.expungement.alloy.alloyrunner.service.TraceCapture;
+
+import edu.mit.csail.sdg.translator.A4Solution;
+
+/**
+ * Solves run and evaluate jobs the way the web tier does, and builds the same
+ * response bodies. Jobs carry the model text; compiled models are kept by
+ * content hash, so a worker parses each model once.
+ *
+ * Results also carry the "outcome" the web tier records in its solve
+ * metrics. A job with "trace" set also gets the "states" a stream sends for
+ * the solution, as the stream would have built them, and one with "capture"
+ * set what a trace capture keeps of the solve.
+ */
+class AlloyJobHandler implements SolverWorker.JobHandler {
+
+    private static final int MAX_MODELS = 8;
+
+    private final SolverSelection solvers = new SolverSelection();
+    // The request decoding is stateless, so a plain instance will do
+    private final AlloyResult evaluations = new AlloyResult();
+    private final AlloyService runs = new AlloyService();
+    private final Map<String, CompiledModel> models = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledModel> eldest) {
+            return size() > MAX_MODELS;
+        }
+    };
+
+    AlloyJobHandler() {
+        solvers.probe();
+    }
+
+    @Override
+    public JSONObject handle(JSONObject job, SolveMonitor monitor) throws Exception {
+        CompiledModel model = model(job.getJSONObject("model"));
+        CompiledQuery query = model.prepare(job.getString("predicate"), job.getString("run"));
+        String solver = job.getString("solver");
+        boolean adaptive = job.optBoolean("adaptive");
+        Function<CompiledQuery, SolveOutcome> solve = next -> solvers.solve(next, solver, monitor, adaptive);
+        Objective optimized = job.has("objective") ? Objective.optimize(query, job.getString("objective"), solve, monitor) : null;
+        SolveOutcome outcome = optimized != null ? optimized.getOutcome() : solve.apply(query);
+        A4Solution solution = outcome.getSolution();
+        List<String> fields = fields(job.optJSONArray("fields"));
+        RunProjection projection = RunProjection.of(fields, job.optString("states", null));
+
+        JSONObject result;
+        if (WorkerPool.RUN.equals(job.getString("kind"))) {
+            result = outcome.describe(solution.satisfiable() ? projection.decode(new SolutionDecoder(solution)) : projection.empty());
+        } else {
+            JSONArray data = solution.satisfiable() ? evaluations.convertToJSONArray(solution) : new JSONArray();
+            result = outcome.describe(new JSONObject().put("success", !data.isEmpty()).put("data", data));
+        }
+        if (job.optBoolean("trace") && solution.satisfiable()) {
+            SolutionDecoder decoder = new SolutionDecoder(solution);
+            JSONArray states = new JSONArray();
+            for (int i = 0; i < decoder.stateCount(); i++) {
+                states.put(fields == null ? runs.convertState(decoder.state(i)) : projection.state(decoder, i));
+            }
+            result.put("states", states);
+        }
+        result.put("outcome", SolveMetrics.describe(outcome));
+        if (job.optBoolean("capture")) {
+            result.put("capture", TraceCapture.describe(outcome));
+        }
+        return optimized != null ? optimized.describe(result) : result;
+    }
+
+    private static List<String> fields(JSONArray fields) {
+        if (fields == null) {
+            return null;
+        }
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < fields.length(); i++) {
+            names.add(fields.getString(i));
+        }
+        return names;
+    }
+
+    private CompiledModel model(JSONObject spec) throws Exception {
+        String hash = spec.getString("hash");
+        CompiledModel model = models.get(hash);
+        if (model == null) {
+            model = CompiledModel.compile(spec.getString("name"), spec.getString("text"), spec.optBoolean("partialInstance"));
+            models.put(hash, model);
+        }
+        return model;
+    }
+}
@@ -0,0 +1,36 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * The worker protocol over a pair of streams: one JSON object per line.
+ */
+abstract class LineConnection implements WorkerConnection {
+
+    private final BufferedReader in;
+    private final OutputStream out;
+
+    LineConnection(InputStream in, OutputStream out) {
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void send(JSONObject message) throws IOException {
+        out.write((message.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Override
+    public JSONObject receive() throws IOException {
+        String line = in.readLine();
+        return line == null ? null : new JSONObject(line);
+    }
+}
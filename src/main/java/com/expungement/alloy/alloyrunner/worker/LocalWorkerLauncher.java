@@ -0,0 +1,69 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.function.Supplier;
+
+/**
+ * Runs workers as threads in this JVM, connected through pipes. Nothing is
+ * isolated, but the protocol and the pool behave as they do with processes,
+ * which is what tests and local development need.
+ */
+public class LocalWorkerLauncher implements WorkerLauncher {
+
+    private static final int PIPE_SIZE = 1 << 16;
+
+    private final Supplier<SolverWorker.JobHandler> handlers;
+
+    public LocalWorkerLauncher(Supplier<SolverWorker.JobHandler> handlers) {
+        this.handlers = handlers;
+    }
+
+    @Override
+    public WorkerConnection launch(int slot) throws IOException {
+        PipedInputStream toWorker = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream requests = new PipedOutputStream(toWorker);
+        PipedInputStream responses = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream fromWorker = new PipedOutputStream(responses);
+
+        SolverWorker worker = new SolverWorker(handlers.get());
+        Thread thread = new Thread(() -> {
+            try {
+                worker.serve(toWorker, fromWorker);
+            } catch (IOException e) {
+                // The pool closed the pipes
+            } finally {
+                try {
+                    fromWorker.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }, "alloy-local-worker-" + slot);
+        thread.setDaemon(true);
+        thread.start();
+
+        return new LineConnection(responses, requests) {
+            @Override
+            public boolean isAlive() {
+                return thread.isAlive();
+            }
+
+            @Override
+            public void close() {
+                worker.stop();
+                try {
+                    requests.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "local worker " + slot;
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs each worker as a child JVM talking over its stdin and stdout, with its
+ * own heap limit. A worker that runs out of memory exits, and only the job it
+ * was running fails.
+ */
+public class ProcessWorkerLauncher implements WorkerLauncher {
+
+    // Spring Boot's launcher, for starting another main class from the executable jar
+    private static final String BOOT_LAUNCHER = "org.springframework.boot.loader.launch.PropertiesLauncher";
+
+    private final List<String> command;
+
+    public ProcessWorkerLauncher(List<String> command) {
+        this.command = command;
+    }
+
+    /**
+     * The command for a worker JVM with the given heap limit (e.g. "1g"), on the
+     * same java and class path as this one.
+     */
+    public static List<String> defaultCommand(String maxHeap) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + maxHeap);
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        String classPath = System.getProperty("java.class.path");
+        command.add("-cp");
+        command.add(classPath);
+        if (classPath.endsWith(".jar") && !classPath.contains(File.pathSeparator)) {
+            // Running from the executable jar, whose own classes sit under BOOT-INF
+            command.add("-Dloader.main=" + SolverWorker.class.getName());
+            command.add(BOOT_LAUNCHER);
+        } else {
+            command.add(SolverWorker.class.getName());
+        }
+        return command;
+    }
+
+    /**
+     * A command given as one string, split on whitespace.
+     */
+    public static List<String> parseCommand(String command) {
+        return Arrays.asList(command.trim().split("\\s+"));
+    }
+
+    @Override
+    public WorkerConnection launch(int slot) throws IOException {
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        return new LineConnection(process.getInputStream(), process.getOutputStream()) {
+            @Override
+            public boolean isAlive() {
+                return process.isAlive();
+            }
+
+            @Override
+            public void close() {
+                process.destroyForcibly();
+            }
+
+            @Override
+            public String toString() {
+                return "worker " + slot + " (pid " + process.pid() + ")";
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+
+/**
+ * A solver worker: reads jobs and writes results, one JSON object per line, and
+ * solves one job at a time. Run as a process ({@link #main}) it talks over stdin
+ * and stdout.
+ *
+ * <pre>
+ * job:      {"id": 7, "kind": "run", "model": {"name", "hash", "text", "partialInstance"},
+ *            "predicate", "run", "solver", "adaptive", "objective", "fields", "states",
+ *            "trace", "capture", "timeoutMs"}
+ * cancel:   {"cancel": 7}
+ * response: {"id": 7, "ok": true, "result": {...}, "heapUsed", "heapMax"}
+ *           {"id": 7, "ok": false, "errorType": "timeout" | "cancelled" | "error", "error", "heapUsed", "heapMax"}
+ * </pre>
+ *
+ * The heap figures let the pool recycle a worker under memory pressure.
+ */
+public class SolverWorker {
+
+    /**
+     * Solves one job, returning the response body the web tier would have built.
+     */
+    public interface JobHandler {
+        JSONObject handle(JSONObject job, SolveMonitor monitor) throws Exception;
+    }
+
+    private final JobHandler handler;
+    private final ExecutorService solver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "alloy-worker-solve");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, SolveMonitor> running = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    public SolverWorker(JobHandler handler) {
+        this.handler = handler;
+    }
+
+    public static void main(String[] args) throws IOException {
+        PrintStream protocol = System.out;
+        // Anything Alloy or a logger prints must not end up in the protocol stream
+        System.setOut(System.err);
+        new SolverWorker(new AlloyJobHandler()).serve(System.in, protocol);
+        System.exit(0);
+    }
+
+    /**
+     * Serves jobs until the input ends or {@link #stop()} is called, then waits
+     * for the job in hand.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while (!stopped && (line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject message = new JSONObject(line);
+                if (message.has("cancel")) {
+                    SolveMonitor monitor = running.get(message.getLong("cancel"));
+                    if (monitor != null) {
+                        monitor.cancel("Request cancelled");
+                    }
+                    continue;
+                }
+                long id = message.getLong("id");
+                SolveMonitor monitor = new SolveMonitor();
+                running.put(id, monitor);
+                solver.execute(() -> {
+                    try {
+                        write(out, solve(id, message, monitor));
+                    } finally {
+                        running.remove(id);
+                    }
+                });
+            }
+        } finally {
+            solver.shutdown();
+            try {
+                solver.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops reading jobs and cancels the one running.
+     */
+    public void stop() {
+        stopped = true;
+        running.values().forEach(monitor -> monitor.cancel("Worker stopped"));
+    }
+
+    private JSONObject solve(long id, JSONObject job, SolveMonitor monitor) {
+        JSONObject response = new JSONObject().put("id", id);
+        try {
+            monitor.startDeadline(job.optLong("timeoutMs", 0));
+            response.put("ok", true).put("result", handler.handle(job, monitor));
+        } catch (SolveTimeoutException e) {
+            response.put("ok", false).put("errorType", "timeout").put("error", e.getMessage());
+        } catch (SolveCancelledException e) {
+            response.put("ok", false).put("errorType", "cancelled").put("error", e.getMessage());
+        } catch (Exception | StackOverflowError e) {
+            response.put("ok", false).put("errorType", "error").put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return response.put("heapUsed", runtime.totalMemory() - runtime.freeMemory()).put("heapMax", runtime.maxMemory());
+    }
+
+    private static void write(OutputStream out, JSONObject message) {
+        synchronized (out) {
+            try {
+                out.write((message.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                // The pool has gone away; the input will end too
+            }
+        }
+    }
+}
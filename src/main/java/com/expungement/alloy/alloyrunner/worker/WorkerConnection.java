@@ -0,0 +1,27 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.IOException;
+
+import org.json.JSONObject;
+
+/**
+ * One end of the line protocol to a solver worker (see {@link SolverWorker}),
+ * wherever the worker runs.
+ */
+public interface WorkerConnection {
+
+    void send(JSONObject message) throws IOException;
+
+    /**
+     * The next message from the worker, blocking until one arrives; null once
+     * the worker has gone away.
+     */
+    JSONObject receive() throws IOException;
+
+    boolean isAlive();
+
+    /**
+     * Stops the worker, without waiting for the job it is running.
+     */
+    void close();
+}
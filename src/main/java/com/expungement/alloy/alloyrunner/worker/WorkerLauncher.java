@@ -0,0 +1,16 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.IOException;
+
+/**
+ * Starts solver workers for the {@link WorkerPool}. Local processes are one
+ * implementation; workers on other nodes only need a launcher that connects to
+ * them and speaks the same protocol.
+ */
+public interface WorkerLauncher {
+
+    /**
+     * Starts a worker for the given pool slot.
+     */
+    WorkerConnection launch(int slot) throws IOException;
+}
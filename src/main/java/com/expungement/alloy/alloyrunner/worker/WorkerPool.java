@@ -0,0 +1,413 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.service.SolverBusyException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs solves on worker JVMs instead of on the web JVM's solver threads, so a
+ * solve that exhausts its heap or never returns takes down one worker and fails
+ * one request, not the service. Off by default. Requests reach it through
+ * {@link com.expungement.alloy.alloyrunner.service.WorkerDispatch}, which still
+ * queues them on the solver pool.
+ *
+ * Each worker slot has a dispatcher thread that takes jobs from a bounded queue
+ * (full means {@link SolverBusyException}) and sends them to its worker one at a
+ * time. A worker that is still silent a grace period after the job's deadline
+ * is killed and the job fails with a {@link SolveTimeoutException}; a worker
+ * that exits fails its job and is started again. Workers are also replaced
+ * after a number of jobs or when they report a nearly full heap, before
+ * fragmentation and leaked native memory become failures.
+ *
+ * Jobs carry the model text, so workers hold no state the pool has to restore,
+ * and a {@link WorkerLauncher} that connects to workers on other nodes spreads
+ * solving across machines without changes here.
+ */
+@Service
+public class WorkerPool {
+
+    public static final String RUN = "run";
+    public static final String EVALUATE = "evaluate";
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerPool.class);
+
+    // Time past the deadline a worker gets to report its own timeout before it is killed
+    private static final long GRACE_MS = 5000;
+    // How often a running job is checked for cancellation
+    private static final long CANCEL_POLL_MS = 100;
+    // Marks the end of a worker's output in its response queue
+    private static final JSONObject EXITED = new JSONObject();
+
+    private final boolean enabled;
+    private final String mode;
+    private final int count;
+    private final String maxHeap;
+    private final int maxJobs;
+    private final double recycleHeapFraction;
+    private final String command;
+    private final int retryAfterSeconds;
+    private final BlockingQueue<Job> queue;
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private final List<Slot> slots = new ArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private volatile boolean stopped;
+
+    public WorkerPool(@Value("${alloy.workers.enabled:false}") boolean enabled,
+            @Value("${alloy.workers.mode:process}") String mode,
+            @Value("${alloy.workers.count:2}") int count,
+            @Value("${alloy.workers.max-heap:1g}") String maxHeap,
+            @Value("${alloy.workers.max-jobs:200}") int maxJobs,
+            @Value("${alloy.workers.recycle-heap-fraction:0.8}") double recycleHeapFraction,
+            @Value("${alloy.workers.queue-capacity:64}") int queueCapacity,
+            @Value("${alloy.workers.command:}") String command,
+            @Value("${alloy.solver.retry-after-seconds:5}") int retryAfterSeconds) {
+        this.enabled = enabled;
+        this.mode = mode.trim().toLowerCase();
+        this.count = Math.max(1, count);
+        this.maxHeap = maxHeap;
+        this.maxJobs = maxJobs;
+        this.recycleHeapFraction = recycleHeapFraction;
+        this.command = command;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (mode.equals("local")) {
+            start(new LocalWorkerLauncher(AlloyJobHandler::new));
+        } else if (mode.equals("process")) {
+            start(new ProcessWorkerLauncher(command == null || command.isBlank()
+                    ? ProcessWorkerLauncher.defaultCommand(maxHeap) : ProcessWorkerLauncher.parseCommand(command)));
+        } else {
+            throw new IllegalArgumentException("Unknown worker mode " + mode + " (expected process or local)");
+        }
+    }
+
+    /**
+     * Starts the dispatchers; workers are launched when their first job arrives.
+     */
+    synchronized void start(WorkerLauncher launcher) {
+        for (int i = 0; i < count; i++) {
+            Slot slot = new Slot(i, launcher);
+            slots.add(slot);
+            Thread thread = new Thread(() -> dispatch(slot), "alloy-worker-dispatch-" + i);
+            thread.setDaemon(true);
+            dispatchers.add(thread);
+            thread.start();
+        }
+        log.info("Started {} solver worker slots", count);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a run or evaluate job. The future completes with the response body
+     * the web tier would have built, fails with a {@link SolverBusyException}
+     * when the queue is full and with a {@link SolveTimeoutException} or
+     * {@link SolveCancelledException} as in-process solves do. Cancelling it
+     * drops the job, or cancels the solve on its worker.
+     */
+    public CompletableFuture<JSONObject> submit(String kind, AlloyRequest request, CompiledModel model,
+            String solver, boolean adaptive, long timeoutMs) {
+        return submit(kind, request, model, solver, adaptive, timeoutMs, false, false);
+    }
+
+    /**
+     * Queues a job as {@link #submit(String, AlloyRequest, CompiledModel, String, boolean, long)}
+     * does. The result also holds the "outcome" of the solve for the solve
+     * metrics; with trace the "states" a stream sends for the solution found,
+     * if any, and with capture what a trace capture keeps of the solve.
+     */
+    public CompletableFuture<JSONObject> submit(String kind, AlloyRequest request, CompiledModel model,
+            String solver, boolean adaptive, long timeoutMs, boolean trace, boolean capture) {
+        long id = ids.incrementAndGet();
+        JSONObject message = new JSONObject()
+                .put("id", id)
+                .put("kind", kind)
+                .put("model", new JSONObject()
+                        .put("name", model.getName())
+                        .put("hash", model.getContentHash())
+                        .put("text", model.getText())
+                        .put("partialInstance", model.hasPartialInstance()))
+                .put("predicate", request.getPredicate())
+                .put("run", request.getRun())
+                .put("solver", solver)
+                .put("adaptive", adaptive)
+                .putOpt("objective", request.getObjective())
+                .putOpt("fields", request.getFields())
+                .putOpt("states", request.getStates())
+                .put("trace", trace)
+                .put("capture", capture)
+                .put("timeoutMs", timeoutMs);
+        Job job = new Job(id, message, timeoutMs);
+        if (stopped || !queue.offer(job)) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new SolverBusyException(retryAfterSeconds));
+        }
+        return job.result;
+    }
+
+    private void dispatch(Slot slot) {
+        while (!stopped) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job.result.isDone()) {
+                // Cancelled while it was queued
+                continue;
+            }
+            busy.incrementAndGet();
+            try {
+                run(slot, job);
+            } catch (InterruptedException e) {
+                job.result.completeExceptionally(new SolveCancelledException("Worker pool stopped"));
+                return;
+            } finally {
+                busy.decrementAndGet();
+            }
+        }
+    }
+
+    private void run(Slot slot, Job job) throws InterruptedException {
+        try {
+            slot.ensureStarted();
+            slot.connection.send(job.message);
+        } catch (IOException e) {
+            log.warn("Could not send job {} to worker {}", job.id, slot.index, e);
+            fail(job, new IllegalStateException("Solver worker unavailable: " + e.getMessage()));
+            slot.restart();
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + job.timeoutMs + GRACE_MS;
+        boolean cancelSent = false;
+        while (true) {
+            // Cancellations are sent from here, so only the dispatcher ever writes to its worker
+            if (!cancelSent && job.result.isCancelled()) {
+                slot.cancel(job.id);
+                cancelSent = true;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            JSONObject response = slot.responses.poll(Math.max(0, Math.min(remaining, CANCEL_POLL_MS)), TimeUnit.MILLISECONDS);
+            if (response == null && remaining > CANCEL_POLL_MS) {
+                continue;
+            }
+            if (response == null) {
+                log.warn("Worker {} did not answer job {} within {} ms; killing it", slot.index, job.id, job.timeoutMs + GRACE_MS);
+                timedOut.incrementAndGet();
+                fail(job, new SolveTimeoutException(job.timeoutMs));
+                slot.restart();
+                return;
+            }
+            if (response == EXITED) {
+                log.warn("Worker {} exited while solving job {}", slot.index, job.id);
+                fail(job, new IllegalStateException("Solver worker exited"));
+                slot.restart();
+                return;
+            }
+            if (response.optLong("id") != job.id) {
+                // Left over from a job that was given up on
+                continue;
+            }
+            complete(job, response);
+            slot.jobs++;
+            if (slot.jobs >= maxJobs || heapFraction(response) > recycleHeapFraction) {
+                log.info("Recycling worker {} after {} jobs", slot.index, slot.jobs);
+                recycled.incrementAndGet();
+                slot.stop();
+            }
+            return;
+        }
+    }
+
+    private void complete(Job job, JSONObject response) {
+        if (response.optBoolean("ok")) {
+            completed.incrementAndGet();
+            job.result.complete(response.getJSONObject("result"));
+            return;
+        }
+        String error = response.optString("error");
+        switch (response.optString("errorType")) {
+            case "timeout":
+                timedOut.incrementAndGet();
+                fail(job, new SolveTimeoutException(job.timeoutMs));
+                break;
+            case "cancelled":
+                fail(job, new SolveCancelledException(error));
+                break;
+            default:
+                fail(job, new IllegalStateException(error));
+        }
+    }
+
+    private void fail(Job job, RuntimeException error) {
+        failed.incrementAndGet();
+        job.result.completeExceptionally(error);
+    }
+
+    private static double heapFraction(JSONObject response) {
+        long max = response.optLong("heapMax");
+        return max > 0 ? (double) response.optLong("heapUsed") / max : 0;
+    }
+
+    public JSONObject stats() {
+        JSONObject stats = new JSONObject().put("enabled", enabled);
+        if (!enabled) {
+            return stats;
+        }
+        int alive = 0;
+        synchronized (this) {
+            for (Slot slot : slots) {
+                WorkerConnection connection = slot.connection;
+                if (connection != null && connection.isAlive()) {
+                    alive++;
+                }
+            }
+        }
+        return stats
+                .put("mode", mode)
+                .put("workers", count)
+                .put("alive", alive)
+                .put("busy", busy.get())
+                .put("queued", queue.size())
+                .put("queueCapacity", queue.size() + queue.remainingCapacity())
+                .put("completed", completed.get())
+                .put("failed", failed.get())
+                .put("rejected", rejected.get())
+                .put("timedOut", timedOut.get())
+                .put("restarts", restarts.get())
+                .put("recycled", recycled.get())
+                .put("maxJobs", maxJobs);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        stopped = true;
+        dispatchers.forEach(Thread::interrupt);
+        slots.forEach(Slot::stop);
+        Job job;
+        while ((job = queue.poll()) != null) {
+            job.result.completeExceptionally(new SolveCancelledException("Worker pool stopped"));
+        }
+    }
+
+    private static final class Job {
+        final long id;
+        final JSONObject message;
+        final long timeoutMs;
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+
+        Job(long id, JSONObject message, long timeoutMs) {
+            this.id = id;
+            this.message = message;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    /**
+     * A worker slot: the current worker, if any, and the responses read from it.
+     * Only the slot's dispatcher starts and stops workers.
+     */
+    private final class Slot {
+        final int index;
+        final WorkerLauncher launcher;
+        volatile WorkerConnection connection;
+        BlockingQueue<JSONObject> responses;
+        int jobs;
+
+        Slot(int index, WorkerLauncher launcher) {
+            this.index = index;
+            this.launcher = launcher;
+        }
+
+        void ensureStarted() throws IOException {
+            if (connection != null && connection.isAlive()) {
+                return;
+            }
+            stop();
+            WorkerConnection started = launcher.launch(index);
+            BlockingQueue<JSONObject> read = new LinkedBlockingQueue<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    JSONObject response;
+                    while ((response = started.receive()) != null) {
+                        read.add(response);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Lost the connection to {}", started, e);
+                } finally {
+                    read.add(EXITED);
+                }
+            }, "alloy-worker-read-" + index);
+            reader.setDaemon(true);
+            reader.start();
+            responses = read;
+            connection = started;
+            jobs = 0;
+            log.debug("Started {}", started);
+        }
+
+        void restart() {
+            restarts.incrementAndGet();
+            stop();
+        }
+
+        void stop() {
+            WorkerConnection current = connection;
+            connection = null;
+            if (current != null) {
+                current.close();
+            }
+        }
+
+        void cancel(long id) {
+            WorkerConnection current = connection;
+            if (current == null) {
+                return;
+            }
+            try {
+                current.send(new JSONObject().put("cancel", id));
+            } catch (IOException e) {
+                // The worker is gone, and the dispatcher will notice
+            }
+        }
+    }
+}
@@ -3,7 +3,8 @@ package com.expungement.alloy.alloyrunner;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// Warm-up solves every canned request at startup; the context check does not need it
+@SpringBootTest(properties = "alloy.warmup.enabled=false")
 class AlloyRunnerApplicationTests {
 
 	@Test
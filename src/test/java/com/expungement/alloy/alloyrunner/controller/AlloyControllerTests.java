@@ -0,0 +1,35 @@
+package com.expungement.alloy.alloyrunner.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AlloyControllerTests {
+
+	@Test
+	void clientsAreToldApartByAddressUnlessATrustedProxyNamesThem() {
+		AlloyController controller = new AlloyController();
+		ReflectionTestUtils.setField(controller, "trustedProxies", "10.0.0.1, 10.0.0.2");
+
+		// A caller cannot pick a new fair share for every request
+		assertEquals("203.0.113.9", controller.clientId(request("203.0.113.9", "fresh-id")));
+		assertEquals("203.0.113.9", controller.clientId(request("203.0.113.9", null)));
+		assertEquals("clinic-7", controller.clientId(request("10.0.0.2", "clinic-7")));
+		assertEquals("10.0.0.1", controller.clientId(request("10.0.0.1", " ")));
+
+		MockHttpServletRequest signedIn = request("203.0.113.9", "fresh-id");
+		signedIn.setUserPrincipal(() -> "alice");
+		assertEquals("alice", controller.clientId(signedIn));
+	}
+
+	private static MockHttpServletRequest request(String address, String clientId) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setRemoteAddr(address);
+		if (clientId != null) {
+			request.addHeader(AlloyController.CLIENT_ID_HEADER, clientId);
+		}
+		return request;
+	}
+}
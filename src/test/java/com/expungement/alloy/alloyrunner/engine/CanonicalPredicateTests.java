@@ -0,0 +1,60 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class CanonicalPredicateTests {
+
+	@Test
+	void renamedAndReorderedRecordsShareOneText() {
+		CanonicalPredicate first = CanonicalPredicate.of(
+				"some disj c1, c2: Felony, o: OWI | c1.date = d2010 and c2.date = d2012 and o.date = d2014\n");
+		CanonicalPredicate second = CanonicalPredicate.of(
+				"some o: OWI, disj b, a: Felony | a.date = d2012 && o.date = d2014 and b.date = d2010");
+
+		assertTrue(first.isRenamed());
+		assertEquals("some disj ev0, ev1: Felony, ev2: OWI | ev0.date=d2010 and ev1.date=d2012 and ev2.date=d2014\n", first.getText());
+		assertEquals(first.getText(), second.getText());
+		assertEquals("c1", first.originalName("ev0"));
+		assertEquals("b", second.originalName("ev0"));
+		assertEquals("o", second.originalName("ev2"));
+	}
+
+	@Test
+	void declarationsKeepTheirDisjointness() {
+		assertNotEquals(CanonicalPredicate.of("some disj a, b: Felony | a.date = d2010").getText(),
+				CanonicalPredicate.of("some a: Felony, b: Felony | a.date = d2010").getText());
+	}
+
+	@Test
+	void unsupportedShapesAreLeftAsTheyAre() {
+		for (String predicate : new String[] {
+				"some a, b: Felony | a.date = d2012 or b.date = d2010",
+				"some a: Felony | a.date = d2012 => a in Assaultive",
+				"some a: Felony | all x: Expungement | a not in x.con",
+				"some a: Felony { a.date = d2012 }",
+				"no Felony" }) {
+			CanonicalPredicate canonical = CanonicalPredicate.of(predicate);
+			assertFalse(canonical.isRenamed(), predicate);
+			assertEquals(predicate, canonical.getText());
+		}
+	}
+
+	@Test
+	void restoresTheCallersEventNames() {
+		CanonicalPredicate canonical = CanonicalPredicate.of("some x: Expungement, f: Felony | f in x.con and f.date = d2015");
+		JSONArray events = new JSONArray()
+				.put(new JSONObject().put("id", "ev1").put("event", "Felony$0"))
+				.put(new JSONObject().put("id", "").put("event", "OWI$0"));
+
+		canonical.restoreIds(events);
+		assertEquals("f", events.getJSONObject(0).getString("id"));
+		assertEquals("", events.getJSONObject(1).getString("id"));
+	}
+}
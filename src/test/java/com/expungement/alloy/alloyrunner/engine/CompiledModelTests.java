@@ -0,0 +1,82 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.parser.CompModule;
+import edu.mit.csail.sdg.parser.CompUtil;
+
+class CompiledModelTests {
+
+	private static final String PREDICATE = "some disj c1, c2: Felony | c1.date = d2010 and c2.date = d2012\n";
+
+	private static CompiledModel model;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		try (InputStream stream = CompiledModelTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			model = CompiledModel.compile("models/michigan.als", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void runCommandMatchesFullParse() throws Exception {
+		String[] runs = {
+				"run userDefinedPredicate",
+				"run userDefinedPredicate for 5 but exactly 2 Felony, 10 steps",
+				"run userDefinedPredicate for 3 Felony, 2..8 steps expect 1",
+				"run userDefinedPredicate for 4 but exactly 6 steps -- trailing comment"
+		};
+		for (String run : runs) {
+			CompiledQuery query = model.prepare(PREDICATE, run);
+			CompModule full = CompUtil.parseEverything_fromString(null, query.modelText());
+			Command expected = full.getAllCommands().get(full.getAllCommands().size() - 1);
+			assertEquals(expected.toString(), query.getCommand().toString());
+			assertEquals(expected.minprefix, query.getCommand().minprefix);
+			assertEquals(expected.maxprefix, query.getCommand().maxprefix);
+		}
+	}
+
+	@Test
+	void unsupportedCommandFallsBackToFullParse() throws Exception {
+		CompiledQuery query = model.prepare(PREDICATE, "run userDefinedPredicate for 5 String");
+		assertEquals("Run userDefinedPredicate for 5 String", query.getCommand().toString());
+	}
+
+	@Test
+	void checkPlacesErrorsInTheRequest() {
+		String run = "run userDefinedPredicate for 5 but exactly 2 Felony, 10 steps";
+		assertNull(model.check(PREDICATE, run, true));
+
+		QueryError name = model.check("some c: Felony |\n  c.dat = d2010\n", run, false);
+		assertEquals(QueryError.PREDICATE, name.getPart());
+		assertEquals(2, name.getLine());
+		assertEquals(5, name.getColumn());
+		assertEquals("syntax", name.getKind());
+
+		// Ends too early: reported at the end of the predicate
+		QueryError truncated = model.check("some c: Felony | c.date = \n", run, false);
+		assertEquals(1, truncated.getLine());
+		assertEquals(26, truncated.getColumn());
+
+		assertEquals("type", model.check("Felony", run, false).getKind());
+	}
+
+	@Test
+	void onlyACompleteCheckParsesUnsupportedRunCommands() {
+		String run = "run userDefinedPredicate for 5 but exactly 2 Felonyy, 10 steps";
+		assertNull(model.check(PREDICATE, run, false));
+		QueryError error = model.check(PREDICATE, run, true);
+		assertEquals(QueryError.RUN, error.getPart());
+		assertEquals(1, error.getLine());
+		// Alloy points at the start of the scope
+		assertEquals(36, error.getColumn());
+	}
+}
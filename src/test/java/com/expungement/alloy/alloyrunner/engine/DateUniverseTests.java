@@ -0,0 +1,103 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.StringJoiner;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.mit.csail.sdg.translator.A4Options;
+import kodkod.engine.satlab.SATFactory;
+
+class DateUniverseTests {
+
+	private static String text;
+
+	@BeforeAll
+	static void load() throws Exception {
+		try (InputStream stream = DateUniverseTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			text = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	void rangeCoversRequestAndLongestWindowEitherSide() {
+		DateUniverse dates = DateUniverse.forRequest(text, "some c: Felony | c.date = d2019 -- not d2005\n");
+		assertEquals("d2012-d2026", dates.label());
+		assertNull(DateUniverse.forRequest(text, "some c: Felony | no c.exp\n"));
+	}
+
+	@Test
+	void rangesOutsideTheSupportedYearsAreNotWithinBounds() {
+		// Padding stops at the supported years
+		assertEquals("d2092-d2100", DateUniverse.forRequest(text, "some c: Felony | c.date = d2099\n").label());
+		assertFalse(DateUniverse.forRequest(text, "some c: Felony | c.date = d1000\n").isWithin(80));
+		assertFalse(DateUniverse.forRequest(text, "some c: Felony | c.date = d9999\n").isWithin(80));
+		DateUniverse wide = DateUniverse.forRequest(text, "some disj c1, c2: Felony | c1.date = d1950 and c2.date = d2050\n");
+		assertEquals("d1943-d2057", wide.label());
+		assertEquals(115, wide.years());
+		assertFalse(wide.isWithin(80));
+		assertTrue(DateUniverse.forRequest(text, "some c: Felony | c.date = d2019\n").isWithin(80));
+	}
+
+	@Test
+	void specializedModelOnlyDeclaresTheRange() throws Exception {
+		String predicate = "some disj c1, c2: Felony | c1.date = d2021 and c2.date = d2030\n";
+		String specialized = DateUniverse.forRequest(text, predicate).specialize(text);
+		assertFalse(specialized.contains("d2013"));
+		assertTrue(specialized.contains("d2036->d2037 in ordering/next"));
+		assertTrue(specialized.contains("withinFive = d2014->d2015 + d2014->d2016"));
+
+		CompiledModel model = CompiledModel.compile("michigan.als[d2014-d2037]", specialized, true);
+		assertEquals("Run userDefinedPredicate for 5", model.prepare(predicate, "run userDefinedPredicate for 5").getCommand().toString());
+	}
+
+	@Test
+	void specializingKeepsUndatedEventsSatisfiable() throws Exception {
+		// The conviction has no date of its own and has to fall at least three years before its expungement
+		String predicate = "some x: Expungement, c: Conviction | x.date = d2016 and c in x.con\n";
+		String run = "run userDefinedPredicate for 4";
+		String base = waitingPeriodModel(2010, 2020);
+		DateUniverse dates = DateUniverse.forRequest(base, predicate);
+		assertEquals("d2013-d2019", dates.label());
+
+		assertTrue(satisfiable(CompiledModel.compile("waiting.als", base), predicate, run));
+		assertTrue(satisfiable(CompiledModel.compile("waiting.als[" + dates.label() + "]", dates.specialize(base), true), predicate, run));
+	}
+
+	private static boolean satisfiable(CompiledModel model, String predicate, String run) throws Exception {
+		A4Options options = new A4Options();
+		options.solver = SATFactory.get("sat4j");
+		options.inferPartialInstance = model.hasPartialInstance();
+		return new SolveMonitor().execute(model.prepare(predicate, run), options).satisfiable();
+	}
+
+	// A model with a date section like michigan.als and a three year waiting period
+	private static String waitingPeriodModel(int from, int to) {
+		StringJoiner dates = new StringJoiner(", ");
+		StringJoiner next = new StringJoiner(" + ");
+		for (int year = from; year <= to; year++) {
+			dates.add("d" + year);
+			if (year < to) {
+				next.add("d" + year + "->d" + (year + 1));
+			}
+		}
+		return "open util/ordering[Date]\n\n"
+				+ DateUniverse.BEGIN + "\n"
+				+ "one sig " + dates + " extends Date {}\n"
+				+ "fact {\n\t" + next + " in ordering/next\n}\n"
+				+ "fact {\n\tall d1: Date | d1.withinThree = d1.(ordering/next + ordering/next.ordering/next)\n}\n"
+				+ DateUniverse.END + "\n\n"
+				+ "sig Date { withinThree: set Date }\n"
+				+ "abstract sig Event { date: one Date }\n"
+				+ "sig Conviction extends Event {}\n"
+				+ "sig Expungement extends Event { con: set Conviction }\n"
+				+ "fact {\n\tall x: Expungement, c: x.con | x.date in c.date.^(ordering/next) - c.date.withinThree\n}\n";
+	}
+}
@@ -0,0 +1,130 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.translator.A4Options;
+import kodkod.engine.satlab.SATFactory;
+
+class ObjectiveTests {
+
+	private static final String RUN = "run userDefinedPredicate for 5 but exactly 2 Felony, exactly 1 Misdemeanor, exactly 1 Expungement, 6 steps";
+
+	// Three convictions, of which at most two can be expunged and at least one has a violation
+	private static final String PLANS = "sig Conviction {}\n"
+			+ "var sig pastExpunged in Conviction {}\n"
+			+ "var sig forwardWaitingViolations in Conviction {}\n"
+			+ "fact {\n\talways (pastExpunged in pastExpunged' and forwardWaitingViolations in forwardWaitingViolations')\n}\n"
+			+ "fact {\n\talways no pastExpunged & forwardWaitingViolations\n}\n"
+			+ "fact {\n\talways not (some disj a, b, c: Conviction | a + b + c in pastExpunged)\n}\n"
+			+ "fact {\n\teventually some forwardWaitingViolations\n}\n";
+	private static final String PLANS_RUN = "run userDefinedPredicate for 3 but exactly 3 Conviction, 4 steps";
+
+	private static CompiledModel model;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		try (InputStream stream = ObjectiveTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			model = CompiledModel.compile("models/michigan.als", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void boundsAreCardinalityConstraintsOverDisjointConvictions() {
+		assertEquals("eventually (some disj optimized0, optimized1: Conviction | optimized0 + optimized1 in pastExpunged)",
+				Objective.atLeast(2, "pastExpunged"));
+		assertEquals("always no (A + B)", Objective.atMost(0, "A + B"));
+		assertEquals("always not (some disj optimized0, optimized1: Conviction | optimized0 + optimized1 in (A + B))",
+				Objective.atMost(1, "A + B"));
+	}
+
+	@Test
+	void boundedQueriesKeepTheRecordShape() throws Exception {
+		String[] predicates = {
+				"some disj f1, f2: Felony, m: Misdemeanor, x: Expungement | f1.date = d2010 and f2.date = d2012 and m.date = d2014 and f1 in x.con\n",
+				// Spread over lines, which the fast path cannot wrap
+				"some disj f1, f2: Felony, m: Misdemeanor, x: Expungement | f1.date = d2010\nsome Expungement\n"
+		};
+		for (String predicate : predicates) {
+			CompiledQuery query = model.prepare(predicate, RUN);
+			String shape = RecordShape.of(query).key();
+			assertEquals(shape, RecordShape.of(query.and(Objective.atLeast(3, "pastExpunged"))).key());
+			assertEquals(shape, RecordShape.of(query.and(Objective.atMost(1, "sec1_1bViolations + forwardWaitingViolations"))).key());
+		}
+	}
+
+	@Test
+	void onlyKnownObjectivesAreAccepted() {
+		assertTrue(Objective.isKnown(Objective.MAX_EXPUNGED));
+		assertTrue(Objective.isKnown(Objective.MIN_VIOLATIONS));
+		assertFalse(Objective.isKnown("max-violations"));
+	}
+
+	@Test
+	void maxExpungedImprovesOnTheFirstPlanUntilNoneIsBetter() throws Exception {
+		// The first plan expunges nothing, so at least one better plan and the proof are solved after it
+		List<Integer> values = new ArrayList<>();
+		Objective objective = Objective.optimize(plans(), Objective.MAX_EXPUNGED,
+				firstRestricted("always no pastExpunged", "pastExpunged", values), new SolveMonitor());
+
+		assertEquals(0, values.get(0));
+		assertTrue(objective.isOptimal());
+		assertEquals(2, objective.getValue());
+		assertTrue(objective.getIterations() >= 3);
+		assertEquals(2, new SolutionDecoder(objective.getOutcome().getSolution()).lastState().atoms("pastExpunged").size());
+		JSONObject optimization = objective.describe(new JSONObject()).getJSONObject("optimization");
+		assertEquals(3, optimization.getInt("unsatBound"));
+	}
+
+	@Test
+	void minViolationsImprovesOnTheFirstPlanUntilNoneIsBetter() throws Exception {
+		// The first plan has every conviction violating
+		List<Integer> values = new ArrayList<>();
+		Objective objective = Objective.optimize(plans(), Objective.MIN_VIOLATIONS,
+				firstRestricted("eventually Conviction in forwardWaitingViolations", "forwardWaitingViolations", values),
+				new SolveMonitor());
+
+		assertEquals(3, values.get(0));
+		assertTrue(objective.isOptimal());
+		assertEquals(1, objective.getValue());
+		assertTrue(objective.getIterations() >= 3);
+		assertEquals(1, new SolutionDecoder(objective.getOutcome().getSolution()).lastState().atoms("forwardWaitingViolations").size());
+		JSONObject optimization = objective.describe(new JSONObject()).getJSONObject("optimization");
+		assertEquals(0, optimization.getInt("unsatBound"));
+	}
+
+	private static CompiledQuery plans() throws Err {
+		return CompiledModel.compile("plans.als", PLANS).prepare("some Conviction\n", PLANS_RUN);
+	}
+
+	// Solves with sat4j, adding the restriction to the first query only so the first plan is not the best one
+	private static Function<CompiledQuery, SolveOutcome> firstRestricted(String restriction, String sig, List<Integer> values) {
+		return query -> {
+			try {
+				A4Options options = new A4Options();
+				options.solver = SATFactory.get("sat4j");
+				CompiledQuery solved = values.isEmpty() ? query.and(restriction) : query;
+				SolveOutcome outcome = new SolveOutcome(new SolveMonitor().execute(solved, options), "sat4j", Map.of(), 0, 0);
+				if (outcome.getSolution().satisfiable()) {
+					values.add(new SolutionDecoder(outcome.getSolution()).lastState().atoms(sig).size());
+				}
+				return outcome;
+			} catch (Err e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+}
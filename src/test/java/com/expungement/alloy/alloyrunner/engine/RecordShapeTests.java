@@ -0,0 +1,45 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class RecordShapeTests {
+
+	private static final String PREDICATE = "some disj c1, c2: Felony, x: Expungement | c1.date = d2010 and c2.date = d2012 and c1 in x.con\n";
+
+	private static CompiledModel model;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		try (InputStream stream = RecordShapeTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			model = CompiledModel.compile("models/michigan.als", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void declaredEventsAreCountedPerSig() throws Exception {
+		CompiledQuery query = model.prepare(PREDICATE, "run userDefinedPredicate for 5 but 10 steps");
+		RecordShape shape = RecordShape.of(query);
+		assertEquals("Felony=2,Expungement=1", shape.key());
+		assertEquals(3, shape.declaredEvents());
+	}
+
+	@Test
+	void datesDoNotChangeTheShape() throws Exception {
+		CompiledQuery query = model.prepare(PREDICATE, "run userDefinedPredicate for 5 but 10 steps");
+		CompiledQuery later = model.prepare(PREDICATE.replace("d2012", "d2014"), "run userDefinedPredicate for 5 but 10 steps");
+		assertEquals(RecordShape.of(query).key(), RecordShape.of(later).key());
+	}
+
+	@Test
+	void eventsOutsideTopLevelQuantifiersAreNotCounted() throws Exception {
+		CompiledQuery query = model.prepare("some x: Expungement | x.date = d2015 and (all c: Felony | c in x.con)\n",
+				"run userDefinedPredicate for 5 but 10 steps");
+		assertEquals("Expungement=1", RecordShape.of(query).key());
+	}
+}
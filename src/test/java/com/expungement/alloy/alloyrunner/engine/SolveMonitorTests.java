@@ -0,0 +1,70 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.mit.csail.sdg.translator.A4Options;
+import kodkod.engine.satlab.SATFactory;
+
+class SolveMonitorTests {
+
+	// Thirteen pigeons in twelve holes without symmetry breaking: UNSAT, and far too hard for SAT4J to finish during a test
+	private static final String MODEL = "sig Pigeon { hole: one Hole }\nsig Hole {}\n";
+	private static final String PREDICATE = "all h: Hole | lone hole.h\n";
+	private static final String RUN = "run userDefinedPredicate for exactly 13 Pigeon, exactly 12 Hole";
+
+	private static CompiledQuery query;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		query = CompiledModel.compile("pigeons.als", MODEL).prepare(PREDICATE, RUN);
+	}
+
+	@Test
+	void onlySat4jIsMadeStoppable() {
+		SolveMonitor monitor = new SolveMonitor();
+		assertInstanceOf(StoppableSat4j.class, monitor.stoppable(SATFactory.get("sat4j")));
+		SATFactory other = SATFactory.get("sat4j.light");
+		assertSame(other, monitor.stoppable(other));
+	}
+
+	@Test
+	void cancellingStopsTheSatSearch() throws Exception {
+		SolveMonitor monitor = new SolveMonitor();
+		CompletableFuture<?> solve = CompletableFuture.runAsync(() -> monitor.execute(query, options(monitor)));
+		while (monitor.getVariables() == 0 && !solve.isDone()) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+		monitor.cancel("Another solver finished first");
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> solve.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(SolveCancelledException.class, e.getCause());
+	}
+
+	@Test
+	void theDeadlineStopsTheSatSearch() throws Exception {
+		SolveMonitor monitor = new SolveMonitor().startDeadline(500);
+		long start = System.nanoTime();
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> CompletableFuture.runAsync(() -> monitor.execute(query, options(monitor))).get(10, TimeUnit.SECONDS));
+		assertInstanceOf(SolveTimeoutException.class, e.getCause());
+		assertTrue((System.nanoTime() - start) / 1_000_000 < 5000);
+	}
+
+	private static A4Options options(SolveMonitor monitor) {
+		A4Options options = new A4Options();
+		options.solver = monitor.stoppable(SATFactory.get("sat4j"));
+		options.symmetry = 0;
+		return options;
+	}
+}
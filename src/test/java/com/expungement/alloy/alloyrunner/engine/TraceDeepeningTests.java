@@ -0,0 +1,78 @@
+package com.expungement.alloy.alloyrunner.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.mit.csail.sdg.ast.Command;
+import edu.mit.csail.sdg.translator.A4Options;
+import kodkod.engine.satlab.SATFactory;
+
+class TraceDeepeningTests {
+
+	private static CompiledModel model;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		try (InputStream stream = TraceDeepeningTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			model = CompiledModel.compile("models/michigan.als", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void minimumStepsCountQuantifiedEvents() throws Exception {
+		String predicate = "some disj c1, c2: Felony, x: Expungement | c1.date = d2010 and c2.date = d2012 and c1 in x.con\n";
+		assertEquals(4, TraceDeepening.minSteps(model.prepare(predicate, "run userDefinedPredicate for 5 but 10 steps")));
+	}
+
+	@Test
+	void minimumStepsUseExactScopesWhenLarger() throws Exception {
+		String predicate = "some c: Felony | c.date = d2010\n";
+		CompiledQuery query = model.prepare(predicate, "run userDefinedPredicate for 5 but exactly 2 Felony, exactly 1 Expungement, 10 steps");
+		assertEquals(4, TraceDeepening.minSteps(query));
+		// The full parser path counts the same
+		query = model.prepare(predicate, "run userDefinedPredicate for 5 but exactly 2 Felony, exactly 1 Expungement, 10 steps, 5 String");
+		assertEquals(4, TraceDeepening.minSteps(query));
+	}
+
+	@Test
+	void theCommandsLowerStepBoundIsKept() throws Exception {
+		String predicate = "some c: Felony | c.date = d2010\n";
+		CompiledQuery query = model.prepare(predicate, "run userDefinedPredicate for 5 but 6..10 steps");
+		assertEquals(6, TraceDeepening.minSteps(query.getCommand(), query));
+		// Never past the upper bound
+		query = model.prepare(predicate, "run userDefinedPredicate for 5 but 1..2 steps");
+		assertEquals(2, TraceDeepening.minSteps(query.getCommand(), query));
+	}
+
+	@Test
+	void oneSolveCoversEveryTraceLengthFromTheLowerBound() throws Exception {
+		// Satisfiable with a trace of two states, so the lower bound decides the length found
+		CompiledModel flags = CompiledModel.compile("flags.als", "var sig Flag {}\nfact {\n\tno Flag and after some Flag\n}\n");
+		List<Command> commands = new ArrayList<>();
+		SolveOutcome outcome = TraceDeepening.solve(flags.prepare("some Flag or no Flag\n", "run userDefinedPredicate for 1 but 4..6 steps"),
+				bounded -> {
+					commands.add(bounded.getCommand());
+					try {
+						A4Options options = new A4Options();
+						options.solver = SATFactory.get("sat4j");
+						return new SolveOutcome(new SolveMonitor().execute(bounded, options), "sat4j", Map.of(), 0, 0);
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}, new SolveMonitor());
+
+		assertEquals(1, commands.size());
+		assertEquals(4, commands.get(0).minprefix);
+		assertEquals(6, commands.get(0).maxprefix);
+		assertEquals(4, outcome.getSteps());
+		assertEquals(4, outcome.getSolution().getTraceLength());
+	}
+}
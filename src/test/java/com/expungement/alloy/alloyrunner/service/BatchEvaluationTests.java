@@ -0,0 +1,137 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+class BatchEvaluationTests {
+
+	@Test
+	void itemsAreWrittenAsTheyFinishAndTheWindowRefillsAtOnce() throws Exception {
+		CompletableFuture<JSONObject> slow = new CompletableFuture<>();
+		List<CompletableFuture<JSONObject>> results = List.of(slow,
+				CompletableFuture.completedFuture(new JSONObject().put("n", 1)),
+				CompletableFuture.completedFuture(new JSONObject().put("n", 2)));
+		List<Integer> submitted = new CopyOnWriteArrayList<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> {
+			try {
+				new BatchEvaluation().stream(requests(3), out, request -> {
+					int index = Integer.parseInt(request.getRequestId().substring(1));
+					submitted.add(index);
+					return results.get(index);
+				}, 2);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		// The first item is still running, yet the third was submitted and both later items written
+		for (int i = 0; i < 100 && lines(out).size() < 2; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(List.of(0, 1, 2), submitted);
+		assertEquals(List.of(1, 2), indexes(lines(out)));
+
+		slow.complete(new JSONObject().put("n", 0));
+		batch.get(5, TimeUnit.SECONDS);
+		List<JSONObject> lines = lines(out);
+		assertEquals(List.of(1, 2, 0), indexes(lines));
+		assertEquals(0, lines.get(2).getJSONObject("result").getInt("n"));
+		assertEquals("r0", lines.get(2).getString("requestId"));
+	}
+
+	@Test
+	void inFlightItemsAreCancelledWhenTheClientGoesAway() {
+		List<CompletableFuture<JSONObject>> results = List.of(
+				CompletableFuture.completedFuture(new JSONObject()), new CompletableFuture<>(), new CompletableFuture<>());
+		OutputStream gone = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Broken pipe");
+			}
+		};
+
+		assertThrows(IOException.class, () -> new BatchEvaluation().stream(requests(3), gone,
+				request -> results.get(Integer.parseInt(request.getRequestId().substring(1))), 3));
+		assertTrue(results.get(1).isCancelled());
+		assertTrue(results.get(2).isCancelled());
+	}
+
+	@Test
+	void itemsPastTheirDeadlineAreCancelled() throws Exception {
+		BatchEvaluation evaluation = new BatchEvaluation();
+		ReflectionTestUtils.setField(evaluation, "itemTimeoutMs", 100L);
+		CompletableFuture<JSONObject> stuck = new CompletableFuture<>();
+		List<CompletableFuture<JSONObject>> results = List.of(stuck, CompletableFuture.completedFuture(new JSONObject()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		evaluation.stream(requests(2), out, request -> results.get(Integer.parseInt(request.getRequestId().substring(1))), 2);
+		List<JSONObject> lines = lines(out);
+		assertEquals(List.of(1, 0), indexes(lines));
+		assertEquals("error", lines.get(1).getString("status"));
+		assertTrue(lines.get(1).getString("error").startsWith("Timed out"));
+		assertTrue(stuck.isCancelled());
+	}
+
+	@Test
+	void anItemThatThrowsOnSubmitOnlyFailsItself() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BatchEvaluation().stream(requests(3), out, request -> {
+			if (request.getRequestId().equals("r1")) {
+				throw new IllegalStateException("No predicate");
+			}
+			return CompletableFuture.completedFuture(new JSONObject());
+		}, 2);
+
+		List<JSONObject> lines = lines(out);
+		assertEquals(3, lines.size());
+		for (JSONObject line : lines) {
+			assertEquals(line.getInt("index") == 1 ? "error" : "ok", line.getString("status"));
+		}
+	}
+
+	private static List<AlloyRequest> requests(int count) {
+		List<AlloyRequest> requests = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			AlloyRequest request = AlloyRequest.of("some Event", "run userDefinedPredicate for 1", "forward");
+			request.setRequestId("r" + i);
+			requests.add(request);
+		}
+		return requests;
+	}
+
+	private static List<JSONObject> lines(ByteArrayOutputStream out) {
+		List<JSONObject> lines = new ArrayList<>();
+		for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+			if (!line.isEmpty()) {
+				lines.add(new JSONObject(line));
+			}
+		}
+		return lines;
+	}
+
+	private static List<Integer> indexes(List<JSONObject> lines) {
+		List<Integer> indexes = new ArrayList<>();
+		for (JSONObject line : lines) {
+			indexes.add(line.getInt("index"));
+		}
+		return indexes;
+	}
+}
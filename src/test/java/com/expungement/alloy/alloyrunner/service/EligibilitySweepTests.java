@@ -0,0 +1,118 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class EligibilitySweepTests {
+
+	// Earliest year each conviction can really be expunged; c2 never can
+	private static final Map<String, Integer> TRUTH = Map.of("c0", 2016, "c1", 2021);
+
+	@Test
+	void findsTheEarliestYearWithoutSolvingEveryYear() {
+		Map<String, Integer> from = new LinkedHashMap<>();
+		from.put("c0", 2010);
+		from.put("c1", 2012);
+		from.put("c2", 2014);
+		AtomicInteger solves = new AtomicInteger();
+
+		Map<String, Integer> earliest = EligibilitySweep.search(from, 2030, 3, (name, year) -> {
+			solves.incrementAndGet();
+			Integer truth = TRUTH.get(name);
+			if (truth == null || year < truth) {
+				return CompletableFuture.completedFuture(null);
+			}
+			// The schedule found expunges name by year and the others some time later
+			Map<String, Integer> witness = new HashMap<>();
+			TRUTH.forEach((other, first) -> witness.put(other, other.equals(name) ? Math.max(first, year - 1) : 2030));
+			return CompletableFuture.completedFuture(witness);
+		}).join().earliest;
+
+		assertEquals(2016, earliest.get("c0"));
+		assertEquals(2021, earliest.get("c1"));
+		assertNull(earliest.get("c2"));
+		assertTrue(earliest.containsKey("c2"));
+		// 38 years across the three convictions
+		assertTrue(solves.get() < 25, "solves: " + solves.get());
+	}
+
+	@Test
+	void schedulesBoundTheOtherConvictions() {
+		Map<String, Integer> from = new LinkedHashMap<>();
+		from.put("c0", 2010);
+		from.put("c1", 2010);
+		AtomicInteger probesOfC1AtHorizon = new AtomicInteger();
+
+		Map<String, Integer> earliest = EligibilitySweep.search(from, 2030, 2, (name, year) -> {
+			if (name.equals("c1") && year == 2030) {
+				probesOfC1AtHorizon.incrementAndGet();
+			}
+			if (year < 2015) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return CompletableFuture.completedFuture(Map.of("c0", 2015, "c1", 2015));
+		}).join().earliest;
+
+		assertEquals(Map.of("c0", 2015, "c1", 2015), earliest);
+		assertEquals(0, probesOfC1AtHorizon.get());
+	}
+
+	@Test
+	void aFailedProbeKeepsWhatWasFound() {
+		Map<String, Integer> from = new LinkedHashMap<>();
+		from.put("c0", 2010);
+		from.put("c1", 2010);
+		from.put("c2", 2012);
+
+		EligibilitySweep.Progress progress = EligibilitySweep.search(from, 2030, 2, (name, year) -> {
+			if (name.equals("c1") && year < 2020) {
+				return CompletableFuture.failedFuture(new SolverBusyException(5));
+			}
+			if (year < 2015) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return CompletableFuture.completedFuture(Map.of("c0", 2015, "c1", 2025));
+		}).join();
+
+		assertInstanceOf(SolverBusyException.class, progress.error);
+		assertEquals(Map.of("c0", 2015), progress.earliest);
+		assertArrayEquals(new Integer[] { 2010, 2025 }, progress.open.get("c1"));
+		assertArrayEquals(new Integer[] { 2012, null }, progress.open.get("c2"));
+		assertTrue(progress.solved > 0);
+	}
+
+	@Test
+	void cancellingTheSearchCancelsItsProbes() {
+		List<CompletableFuture<Map<String, Integer>>> probes = new CopyOnWriteArrayList<>();
+		CompletableFuture<EligibilitySweep.Progress> search = EligibilitySweep.search(Map.of("c0", 2010), 2030, 2, (name, year) -> {
+			CompletableFuture<Map<String, Integer>> probe = new CompletableFuture<>();
+			probes.add(probe);
+			return probe;
+		});
+		assertEquals(1, probes.size());
+		assertFalse(search.isDone());
+
+		search.cancel(true);
+		assertTrue(probes.get(0).isCancelled());
+	}
+
+	@Test
+	void yearsAreSpreadEvenlyAcrossTheRange() {
+		assertEquals(List.of(2010, 2011, 2012), EligibilitySweep.spread(2010, 2013, 4));
+		assertEquals(List.of(2015, 2020, 2025), EligibilitySweep.spread(2010, 2030, 3));
+	}
+}
@@ -0,0 +1,104 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ModelRegistryTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void fileNamesGiveJurisdictionAndDirection() {
+		assertArrayEquals(new String[] { "michigan", "forward" }, ModelRegistry.keyFor("michigan.als"));
+		assertArrayEquals(new String[] { "michigan", "backward" }, ModelRegistry.keyFor("michigan-backward.als"));
+		assertArrayEquals(new String[] { "utah", "forward" }, ModelRegistry.keyFor("Utah-Forward.als"));
+		// A trailing digit is part of the name
+		assertArrayEquals(new String[] { "district2", "forward" }, ModelRegistry.keyFor("district2.als"));
+	}
+
+	@Test
+	void externalModelsOverrideBundledOnes() throws Exception {
+		String utah;
+		try (InputStream stream = getClass().getClassLoader().getResourceAsStream("models/utah.als")) {
+			utah = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		Files.writeString(dir.resolve("utah.als"), utah + "\n-- local copy\n");
+
+		ModelRegistry registry = registry();
+		registry.load();
+
+		assertEquals(dir.resolve("utah.als").toAbsolutePath().toString(), registry.get("utah", "forward").getName());
+		assertEquals("models/michigan.als", registry.get(null, "forward").getName());
+		assertEquals("models/michigan-backward.als", registry.get("Michigan", "backward").getName());
+		assertThrows(InvalidRequestException.class, () -> registry.get("utah", "backward"));
+		assertThrows(InvalidRequestException.class, () -> registry.get("ohio", "forward"));
+	}
+
+	@Test
+	void watchedDirectoryReloadsModifiedDeletedAndNewModels() throws Exception {
+		String utah = bundled("models/utah.als");
+		ModelRegistry registry = registry();
+		ReflectionTestUtils.setField(registry, "watch", true);
+		// Empty at startup, and watched all the same
+		registry.load();
+		try {
+			Path local = dir.resolve("utah.als").toAbsolutePath();
+			Files.writeString(local, utah + "\n-- local copy\n");
+			await(() -> registry.get("utah", "forward").getName().equals(local.toString()));
+			String first = registry.get("utah", "forward").getContentHash();
+
+			Files.writeString(local, utah + "\n-- local copy, edited\n");
+			await(() -> !registry.get("utah", "forward").getContentHash().equals(first));
+			assertEquals(local.toString(), registry.get("utah", "forward").getName());
+
+			Files.delete(local);
+			await(() -> registry.get("utah", "forward").getName().equals("models/utah.als"));
+
+			Files.writeString(dir.resolve("ohio.als"), utah);
+			await(() -> registry.stats().toString().contains("ohio/forward"));
+			assertEquals(dir.resolve("ohio.als").toAbsolutePath().toString(), registry.get("ohio", "forward").getName());
+			assertTrue(registry.stats().getBoolean("watching"));
+		} finally {
+			registry.shutdown();
+		}
+	}
+
+	private static String bundled(String name) throws IOException {
+		try (InputStream stream = ModelRegistryTests.class.getClassLoader().getResourceAsStream(name)) {
+			return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 200 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(condition.getAsBoolean(), "model registry did not reload");
+	}
+
+	private ModelRegistry registry() {
+		ModelRegistry registry = new ModelRegistry();
+		ReflectionTestUtils.setField(registry, "modelsDir", dir.toString());
+		ReflectionTestUtils.setField(registry, "modelPath", "");
+		ReflectionTestUtils.setField(registry, "modelPath2", "");
+		ReflectionTestUtils.setField(registry, "watch", false);
+		ReflectionTestUtils.setField(registry, "metrics", new SolveMetrics(new SimpleMeterRegistry()));
+		return registry;
+	}
+}
@@ -0,0 +1,100 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.model.CaseRecord;
+
+class RecordCompilerTests {
+
+	@Test
+	void recordIsPinnedDownByThePredicateAndExactScopes() {
+		CaseRecord record = record(
+				conviction("A-1", "felony", "2010-03-04", true, false, true),
+				conviction(null, "misdemeanor", "2012", false, true, false),
+				conviction("B", "felony", "2014", false, false, false));
+
+		RecordCompiler.Compiled compiled = RecordCompiler.compile(record);
+		AlloyRequest request = compiled.getRequest();
+		assertEquals(RecordCompiler.EVALUATE, compiled.getMode());
+		assertEquals("some disj c0, c2: Felony, c1: Misdemeanor | c0.date = d2010 and c1.date = d2012 and c2.date = d2014"
+				+ " and Assaultive = c0 and OWI = c1 and TenYearFelony = c0\n", request.getPredicate());
+		assertEquals("run userDefinedPredicate for 6 but exactly 2 Felony, exactly 1 Misdemeanor, 3 Expungement, 8 steps",
+				request.getRun());
+		assertEquals(ModelRegistry.FORWARD, request.getType());
+		assertTrue(request.getSpecializeDates());
+	}
+
+	@Test
+	void listedExpungementsAreExact() {
+		CaseRecord record = record(
+				conviction("a", "felony", "2010", false, false, false),
+				conviction("b", "misdemeanor", "2011", false, false, false));
+		CaseRecord.Expungement expungement = new CaseRecord.Expungement();
+		expungement.setDate("2021");
+		expungement.setConvictions(List.of("b", "a"));
+		record.setExpungements(List.of(expungement));
+		record.setMode("run");
+
+		RecordCompiler.Compiled compiled = RecordCompiler.compile(record);
+		assertEquals(RecordCompiler.RUN, compiled.getMode());
+		assertTrue(compiled.getRequest().getPredicate().endsWith("x0.date = d2021 and x0.con = c1 + c0\n"));
+		assertEquals("run userDefinedPredicate for 3 but exactly 1 Felony, exactly 1 Misdemeanor, exactly 1 Expungement, 5 steps",
+				compiled.getRequest().getRun());
+	}
+
+	@Test
+	void malformedRecordsAreRejected() {
+		assertInvalid("convictions[1].kind must be felony or misdemeanor", conviction("b", "infraction", "2010", false, false, false));
+		assertInvalid("convictions[1].date must be a year or a yyyy-mm-dd date", conviction("b", "felony", "2010 or true", false, false, false));
+		assertInvalid("convictions[1]: only misdemeanors can be OWI", conviction("b", "felony", "2010", false, true, false));
+		assertInvalid("convictions[1]: duplicate id a", conviction("a", "felony", "2010", false, false, false));
+		assertThrows(InvalidRequestException.class, () -> RecordCompiler.compile(new CaseRecord()));
+	}
+
+	@Test
+	void resultsCarryTheClientsIds() {
+		RecordCompiler.Compiled compiled = RecordCompiler.compile(record(
+				conviction("case-17", "felony", "2010", false, false, false),
+				conviction(null, "felony", "2011", false, false, false)));
+		JSONObject result = new JSONObject().put("data", new JSONArray()
+				.put(new JSONObject().put("id", "c0"))
+				.put(new JSONObject().put("id", "c1")));
+
+		JSONArray data = compiled.restoreIds(result).getJSONArray("data");
+		assertEquals("case-17", data.getJSONObject(0).getString("id"));
+		assertEquals("c1", data.getJSONObject(1).getString("id"));
+		assertEquals("c0", result.getJSONArray("data").getJSONObject(0).getString("id"));
+	}
+
+	private static void assertInvalid(String message, CaseRecord.Conviction second) {
+		CaseRecord record = record(conviction("a", "felony", "2010", false, false, false), second);
+		assertEquals(message, assertThrows(InvalidRequestException.class, () -> RecordCompiler.compile(record)).getMessage());
+	}
+
+	private static CaseRecord record(CaseRecord.Conviction... convictions) {
+		CaseRecord record = new CaseRecord();
+		record.setConvictions(new ArrayList<>(List.of(convictions)));
+		return record;
+	}
+
+	private static CaseRecord.Conviction conviction(String id, String kind, String date, boolean assaultive, boolean owi, boolean tenYear) {
+		CaseRecord.Conviction conviction = new CaseRecord.Conviction();
+		conviction.setId(id);
+		conviction.setKind(kind);
+		conviction.setDate(date);
+		conviction.setAssaultive(assaultive);
+		conviction.setOwi(owi);
+		conviction.setTenYear(tenYear);
+		return conviction;
+	}
+}
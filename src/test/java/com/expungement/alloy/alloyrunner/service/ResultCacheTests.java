@@ -0,0 +1,121 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import com.expungement.alloy.alloyrunner.engine.CanonicalPredicate;
+
+class ResultCacheTests {
+
+	@Test
+	void concurrentIdenticalRequestsShareOneSolve() {
+		ResultCache cache = new ResultCache(10);
+		AtomicInteger solves = new AtomicInteger();
+		CompletableFuture<JSONObject> solve = new CompletableFuture<>();
+
+		CompletableFuture<JSONObject> first = cache.getAsync("k", () -> {
+			solves.incrementAndGet();
+			return solve;
+		});
+		CompletableFuture<JSONObject> second = cache.getAsync("k", () -> {
+			solves.incrementAndGet();
+			return solve;
+		});
+		solve.complete(new JSONObject().put("success", true));
+
+		assertEquals(true, first.join().getBoolean("success"));
+		assertEquals(true, second.join().getBoolean("success"));
+		assertEquals(1, solves.get());
+
+		cache.get("k", () -> {
+			throw new IllegalStateException("should be cached");
+		});
+		JSONObject stats = cache.stats();
+		assertEquals(1, stats.getLong("misses"));
+		assertEquals(1, stats.getLong("merged"));
+		assertEquals(1, stats.getLong("hits"));
+	}
+
+	@Test
+	void failuresAreNotCachedAndEldestEntriesAreEvicted() {
+		ResultCache cache = new ResultCache(2);
+		assertThrows(IllegalStateException.class, () -> cache.get("bad", () -> {
+			throw new IllegalStateException("boom");
+		}));
+		assertEquals(0, cache.stats().getInt("size"));
+
+		for (String key : new String[] { "a", "b", "c" }) {
+			cache.get(key, () -> new JSONObject().put("key", key));
+		}
+		assertEquals(2, cache.stats().getInt("size"));
+		assertEquals(1, cache.stats().getLong("evictions"));
+	}
+
+	@Test
+	void solveIsCancelledOnlyWhenEveryWaiterHasGone() {
+		ResultCache cache = new ResultCache(10);
+		CompletableFuture<JSONObject> solve = new CompletableFuture<>();
+
+		CompletableFuture<JSONObject> first = cache.getAsync("k", () -> solve);
+		CompletableFuture<JSONObject> second = cache.getAsync("k", () -> solve);
+		first.cancel(true);
+		assertFalse(solve.isCancelled());
+
+		second.cancel(true);
+		assertTrue(solve.isCancelled());
+		assertEquals(0, cache.stats().getInt("inFlight"));
+
+		// A later identical request starts a fresh solve
+		CompletableFuture<JSONObject> retry = cache.getAsync("k", () -> CompletableFuture.completedFuture(new JSONObject().put("success", true)));
+		assertEquals(true, retry.join().getBoolean("success"));
+	}
+
+	@Test
+	void hitsFromDifferentlyWrittenRecordsAreCountedAsCanonical() {
+		ResultCache cache = new ResultCache(10);
+		CanonicalPredicate first = cache.canonical("some a: Felony, b: OWI | a.date = d2010 and b.date = d2012");
+		CanonicalPredicate second = cache.canonical("some o: OWI, f: Felony | o.date = d2012 and f.date = d2010");
+		assertEquals(first.getText(), second.getText());
+
+		cache.getAsync(first.getText(), "first", () -> CompletableFuture.completedFuture(new JSONObject())).join();
+		cache.getAsync(first.getText(), "first", () -> CompletableFuture.completedFuture(new JSONObject())).join();
+		cache.getAsync(second.getText(), "second", () -> CompletableFuture.completedFuture(new JSONObject())).join();
+
+		JSONObject stats = cache.stats();
+		assertEquals(2, stats.getLong("canonicalized"));
+		assertEquals(2, stats.getLong("hits"));
+		assertEquals(1, stats.getLong("canonicalHits"));
+	}
+
+	@Test
+	void zeroEntriesSolvesEveryRequest() {
+		ResultCache cache = new ResultCache(0);
+		AtomicInteger solves = new AtomicInteger();
+		CompletableFuture<JSONObject> solve = new CompletableFuture<>();
+
+		CompletableFuture<JSONObject> first = cache.getAsync("k", () -> {
+			solves.incrementAndGet();
+			return solve;
+		});
+		CompletableFuture<JSONObject> second = cache.getAsync("k", () -> {
+			solves.incrementAndGet();
+			return solve;
+		});
+		solve.complete(new JSONObject().put("success", true));
+		first.join();
+		second.join();
+		cache.get("k", () -> new JSONObject());
+
+		assertEquals(2, solves.get());
+		assertEquals(3, cache.stats().getLong("misses"));
+		assertEquals(0, cache.stats().getInt("size"));
+	}
+}
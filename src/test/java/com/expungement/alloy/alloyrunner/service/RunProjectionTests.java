@@ -0,0 +1,42 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RunProjectionTests {
+
+	@Test
+	void missingSettingsGiveTheClassicResponse() {
+		assertSame(RunProjection.DEFAULT, RunProjection.of(null, null));
+		assertTrue(RunProjection.of(List.of("violations", "expungements"), "last").isDefault());
+		assertFalse(RunProjection.of(null, "all").isDefault());
+	}
+
+	@Test
+	void fieldsAreKeptInResponseOrder() {
+		RunProjection projection = RunProjection.of(List.of("expunged", "now", "expungements"), "all");
+		assertEquals(List.of("expungements", "now", "expunged"), projection.getFields());
+		assertEquals(projection.key(), RunProjection.of(List.of("now", "expungements", "expunged"), "all").key());
+		assertFalse(projection.key().equals(RunProjection.of(List.of("now", "expungements", "expunged"), "last").key()));
+	}
+
+	@Test
+	void unknownSettingsAreRejected() {
+		assertThrows(InvalidRequestException.class, () -> RunProjection.of(List.of("date_attributes"), null));
+		assertThrows(InvalidRequestException.class, () -> RunProjection.of(null, "first"));
+	}
+
+	@Test
+	void emptyResponseHasOnlyTheRequestedFields() {
+		assertTrue(RunProjection.DEFAULT.empty().has("expungements"));
+		assertFalse(RunProjection.of(List.of("violations"), null).empty().has("expungements"));
+		assertEquals(0, RunProjection.of(List.of("now"), "all").empty().getJSONArray("trace").length());
+	}
+}
@@ -0,0 +1,45 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SolveMetricsTests {
+
+	@Test
+	void failuresAreCountedByResult() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		SolveMetrics metrics = new SolveMetrics(registry);
+
+		metrics.failed("forward", "minisat", new SolveTimeoutException(1000));
+		metrics.failed("forward", "minisat", new SolveTimeoutException(1000));
+		metrics.failed("forward", "minisat", new SolveCancelledException("Client went away"));
+		metrics.failed("backward", "sat4j", new IllegalStateException("boom"));
+
+		assertEquals(2, registry.get("alloy.solve.results").tag("result", "timeout").counter().count());
+		assertEquals(1, registry.get("alloy.solve.results").tag("result", "cancelled").counter().count());
+		assertEquals(1, registry.get("alloy.solve.results").tags("model", "backward", "solver", "sat4j", "result", "error").counter().count());
+	}
+
+	@Test
+	void phasesAreTimedPerModel() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		SolveMetrics metrics = new SolveMetrics(registry);
+
+		metrics.parsed(SolveMetrics.modelTag("forward"), TimeUnit.MILLISECONDS.toNanos(40));
+		metrics.parsed(SolveMetrics.modelTag("backward"), TimeUnit.MILLISECONDS.toNanos(60));
+		metrics.decoded("forward", "minisat", TimeUnit.MILLISECONDS.toNanos(5), 4, 3);
+
+		assertEquals(40, registry.get("alloy.phase").tags("phase", "parse", "model", "forward").timer().totalTime(TimeUnit.MILLISECONDS));
+		assertEquals(1, registry.get("alloy.phase").tags("phase", "parse", "model", "backward").timer().count());
+		assertEquals(4, registry.get("alloy.trace.length").tag("model", "forward").summary().totalAmount());
+		assertEquals(3, registry.get("alloy.decoded.events").tag("model", "forward").summary().totalAmount());
+	}
+}
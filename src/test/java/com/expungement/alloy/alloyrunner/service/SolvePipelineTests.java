@@ -0,0 +1,76 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SolvePipelineTests {
+
+	private static final String MODEL = "sig Event {}\nsig Conviction extends Event {}\n";
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ShapeStats shapes = new ShapeStats(8);
+	private SolvePipeline pipeline;
+	private CompiledModel model;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		SolverSelection solvers = new SolverSelection();
+		solvers.probe();
+		pipeline = new SolvePipeline();
+		ReflectionTestUtils.setField(pipeline, "solverSelection", solvers);
+		ReflectionTestUtils.setField(pipeline, "shapeStats", shapes);
+		ReflectionTestUtils.setField(pipeline, "metrics", new SolveMetrics(registry));
+		ReflectionTestUtils.setField(pipeline, "traceCapture", new TraceCapture(8));
+		model = CompiledModel.compile("events.als", MODEL);
+	}
+
+	@Test
+	void solvesAreDecodedByTheEndpointAndMetered() {
+		JSONObject result = pipeline.solve("run", request("some Conviction\n"), model, "sat4j", false, new SolveMonitor(),
+				(outcome, optimized) -> new JSONObject().put("satisfiable", outcome.getSolution().satisfiable()).put("optimized", optimized != null));
+
+		assertTrue(result.getBoolean("satisfiable"));
+		assertFalse(result.getBoolean("optimized"));
+		assertEquals(1, registry.get("alloy.solve.results").tags("model", "forward", "solver", "sat4j", "result", "sat").counter().count());
+		assertEquals(1, shapes.stats().getJSONArray("shapes").getJSONObject(0).getLong("requests"));
+	}
+
+	@Test
+	void failuresAreMeteredAndClientDisconnectsAreNot() {
+		assertThrows(InvalidQueryException.class, () -> pipeline.solve("run", request("some Felon\n"), model, "sat4j", false,
+				new SolveMonitor(), (outcome, optimized) -> outcome));
+		assertEquals(1, registry.get("alloy.solve.results").tags("result", "error").counter().count());
+
+		assertThrows(IOException.class, () -> pipeline.solve("run", request("some Conviction\n"), model, "sat4j", false,
+				new SolveMonitor(), (outcome, optimized) -> {
+					throw new IOException("Broken pipe");
+				}));
+		assertEquals(1, registry.get("alloy.solve.results").tags("result", "error").counter().count());
+	}
+
+	@Test
+	void unknownObjectivesAreRejected() {
+		SolvePipeline.objective(null);
+		SolvePipeline.objective("max-expunged");
+		assertThrows(InvalidRequestException.class, () -> SolvePipeline.objective("max-violations"));
+	}
+
+	private static AlloyRequest request(String predicate) {
+		return AlloyRequest.of(predicate, "run userDefinedPredicate for 2", "forward");
+	}
+}
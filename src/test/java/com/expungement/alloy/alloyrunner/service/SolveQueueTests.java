@@ -0,0 +1,148 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+
+class SolveQueueTests {
+
+	private static final String SMALL = "run userDefinedPredicate for 3 but exactly 1 Felony, exactly 1 Expungement, 4 steps";
+	private static final String LARGE = "run userDefinedPredicate for 12 but exactly 6 Felony, exactly 4 Misdemeanor, 1..14 steps";
+
+	@Test
+	void costIsReadFromTheRunCommand() {
+		SolveCost small = SolveCost.of("michigan.als", SMALL);
+		assertEquals(5, small.getAtoms());
+		assertEquals(4, small.getSteps());
+		SolveCost large = SolveCost.of("michigan.als", LARGE);
+		assertEquals(22, large.getAtoms());
+		assertEquals(14, large.getSteps());
+		assertEquals(10, SolveCost.of("michigan.als", "run userDefinedPredicate for 4 Event").getSteps());
+	}
+
+	@Test
+	void cheaperSolvesGoFirstUntilLargeOnesHaveWaitedLongEnough() {
+		SolveCostModel costs = new SolveCostModel(1000);
+		costs.observe(SolveCost.of("michigan.als", SMALL), 10);
+		costs.observe(SolveCost.of("michigan.als", LARGE), 5000);
+
+		SolveQueue sjf = new SolveQueue(8, 1.0, false, 30000, costs);
+		sjf.offer(task("large", LARGE, null));
+		sjf.offer(task("small", SMALL, null));
+		assertEquals("small", name(sjf.poll()));
+		assertEquals("large", name(sjf.poll()));
+
+		// A high aging rate turns waiting into priority: arrival order again
+		SolveQueue aged = new SolveQueue(8, 1e9, false, 30000, costs);
+		aged.offer(task("large", LARGE, null));
+		busyWait();
+		aged.offer(task("small", SMALL, null));
+		assertEquals("large", name(aged.poll()));
+	}
+
+	@Test
+	void estimatesScaleToShapesNotSolvedYet() {
+		SolveCostModel costs = new SolveCostModel(1000);
+		assertEquals(1000.0, costs.expectedMs(SolveCost.of("michigan.als", LARGE)));
+		costs.observe(SolveCost.of("michigan.als", SMALL), 10);
+		assertTrue(costs.expectedMs(SolveCost.of("michigan.als", LARGE)) > costs.expectedMs(SolveCost.of("michigan.als", SMALL)));
+		assertTrue(costs.expectedMs(SolveCost.of("utah.als", LARGE)) > 10);
+	}
+
+	@Test
+	void fairShareInterleavesClients() {
+		SolveQueue queue = new SolveQueue(16, 1.0, true, 30000, new SolveCostModel(100));
+		for (int i = 0; i < 3; i++) {
+			queue.offer(task("busy", SMALL, "busy"));
+		}
+		queue.offer(task("quiet", SMALL, "quiet"));
+		List<String> order = new ArrayList<>();
+		Runnable next;
+		while ((next = queue.poll()) != null) {
+			order.add(name(next));
+		}
+		assertEquals(List.of("busy", "quiet", "busy", "busy"), order);
+	}
+
+	@Test
+	void queueIsBounded() {
+		SolveQueue queue = new SolveQueue(1, 1.0, false, 30000, new SolveCostModel(100));
+		assertTrue(queue.offer(task("first", SMALL, null)));
+		assertFalse(queue.offer(task("second", SMALL, null)));
+		assertEquals(0, queue.remainingCapacity());
+	}
+
+	@Test
+	void executorStartsTheCheapestQueuedSolve() throws Exception {
+		SolverExecutor executor = new SolverExecutor(1, 8, 5, 30000, 120000, SolverExecutor.COST, 1.0, false, 30000, 1000, 0);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			// Teach the executor what both shapes cost, then hold its only thread
+			executor.submit(new SolveMonitor(), 30000, SolveCost.of("m", SMALL), null, () -> 1).get();
+			executor.submit(new SolveMonitor(), 30000, SolveCost.of("m", LARGE), null, () -> {
+				busyWait();
+				return 1;
+			}).get();
+			CompletableFuture<Object> blocker = executor.submit(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return null;
+			});
+			List<String> order = new ArrayList<>();
+			CompletableFuture<Boolean> large = executor.submit(new SolveMonitor(), 30000,
+					SolveCost.of("m", LARGE), null, () -> order.add("large"));
+			CompletableFuture<Boolean> small = executor.submit(new SolveMonitor(), 30000,
+					SolveCost.of("m", SMALL), null, () -> order.add("small"));
+			release.countDown();
+			CompletableFuture.allOf(blocker, large, small).get();
+			assertEquals(List.of("small", "large"), order);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static SolveQueue.Task task(String name, String run, String client) {
+		return new SolveQueue.Task(new Named(name), SolveCost.of("michigan.als", run), client);
+	}
+
+	private static String name(Runnable task) {
+		return task.toString();
+	}
+
+	private static void busyWait() {
+		long end = System.nanoTime() + 20_000_000;
+		while (System.nanoTime() < end) {
+			Thread.onSpinWait();
+		}
+	}
+
+	private static final class Named implements Runnable {
+
+		private final String name;
+
+		Named(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SolverExecutorTests {
+
+	@Test
+	void poolThreadIsFreedWhenASolveTimesOut() throws Exception {
+		SolverExecutor executor = new SolverExecutor(1, 8, 5, 30000, 120000, SolverExecutor.FIFO, 1.0, false, 30000, 1000, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			CompletableFuture<Integer> stuck = executor.submit(new SolveMonitor(), 100, stuck(release));
+			ExecutionException error = assertThrows(ExecutionException.class, () -> stuck.get(5, TimeUnit.SECONDS));
+			assertInstanceOf(SolveTimeoutException.class, error.getCause());
+
+			// The only pool thread takes the next solve while the first one is still stuck
+			assertEquals(2, executor.submit(new SolveMonitor(), 30000, () -> 2).get(5, TimeUnit.SECONDS));
+			assertEquals(1, executor.getOverrunningCount());
+			assertEquals(1, executor.stats().getLong("abandoned"));
+
+			release.countDown();
+			awaitOverrunning(executor, 0);
+			assertEquals(0, executor.getOverrunningCount());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void overrunningSolvesAreBounded() throws Exception {
+		SolverExecutor executor = new SolverExecutor(1, 8, 5, 30000, 120000, SolverExecutor.FIFO, 1.0, false, 30000, 1000, 1);
+		CountDownLatch releaseFirst = new CountDownLatch(1);
+		CountDownLatch releaseSecond = new CountDownLatch(1);
+		try {
+			CompletableFuture<Integer> first = executor.submit(new SolveMonitor(), 100, stuck(releaseFirst));
+			assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+			CompletableFuture<Integer> second = executor.submit(new SolveMonitor(), 100, stuck(releaseSecond));
+			assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+
+			// With one solve already overrunning, the pool thread waits for the second to stop
+			CompletableFuture<Integer> third = executor.submit(new SolveMonitor(), 30000, () -> 3);
+			Thread.sleep(300);
+			assertFalse(third.isDone());
+			releaseSecond.countDown();
+			assertEquals(3, third.get(5, TimeUnit.SECONDS));
+			assertEquals(1, executor.getOverrunningCount());
+		} finally {
+			releaseFirst.countDown();
+			releaseSecond.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void overrunningSolvesTakeUpQueuePlaces() throws Exception {
+		SolverExecutor executor = new SolverExecutor(1, 2, 5, 30000, 120000, SolverExecutor.FIFO, 1.0, false, 30000, 1000, 1);
+		CountDownLatch releaseOverrunning = new CountDownLatch(1);
+		CountDownLatch releaseRunning = new CountDownLatch(1);
+		try {
+			assertTrue(executor.submit(new SolveMonitor(), 30000, () -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS)
+					.startsWith("alloy-solve-"));
+			CompletableFuture<Integer> overrun = executor.submit(new SolveMonitor(), 100, stuck(releaseOverrunning));
+			assertThrows(ExecutionException.class, () -> overrun.get(5, TimeUnit.SECONDS));
+			// The caller hears of the timeout before the pool thread gives up on the solve
+			awaitOverrunning(executor, 1);
+			assertEquals(1, executor.getOverrunningCount());
+
+			CountDownLatch started = new CountDownLatch(1);
+			CompletableFuture<Integer> running = executor.submit(() -> {
+				started.countDown();
+				return stuck(releaseRunning).get();
+			});
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			CompletableFuture<Integer> queued = executor.submit(() -> 2);
+			// One place is queued and the other is held by the overrunning solve
+			CompletableFuture<Integer> rejected = executor.submit(() -> 3);
+			assertInstanceOf(SolverBusyException.class, assertThrows(ExecutionException.class, rejected::get).getCause());
+
+			releaseOverrunning.countDown();
+			awaitOverrunning(executor, 0);
+			CompletableFuture<Integer> admitted = executor.submit(() -> 4);
+			releaseRunning.countDown();
+			assertEquals(1, running.get(5, TimeUnit.SECONDS));
+			assertEquals(2, queued.get(5, TimeUnit.SECONDS));
+			assertEquals(4, admitted.get(5, TimeUnit.SECONDS));
+		} finally {
+			releaseOverrunning.countDown();
+			releaseRunning.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void saturationIsExportedAsMeters() throws Exception {
+		SolverExecutor executor = new SolverExecutor(1, 1, 5, 30000, 120000, SolverExecutor.FIFO, 1.0, false, 30000, 1000, 1);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		executor.bindTo(registry);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			CompletableFuture<Integer> running = executor.submit(() -> {
+				started.countDown();
+				return stuck(release).get();
+			});
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			CompletableFuture<Integer> queued = executor.submit(() -> 2);
+			CompletableFuture<Integer> rejected = executor.submit(() -> 3);
+			assertInstanceOf(SolverBusyException.class, assertThrows(ExecutionException.class, rejected::get).getCause());
+
+			assertEquals(1, registry.get("alloy.solver.active").gauge().value());
+			assertEquals(1, registry.get("alloy.solver.queued").gauge().value());
+			assertEquals(1, registry.get("alloy.solver.threads").gauge().value());
+			assertEquals(1, registry.get("alloy.solver.rejected").functionCounter().count());
+
+			release.countDown();
+			assertEquals(2, queued.get(5, TimeUnit.SECONDS));
+			assertEquals(1, running.get(5, TimeUnit.SECONDS));
+			assertEquals(0, registry.get("alloy.solver.queued").gauge().value());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	// Like a SAT call, ignores interrupts until it is done
+	private static Supplier<Integer> stuck(CountDownLatch release) {
+		return () -> {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					release.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return 1;
+		};
+	}
+
+	private static void awaitOverrunning(SolverExecutor executor, int count) throws InterruptedException {
+		for (int i = 0; i < 100 && executor.getOverrunningCount() != count; i++) {
+			Thread.sleep(50);
+		}
+	}
+}
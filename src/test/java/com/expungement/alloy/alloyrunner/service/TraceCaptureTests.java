@@ -0,0 +1,103 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveCancelledException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+
+class TraceCaptureTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void failingSolvesAreCapturedAndOldestCapturesRotateOut() throws Exception {
+		TraceCapture capture = new TraceCapture(8);
+		ReflectionTestUtils.setField(capture, "enabled", true);
+		ReflectionTestUtils.setField(capture, "dir", dir.toString());
+		ReflectionTestUtils.setField(capture, "maxCaptures", 2);
+		CompiledModel model = CompiledModel.compile("test", "sig A {}\n");
+
+		for (String id : new String[] { "first", "second", "third" }) {
+			AlloyRequest request = AlloyRequest.of("some A", "run userDefinedPredicate for 1", "forward");
+			request.setRequestId(id);
+			capture.record("run", request, model, null, 5, new IllegalStateException("boom"));
+		}
+		// Neither fast successes nor cancellations are captured
+		AlloyRequest fast = AlloyRequest.of("some A", "run userDefinedPredicate for 1", "forward");
+		fast.setRequestId("fast");
+		capture.record("run", fast, model, null, 5, null);
+		AlloyRequest cancelled = AlloyRequest.of("some A", "run userDefinedPredicate for 1", "forward");
+		cancelled.setRequestId("cancelled");
+		capture.record("run", cancelled, model, null, 5, new SolveCancelledException("Client went away"));
+
+		awaitCaptured(capture, 3);
+		List<String> stored = captureIds();
+		assertEquals(2, stored.size());
+		assertEquals(2, capture.stats().getInt("stored"));
+		assertFalse(capture.stats().has("recent"));
+		List<String> requestIds = new ArrayList<>();
+		for (String captureId : stored) {
+			// Files are named by the server, never by the client's request id
+			assertFalse(List.of("first", "second", "third").contains(captureId));
+			JSONObject json = capture.get(captureId);
+			assertEquals(captureId, json.getString("captureId"));
+			assertEquals("error", json.getString("reason"));
+			assertEquals("some A", json.getJSONObject("request").getString("predicate"));
+			assertTrue(json.getString("modelText").contains("pred userDefinedPredicate"));
+			requestIds.add(json.getString("requestId"));
+		}
+		assertTrue(requestIds.containsAll(List.of("second", "third")));
+		assertNull(capture.get("third"));
+
+		assertThrows(InvalidRequestException.class, () -> capture.get("../etc/passwd"));
+		capture.shutdown();
+	}
+
+	@Test
+	void nothingIsCapturedUnlessEnabled() throws Exception {
+		TraceCapture capture = new TraceCapture(8);
+		ReflectionTestUtils.setField(capture, "dir", dir.toString());
+		CompiledModel model = CompiledModel.compile("test", "sig A {}\n");
+
+		capture.record("run", AlloyRequest.of("some A", "run userDefinedPredicate for 1", "forward"), model, null, 5,
+				new IllegalStateException("boom"));
+		capture.shutdown();
+		assertEquals(0, capture.stats().getLong("captured"));
+		assertEquals(false, capture.stats().getBoolean("enabled"));
+		assertTrue(captureIds().isEmpty());
+	}
+
+	private List<String> captureIds() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.endsWith(".json"))
+					.map(name -> name.substring(0, name.length() - ".json".length()))
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static void awaitCaptured(TraceCapture capture, long count) throws InterruptedException {
+		for (int i = 0; i < 100 && capture.stats().getLong("captured") < count; i++) {
+			Thread.sleep(50);
+		}
+	}
+}
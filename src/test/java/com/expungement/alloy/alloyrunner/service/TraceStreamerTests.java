@@ -0,0 +1,152 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TraceStreamerTests {
+
+	@TempDir
+	Path dir;
+
+	private final List<String[]> submitted = new CopyOnWriteArrayList<>();
+	private SolverExecutor executor;
+	private TraceStreamer streamer;
+
+	@BeforeEach
+	void setUp() {
+		SolveMetrics metrics = new SolveMetrics(new SimpleMeterRegistry());
+		ModelRegistry registry = new ModelRegistry();
+		ReflectionTestUtils.setField(registry, "modelsDir", dir.toString());
+		ReflectionTestUtils.setField(registry, "watch", false);
+		ReflectionTestUtils.setField(registry, "metrics", metrics);
+		registry.load();
+		ModelCache models = new ModelCache(8);
+		ReflectionTestUtils.setField(models, "registry", registry);
+		ReflectionTestUtils.setField(models, "metrics", metrics);
+		SolverSelection solvers = new SolverSelection();
+		solvers.probe();
+
+		// Records what is queued, and leaves it queued
+		executor = new SolverExecutor(1, 8, 5, 30000, 120000, SolverExecutor.COST, 1.0, false, 30000, 1000, 0) {
+			@Override
+			public <T> CompletableFuture<T> submit(SolveMonitor monitor, long timeoutMs, SolveCost cost, String client, Supplier<T> task) {
+				submitted.add(new String[] { cost.getModel(), client });
+				return new CompletableFuture<>();
+			}
+		};
+		streamer = new TraceStreamer();
+		ReflectionTestUtils.setField(streamer, "modelCache", models);
+		ReflectionTestUtils.setField(streamer, "solverExecutor", executor);
+		ReflectionTestUtils.setField(streamer, "solverSelection", solvers);
+		WorkerDispatch workers = new WorkerDispatch();
+		ReflectionTestUtils.setField(workers, "workerPool", new WorkerPool(false, "local", 1, "1g", 200, 1.0, 8, "", 5));
+		ReflectionTestUtils.setField(streamer, "workerDispatch", workers);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void malformedRequestsAreTurnedAwayBeforeTheyAreQueued() {
+		RecordingEmitter emitter = new RecordingEmitter();
+		streamer.stream(request("some c: Felon | c.date = d2019"), "run", emitter);
+		assertEquals(List.of("error"), emitter.names());
+		JSONObject error = emitter.data(0);
+		assertEquals(InvalidQueryException.ERROR_CODE, error.getString("errorCode"));
+		assertNotNull(error.getJSONObject("location"));
+
+		AlloyRequest unknownField = request("some c: Felony | c.date = d2019");
+		unknownField.setFields(List.of("convictions"));
+		RecordingEmitter second = new RecordingEmitter();
+		streamer.stream(unknownField, "run", second);
+		assertEquals(List.of("error"), second.names());
+		assertTrue(second.data(0).getString("error").startsWith("Unknown field"));
+
+		RecordingEmitter third = new RecordingEmitter();
+		streamer.stream(request(null), "run", third);
+		assertEquals(List.of("error"), third.names());
+		assertEquals("A predicate is required", third.data(0).getString("error"));
+
+		assertTrue(submitted.isEmpty());
+	}
+
+	@Test
+	void streamsAreQueuedByCostForTheirClient() {
+		AlloyRequest request = request("some c: Felony | c.date = d2019");
+		request.setClientId("10.0.0.7");
+		RecordingEmitter emitter = new RecordingEmitter();
+		streamer.stream(request, "evaluate", emitter);
+
+		assertEquals(1, submitted.size());
+		assertEquals("models/michigan.als", submitted.get(0)[0]);
+		assertEquals("10.0.0.7", submitted.get(0)[1]);
+		assertTrue(emitter.names().isEmpty());
+	}
+
+	private static AlloyRequest request(String predicate) {
+		AlloyRequest request = AlloyRequest.of(predicate, "run userDefinedPredicate for 5", "forward");
+		request.setSolver("sat4j");
+		return request;
+	}
+
+	// Keeps the events instead of writing them to a response
+	private static final class RecordingEmitter extends SseEmitter {
+
+		private final List<String> events = new ArrayList<>();
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			StringBuilder text = new StringBuilder();
+			for (DataWithMediaType part : builder.build()) {
+				text.append(part.getData());
+			}
+			events.add(text.toString());
+		}
+
+		List<String> names() {
+			List<String> names = new ArrayList<>();
+			for (String event : events) {
+				names.add(field(event, "event:"));
+			}
+			return names;
+		}
+
+		JSONObject data(int index) {
+			return new JSONObject(field(events.get(index), "data:"));
+		}
+
+		private static String field(String event, String prefix) {
+			for (String line : event.split("\n")) {
+				if (line.startsWith(prefix)) {
+					return line.substring(prefix.length());
+				}
+			}
+			return null;
+		}
+	}
+}
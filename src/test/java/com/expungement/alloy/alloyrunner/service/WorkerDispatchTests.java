@@ -0,0 +1,117 @@
+package com.expungement.alloy.alloyrunner.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveMonitor;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.worker.WorkerPool;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WorkerDispatchTests {
+
+	private static CompiledModel model;
+
+	private final List<CompletableFuture<JSONObject>> jobs = new CopyOnWriteArrayList<>();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private SolverExecutor executor;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		try (InputStream stream = WorkerDispatchTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			model = CompiledModel.compile("models/michigan.als", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@AfterEach
+	void stop() {
+		executor.shutdown();
+	}
+
+	@Test
+	void jobsWaitInTheSolverQueueAndAreMetered() throws Exception {
+		WorkerDispatch dispatch = dispatch(1);
+		CompletableFuture<JSONObject> first = dispatch.submit(WorkerPool.RUN, request("alice"), model, "minisat", false, 30000, false, new SolveMonitor());
+		CompletableFuture<JSONObject> second = dispatch.submit(WorkerPool.RUN, request("bob"), model, "minisat", false, 30000, false, new SolveMonitor());
+		await(() -> jobs.size() == 1);
+		// The one solver thread waits on the first worker job, so the second is queued like any solve
+		assertEquals(1, executor.getQueueDepth());
+
+		jobs.get(0).complete(new JSONObject().put("success", true).put("outcome", new JSONObject()
+				.put("solver", "minisat").put("translateMs", 40).put("solveMs", 60)
+				.put("variables", 100).put("clauses", 400).put("satisfiable", true)));
+		JSONObject result = first.get(5, TimeUnit.SECONDS);
+		assertTrue(result.getBoolean("success"));
+		assertFalse(result.has("outcome"));
+		assertEquals(1, registry.get("alloy.solve.results").tags("solver", "minisat", "result", "sat").counter().count());
+		assertEquals(400, registry.get("alloy.cnf.clauses").summary().totalAmount());
+
+		await(() -> jobs.size() == 2);
+		second.cancel(true);
+	}
+
+	@Test
+	void theDeadlineCancelsTheWorkerJob() throws Exception {
+		WorkerDispatch dispatch = dispatch(1);
+		CompletableFuture<JSONObject> solve = dispatch.submit(WorkerPool.EVALUATE, request("alice"), model, "minisat", false, 200, false, new SolveMonitor());
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> solve.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(SolveTimeoutException.class, failure.getCause());
+		await(() -> jobs.get(0).isCancelled());
+		await(() -> executor.getActiveCount() == 0);
+	}
+
+	private WorkerDispatch dispatch(int threads) {
+		executor = new SolverExecutor(threads, 8, 5, 30000, 120000, SolverExecutor.COST, 1.0, false, 30000, 1000, 0);
+		// Hands out jobs that finish when the test says so
+		WorkerPool pool = new WorkerPool(true, "local", 1, "1g", 200, 1.0, 8, "", 5) {
+			@Override
+			public CompletableFuture<JSONObject> submit(String kind, AlloyRequest request, CompiledModel model,
+					String solver, boolean adaptive, long timeoutMs, boolean trace, boolean capture) {
+				CompletableFuture<JSONObject> job = new CompletableFuture<>();
+				jobs.add(job);
+				return job;
+			}
+		};
+		WorkerDispatch dispatch = new WorkerDispatch();
+		ReflectionTestUtils.setField(dispatch, "workerPool", pool);
+		ReflectionTestUtils.setField(dispatch, "solverExecutor", executor);
+		ReflectionTestUtils.setField(dispatch, "metrics", new SolveMetrics(registry));
+		ReflectionTestUtils.setField(dispatch, "traceCapture", new TraceCapture(8));
+		return dispatch;
+	}
+
+	private static AlloyRequest request(String client) {
+		AlloyRequest request = AlloyRequest.of("some c: Felony | c.date = d2019", "run userDefinedPredicate for 5", "forward");
+		request.setClientId(client);
+		return request;
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+}
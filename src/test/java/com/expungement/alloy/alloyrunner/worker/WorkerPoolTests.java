@@ -0,0 +1,124 @@
+package com.expungement.alloy.alloyrunner.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.expungement.alloy.alloyrunner.engine.CompiledModel;
+import com.expungement.alloy.alloyrunner.engine.SolveTimeoutException;
+import com.expungement.alloy.alloyrunner.model.AlloyRequest;
+import com.expungement.alloy.alloyrunner.service.SolverExecutor;
+
+class WorkerPoolTests {
+
+	private static CompiledModel model;
+
+	private WorkerPool pool;
+
+	@BeforeAll
+	static void compile() throws Exception {
+		try (InputStream stream = WorkerPoolTests.class.getClassLoader().getResourceAsStream("models/michigan.als")) {
+			model = CompiledModel.compile("models/michigan.als", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@AfterEach
+	void stop() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void jobsRunOnWorkersThatAreReplacedAfterMaxJobs() {
+		AtomicInteger launches = new AtomicInteger();
+		LocalWorkerLauncher local = new LocalWorkerLauncher(() -> (job, monitor) -> new JSONObject()
+				.put("predicate", job.getString("predicate"))
+				.put("model", job.getJSONObject("model").getString("hash")));
+		pool = pool(2);
+		pool.start(slot -> {
+			launches.incrementAndGet();
+			return local.launch(slot);
+		});
+
+		for (int i = 0; i < 3; i++) {
+			JSONObject result = submit("p" + i, 5000).join();
+			assertEquals("p" + i, result.getString("predicate"));
+			assertEquals(model.getContentHash(), result.getString("model"));
+		}
+		assertEquals(2, launches.get());
+		JSONObject stats = pool.stats();
+		assertEquals(3, stats.getLong("completed"));
+		assertEquals(1, stats.getLong("recycled"));
+	}
+
+	@Test
+	void failuresAndTimeoutsOnlyFailTheirOwnJob() {
+		pool = pool(100);
+		pool.start(new LocalWorkerLauncher(() -> (job, monitor) -> {
+			switch (job.getString("predicate")) {
+				case "boom":
+					throw new IllegalStateException("boom");
+				case "slow":
+					while (true) {
+						monitor.checkpoint();
+						Thread.sleep(10);
+					}
+				default:
+					return new JSONObject().put("success", true);
+			}
+		}));
+
+		CompletionException boom = assertThrows(CompletionException.class, () -> submit("boom", 5000).join());
+		assertTrue(SolverExecutor.unwrap(boom).getMessage().contains("boom"));
+		CompletionException slow = assertThrows(CompletionException.class, () -> submit("slow", 100).join());
+		assertInstanceOf(SolveTimeoutException.class, SolverExecutor.unwrap(slow));
+		assertEquals(true, submit("ok", 5000).join().getBoolean("success"));
+		assertEquals(2, pool.stats().getLong("failed"));
+	}
+
+	@Test
+	void cancellingARunningJobFreesTheWorker() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		pool = pool(100);
+		pool.start(new LocalWorkerLauncher(() -> (job, monitor) -> {
+			if (job.getString("predicate").equals("slow")) {
+				started.countDown();
+				while (true) {
+					monitor.checkpoint();
+					Thread.sleep(10);
+				}
+			}
+			return new JSONObject().put("success", true);
+		}));
+
+		CompletableFuture<JSONObject> slow = submit("slow", 60000);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		slow.cancel(true);
+		assertEquals(true, submit("ok", 5000).get(5, TimeUnit.SECONDS).getBoolean("success"));
+		assertEquals(0, pool.stats().getLong("restarts"));
+	}
+
+	private static WorkerPool pool(int maxJobs) {
+		return new WorkerPool(true, "local", 1, "1g", maxJobs, 1.0, 8, "", 5);
+	}
+
+	private CompletableFuture<JSONObject> submit(String predicate, long timeoutMs) {
+		AlloyRequest request = AlloyRequest.of(predicate, "run userDefinedPredicate", "forward");
+		return pool.submit(WorkerPool.RUN, request, model, "minisat", false, timeoutMs);
+	}
+}